@@ -4,12 +4,14 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
+// 列上的 ANN 索引由 VectorIndexManager 在启动后于后台建立
 @Component
 public class VectorSchemaInitializer {
 
-    public VectorSchemaInitializer(JdbcTemplate jdbc, @Value("${app.vector.enabled:true}") boolean enabled) {
+    public VectorSchemaInitializer(JdbcTemplate jdbc, @Value("${app.vector.enabled:true}") boolean enabled,
+                                   @Value("${app.vector.dimension:1536}") int dimension) {
         if (!enabled) return;
         try { jdbc.execute("CREATE EXTENSION IF NOT EXISTS vector"); } catch (Exception ignored) {}
-        try { jdbc.execute("ALTER TABLE content_fragments ADD COLUMN IF NOT EXISTS embedding vector(1536)"); } catch (Exception ignored) {}
+        try { jdbc.execute("ALTER TABLE content_fragments ADD COLUMN IF NOT EXISTS embedding vector(" + dimension + ")"); } catch (Exception ignored) {}
     }
 }
@@ -4,10 +4,16 @@ import com.huixun.lms.model.Document;
 import com.huixun.lms.repository.ContentFragmentRepository;
 import com.huixun.lms.repository.DocumentRepository;
 import com.huixun.lms.service.DocumentService;
+import com.huixun.lms.service.IngestionJobService;
+import com.huixun.lms.service.LexicalIndex;
+import com.huixun.lms.service.MemoryVectorIndex;
+import com.huixun.lms.service.ProgressPublisher;
+import com.huixun.lms.service.SearchCache;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
 
@@ -18,13 +24,28 @@ public class DocumentController {
     private final DocumentService documentService;
     private final DocumentRepository documentRepository;
     private final ContentFragmentRepository fragmentRepository;
+    private final IngestionJobService ingestionJobService;
+    private final ProgressPublisher progressPublisher;
+    private final SearchCache searchCache;
+    private final LexicalIndex lexicalIndex;
+    private final MemoryVectorIndex memoryIndex;
 
     public DocumentController(DocumentService documentService,
                               DocumentRepository documentRepository,
-                              ContentFragmentRepository fragmentRepository) {
+                              ContentFragmentRepository fragmentRepository,
+                              IngestionJobService ingestionJobService,
+                              ProgressPublisher progressPublisher,
+                              SearchCache searchCache,
+                              LexicalIndex lexicalIndex,
+                              MemoryVectorIndex memoryIndex) {
         this.documentService = documentService;
         this.documentRepository = documentRepository;
         this.fragmentRepository = fragmentRepository;
+        this.ingestionJobService = ingestionJobService;
+        this.progressPublisher = progressPublisher;
+        this.searchCache = searchCache;
+        this.lexicalIndex = lexicalIndex;
+        this.memoryIndex = memoryIndex;
     }
 
     @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
@@ -32,14 +53,60 @@ public class DocumentController {
         if (file.isEmpty() || !file.getOriginalFilename().toLowerCase().endsWith(".pdf")) {
             return ResponseEntity.badRequest().body("仅支持 PDF 文件");
         }
-        Document doc = documentService.saveUploaded(file.getOriginalFilename(), file.getBytes());
-        return ResponseEntity.ok(new UploadResponse(doc.getId()));
+        Document doc;
+        try (java.io.InputStream in = file.getInputStream()) {
+            doc = documentService.saveUploaded(file.getOriginalFilename(), in);
+        }
+        return ResponseEntity.ok(new UploadResponse(doc));
+    }
+
+    @PostMapping(value = "/{id}/revisions", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> revise(@PathVariable("id") Long id, @RequestPart("file") MultipartFile file) throws IOException {
+        if (file.isEmpty() || !file.getOriginalFilename().toLowerCase().endsWith(".pdf")) {
+            return ResponseEntity.badRequest().body("仅支持 PDF 文件");
+        }
+        Document doc = documentRepository.findById(id).orElse(null);
+        if (doc == null) return ResponseEntity.notFound().build();
+        if (ingestionJobService.hasActiveJob(id)) {
+            return ResponseEntity.status(409).body("文档正在处理中，请稍后再上传新版本");
+        }
+        boolean changed;
+        try (java.io.InputStream in = file.getInputStream()) {
+            changed = documentService.saveRevision(doc, file.getOriginalFilename(), in);
+        }
+        Long jobId = null;
+        if (changed) {
+            try {
+                jobId = ingestionJobService.submit(id).getId();
+            } catch (IngestionJobService.QueueFullException e) {
+                // 新版本已保存，队列空闲后可再次调用 /api/parse 触发处理
+            }
+        }
+        return ResponseEntity.ok(new RevisionResponse(doc.getId(), doc.getRevision(), changed, jobId));
+    }
+
+    @GetMapping("/lookup")
+    public ResponseEntity<?> lookup(@RequestParam("sha256") String sha256) {
+        return ResponseEntity.ok(documentService.findByHash(sha256)
+                .map(d -> new LookupResponse(true, d.getId(), d.getStatus()))
+                .orElse(new LookupResponse(false, null, null)));
+    }
+
+    @PostMapping("/instant")
+    public ResponseEntity<?> instant(@RequestBody InstantRequest req) {
+        if (req.sha256 == null || req.sha256.isBlank() || req.filename == null || !req.filename.toLowerCase().endsWith(".pdf")) {
+            return ResponseEntity.badRequest().body("仅支持 PDF 文件");
+        }
+        return documentService.instantUpload(req.sha256, req.filename)
+                .map(d -> ResponseEntity.ok(new UploadResponse(d)))
+                .orElse(ResponseEntity.notFound().build());
     }
 
     @GetMapping("/{id}/status")
     public ResponseEntity<?> status(@PathVariable("id") Long id) {
         try {
-            System.out.println("status called for id=" + id);
+            ProgressPublisher.ProgressEvent cached = progressPublisher.latest(id);
+            if (cached != null) return ResponseEntity.ok(new StatusResponse(cached.status(), cached.errorMessage()));
             return documentRepository.findById(id)
                     .map(d -> ResponseEntity.ok(new StatusResponse(d.getStatus(), d.getErrorMessage())))
                     .orElse(ResponseEntity.notFound().build());
@@ -49,11 +116,24 @@ public class DocumentController {
         }
     }
 
+    // 处理进度推送：先发送当前状态，此后由解析/嵌入服务直接推送阶段变化与页数、片段数进度，终态后关闭
+    @GetMapping(value = "/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> events(@PathVariable("id") Long id) {
+        ProgressPublisher.ProgressEvent initial = null;
+        if (progressPublisher.latest(id) == null) {
+            Document d = documentRepository.findById(id).orElse(null);
+            if (d == null) return ResponseEntity.notFound().build();
+            initial = new ProgressPublisher.ProgressEvent(id, d.getStatus(), 0, 0, d.getErrorMessage());
+        }
+        SseEmitter emitter = progressPublisher.subscribe(id, initial);
+        return ResponseEntity.ok().header("X-Accel-Buffering", "no").body(emitter);
+    }
+
     @GetMapping("/{id}/fragments")
     public ResponseEntity<?> fragments(@PathVariable("id") Long id) {
         try {
             System.out.println("fragments called for id=" + id);
-            return ResponseEntity.ok(fragmentRepository.findByDocumentId(id));
+            return ResponseEntity.ok(fragmentRepository.findByDocumentIdOrderByOrdinalAscIdAsc(id));
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.status(500).body("片段查询失败");
@@ -79,9 +159,13 @@ public class DocumentController {
     public ResponseEntity<?> update(@PathVariable("id") Long id, @RequestBody UpdateRequest req) {
         return documentRepository.findById(id).map(d -> {
             if (req.filename != null && !req.filename.isBlank()) d.setFilename(req.filename);
-            if (req.status != null && !req.status.isBlank()) d.setStatus(req.status);
+            boolean statusChanged = req.status != null && !req.status.isBlank() && !req.status.equals(d.getStatus());
+            if (statusChanged) d.setStatus(req.status);
             d.setUpdatedAt(java.time.Instant.now());
-            return ResponseEntity.ok(documentRepository.save(d));
+            Document saved = documentRepository.save(d);
+            // 手工改状态也经发布者通知订阅方并刷新缓存，否则 /status 仍返回缓存的旧状态
+            if (statusChanged) progressPublisher.stage(saved.getId(), saved.getStatus(), saved.getErrorMessage());
+            return ResponseEntity.ok(saved);
         }).orElse(ResponseEntity.notFound().build());
     }
 
@@ -91,10 +175,16 @@ public class DocumentController {
             try {
                 java.util.List<com.huixun.lms.model.ContentFragment> fr = fragmentRepository.findByDocumentId(d.getId());
                 if (!fr.isEmpty()) fragmentRepository.deleteAll(fr);
-                if (d.getStoragePath() != null) {
+                documentRepository.delete(d);
+                // 进程内索引立即移除这些片段，不等定时核对
+                lexicalIndex.changed(java.util.List.of(), fr);
+                memoryIndex.removed(fr);
+                searchCache.changed(d.getId());
+                progressPublisher.forget(d.getId());
+                // 文件可能被秒传出的其他文档共享，仅在最后一个引用删除后清理
+                if (d.getStoragePath() != null && !documentService.isBlobShared(d.getStoragePath())) {
                     try { java.nio.file.Files.deleteIfExists(java.nio.file.Path.of(d.getStoragePath())); } catch (Exception ignored) {}
                 }
-                documentRepository.delete(d);
                 return ResponseEntity.ok().build();
             } catch (Exception e) {
                 return ResponseEntity.status(500).body("删除失败");
@@ -102,7 +192,16 @@ public class DocumentController {
         }).orElse(ResponseEntity.notFound().build());
     }
 
-    static class UploadResponse { public Long documentId; UploadResponse(Long id){this.documentId=id;} }
+    static class UploadResponse {
+        public Long documentId; public String status; public boolean reused;
+        UploadResponse(Document d){ this.documentId=d.getId(); this.status=d.getStatus(); this.reused=!"UPLOADED".equals(d.getStatus()); }
+    }
+    static class RevisionResponse {
+        public Long documentId; public int revision; public boolean changed; public Long jobId;
+        RevisionResponse(Long id, int revision, boolean changed, Long jobId){ this.documentId=id; this.revision=revision; this.changed=changed; this.jobId=jobId; }
+    }
+    static class LookupResponse { public boolean exists; public Long documentId; public String status; LookupResponse(boolean e,Long id,String s){exists=e;documentId=id;status=s;} }
+    static class InstantRequest { public String sha256; public String filename; }
     static class StatusResponse { public String status; public String error; StatusResponse(String s,String e){status=s;error=e;} }
     static class UpdateRequest { public String filename; public String status; }
 }
@@ -0,0 +1,85 @@
+package com.huixun.lms.controller;
+
+import com.huixun.lms.model.EmbeddingModel;
+import com.huixun.lms.service.EmbeddingExecutor;
+import com.huixun.lms.service.EmbeddingMigrationService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+@RestController
+@RequestMapping("/api/embedding-models")
+public class EmbeddingModelController {
+
+    private final EmbeddingMigrationService migrationService;
+
+    public EmbeddingModelController(EmbeddingMigrationService migrationService) {
+        this.migrationService = migrationService;
+    }
+
+    @GetMapping
+    public ResponseEntity<?> list() {
+        List<ModelDTO> out = migrationService.list().stream().map(this::toDto).toList();
+        return ResponseEntity.ok(out);
+    }
+
+    // 登记新模型并开始后台回填；body: {"name": "openai:text-embedding-3-large"} 或 {"name": "local:ngram-v1:768"}
+    @PostMapping
+    public ResponseEntity<?> register(@RequestBody Map<String, String> body) {
+        try {
+            return ResponseEntity.status(202).body(toDto(migrationService.register(body.get("name"))));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (EmbeddingMigrationService.ModelStateException e) {
+            return ResponseEntity.status(409).body(e.getMessage());
+        } catch (EmbeddingExecutor.EmbeddingFailedException e) {
+            return ResponseEntity.status(503).body("向量服务暂不可用：" + e.getMessage());
+        }
+    }
+
+    // 切换为该模型；回填未完成时返回 409
+    @PostMapping("/{id}/activate")
+    public ResponseEntity<?> activate(@PathVariable("id") Long id) {
+        try {
+            return ResponseEntity.ok(toDto(migrationService.activate(id)));
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        } catch (EmbeddingMigrationService.ModelStateException e) {
+            return ResponseEntity.status(409).body(e.getMessage());
+        }
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<?> delete(@PathVariable("id") Long id) {
+        try {
+            migrationService.delete(id);
+            return ResponseEntity.noContent().build();
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        } catch (EmbeddingMigrationService.ModelStateException e) {
+            return ResponseEntity.status(409).body(e.getMessage());
+        }
+    }
+
+    private ModelDTO toDto(EmbeddingModel m) {
+        long remaining = m.getJsonColumn() == null ? 0 : migrationService.remaining(m);
+        return new ModelDTO(m.getId(), m.getName(), m.getDimension(), m.getStatus(), m.getBackfilled(), remaining,
+                m.getErrorMessage(), m.getCreatedAt(), m.getActivatedAt());
+    }
+
+    static class ModelDTO {
+        public Long id; public String name; public Integer dimension; public String status;
+        public long backfilled; public long remaining; public String errorMessage;
+        public Instant createdAt; public Instant activatedAt;
+        ModelDTO(Long id, String name, Integer dimension, String status, long backfilled, long remaining,
+                 String errorMessage, Instant createdAt, Instant activatedAt) {
+            this.id = id; this.name = name; this.dimension = dimension; this.status = status;
+            this.backfilled = backfilled; this.remaining = remaining; this.errorMessage = errorMessage;
+            this.createdAt = createdAt; this.activatedAt = activatedAt;
+        }
+    }
+}
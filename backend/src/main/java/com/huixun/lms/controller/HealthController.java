@@ -6,6 +6,8 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.beans.factory.annotation.Value;
 import com.huixun.lms.service.EmbeddingService;
+import com.huixun.lms.service.IngestionJobService;
+import com.huixun.lms.service.ParseAdmission;
 import com.huixun.lms.service.OpenAiEmbeddingProvider;
 import com.huixun.lms.service.QuestionGenerationService;
 import com.huixun.lms.model.ContentFragment;
@@ -18,15 +20,21 @@ public class HealthController {
     private final EmbeddingService embeddingService;
     private final OpenAiEmbeddingProvider openAiProvider;
     private final QuestionGenerationService generationService;
+    private final IngestionJobService ingestionJobService;
+    private final ParseAdmission parseAdmission;
     private final String providerName;
 
     public HealthController(EmbeddingService embeddingService,
                             OpenAiEmbeddingProvider openAiProvider,
                             QuestionGenerationService generationService,
+                            IngestionJobService ingestionJobService,
+                            ParseAdmission parseAdmission,
                             @Value("${app.llm.provider}") String providerName) {
         this.embeddingService = embeddingService;
         this.openAiProvider = openAiProvider;
         this.generationService = generationService;
+        this.ingestionJobService = ingestionJobService;
+        this.parseAdmission = parseAdmission;
         this.providerName = providerName;
     }
     @GetMapping
@@ -38,17 +46,18 @@ public class HealthController {
     public ResponseEntity<?> embeddingHealth() {
         Map<String, Object> resp = new HashMap<>();
         resp.put("provider", providerName);
+        resp.put("model", embeddingService.modelId());
         try {
             if ("openai".equalsIgnoreCase(providerName)) {
-                java.util.List<Double> v = openAiProvider.embed("health check");
-                boolean ok = v != null && !v.isEmpty();
+                float[] v = openAiProvider.embed("health check");
+                boolean ok = v != null && v.length > 0;
                 resp.put("ok", ok);
-                resp.put("vector_dim", v == null ? 0 : v.size());
+                resp.put("vector_dim", v == null ? 0 : v.length);
             } else {
-                java.util.List<Double> v = embeddingService.embedText("health check");
-                boolean ok = v != null && !v.isEmpty();
+                float[] v = embeddingService.embedText("health check");
+                boolean ok = v != null && v.length > 0;
                 resp.put("ok", ok);
-                resp.put("vector_dim", v == null ? 0 : v.size());
+                resp.put("vector_dim", v == null ? 0 : v.length);
             }
             return ResponseEntity.ok(resp);
         } catch (Exception e) {
@@ -58,10 +67,21 @@ public class HealthController {
         }
     }
 
+    @GetMapping("/ingest")
+    public ResponseEntity<?> ingestHealth() {
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("queue_depth", ingestionJobService.queueDepth());
+        resp.put("parse_inflight_bytes", parseAdmission.inFlightBytes());
+        resp.put("parse_budget_bytes", parseAdmission.budgetBytes());
+        resp.put("parse_waiting", parseAdmission.queuedParses());
+        return ResponseEntity.ok(resp);
+    }
+
     @GetMapping("/gen")
     public ResponseEntity<?> generationHealth() {
         Map<String, Object> resp = new HashMap<>();
         resp.put("provider", providerName);
+        resp.put("model", embeddingService.modelId());
         try {
             ContentFragment f = new ContentFragment();
             f.setText("健康检查：请生成一道简短单选题。");
@@ -1,7 +1,8 @@
 package com.huixun.lms.controller;
 
-import com.huixun.lms.service.EmbeddingService;
-import com.huixun.lms.service.PdfParseService;
+import com.huixun.lms.model.IngestionJob;
+import com.huixun.lms.service.IngestionJobService;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -9,25 +10,31 @@ import org.springframework.web.bind.annotation.*;
 @RequestMapping("/api/parse")
 public class ParseController {
 
-    private final PdfParseService pdfParseService;
-    private final EmbeddingService embeddingService;
+    private final IngestionJobService ingestionJobService;
 
-    public ParseController(PdfParseService pdfParseService, EmbeddingService embeddingService) {
-        this.pdfParseService = pdfParseService;
-        this.embeddingService = embeddingService;
+    public ParseController(IngestionJobService ingestionJobService) {
+        this.ingestionJobService = ingestionJobService;
     }
 
     @PostMapping("/{documentId}")
     public ResponseEntity<?> start(@PathVariable("documentId") Long documentId) {
         try {
-            pdfParseService.parse(documentId);
-            embeddingService.embedDocument(documentId);
-            return ResponseEntity.ok("done");
+            IngestionJob job = ingestionJobService.submit(documentId);
+            return ResponseEntity.accepted().body(new JobResponse(job.getId(), job.getDocumentId(), job.getStatus()));
         } catch (java.util.NoSuchElementException e) {
             return ResponseEntity.notFound().build();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return ResponseEntity.status(500).body("解析失败");
+        } catch (IngestionJobService.QueueFullException e) {
+            return ResponseEntity.status(429).header(HttpHeaders.RETRY_AFTER, "30").body(e.getMessage());
         }
     }
+
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<?> job(@PathVariable("jobId") Long jobId) {
+        return ingestionJobService.find(jobId).map(ResponseEntity::ok).orElse(ResponseEntity.notFound().build());
+    }
+
+    static class JobResponse {
+        public Long jobId; public Long documentId; public String status;
+        JobResponse(Long jobId, Long documentId, String status){ this.jobId=jobId; this.documentId=documentId; this.status=status; }
+    }
 }
@@ -8,14 +8,14 @@ import com.huixun.lms.repository.ContentFragmentRepository;
 import com.huixun.lms.repository.CourseRepository;
 import com.huixun.lms.repository.QuestionRepository;
 import com.huixun.lms.repository.QuizRepository;
+import com.huixun.lms.service.EmbeddingExecutor;
 import com.huixun.lms.service.QuestionGenerationService;
-import com.huixun.lms.service.EmbeddingService;
+import com.huixun.lms.service.SearchService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Comparator;
 import java.util.stream.Collectors;
 
 @RestController
@@ -26,7 +26,7 @@ public class QuizController {
     private final QuestionRepository questionRepository;
     private final ContentFragmentRepository fragmentRepository;
     private final QuestionGenerationService generationService;
-    private final EmbeddingService embeddingService;
+    private final SearchService searchService;
     private final CourseRepository courseRepository;
     private final ObjectMapper mapper = new ObjectMapper();
 
@@ -34,13 +34,13 @@ public class QuizController {
                           QuestionRepository questionRepository,
                           ContentFragmentRepository fragmentRepository,
                           QuestionGenerationService generationService,
-                          EmbeddingService embeddingService,
+                          SearchService searchService,
                           CourseRepository courseRepository) {
         this.quizRepository = quizRepository;
         this.questionRepository = questionRepository;
         this.fragmentRepository = fragmentRepository;
         this.generationService = generationService;
-        this.embeddingService = embeddingService;
+        this.searchService = searchService;
         this.courseRepository = courseRepository;
     }
 
@@ -66,7 +66,7 @@ public class QuizController {
                                       @RequestParam(value = "count", defaultValue = "5") int count,
                                       @RequestParam(value = "type", required = false) String type) {
         Quiz quiz = quizRepository.findById(id).orElseThrow();
-        List<ContentFragment> fragments = fragmentRepository.findByDocumentId(documentId);
+        List<ContentFragment> fragments = fragmentRepository.findByDocumentIdOrderByOrdinalAscIdAsc(documentId);
         List<Question> qs = new ArrayList<>();
         int n = Math.min(count, fragments.size());
         for (int i = 0; i < n; i++) {
@@ -100,24 +100,27 @@ public class QuizController {
                                              @RequestParam(value = "difficulty", required = false) String difficulty,
                                              @RequestParam(value = "type", required = false) String type) {
         Quiz quiz = quizRepository.findById(id).orElseThrow();
-        List<com.huixun.lms.model.ContentFragment> fragments = fragmentRepository.findByDocumentId(documentId);
-        List<com.huixun.lms.model.ContentFragment> selected;
+        List<ContentFragment> selected;
         if (query != null && !query.isBlank()) {
-            List<Double> qvec = embeddingService.embedText(query);
-            selected = fragments.stream()
-                    .sorted(Comparator.comparingDouble((com.huixun.lms.model.ContentFragment f) -> -cos(qvec, parseVec(f.getEmbeddingJson()))))
-                    .collect(Collectors.toList());
+            // 在该文档内按相似度只取需要的 count 个片段，标签过滤一并在检索时完成
+            try {
+                selected = searchService.topK(query, count, new SearchService.Scope(List.of(documentId), tags), null, null, null)
+                        .stream().map(r -> r.fragment).collect(Collectors.toList());
+            } catch (EmbeddingExecutor.EmbeddingFailedException e) {
+                return ResponseEntity.status(503).body("向量服务暂不可用：" + e.getMessage());
+            }
         } else {
-            selected = fragments;
-        }
-        if (tags != null && !tags.isBlank()) {
-            String t = tags.trim().toLowerCase();
-            selected = selected.stream()
-                    .filter(f -> {
-                        String kw = f.getKeywords();
-                        return kw != null && kw.toLowerCase().contains(t);
-                    })
-                    .collect(Collectors.toList());
+            selected = fragmentRepository.findByDocumentIdOrderByOrdinalAscIdAsc(documentId);
+            if (tags != null && !tags.isBlank()) {
+                String t = tags.trim().toLowerCase();
+                selected = selected.stream()
+                        .filter(f -> {
+                            String kw = f.getKeywords();
+                            return (kw != null && kw.toLowerCase().contains(t))
+                                    || (f.getText() != null && f.getText().toLowerCase().contains(t));
+                        })
+                        .collect(Collectors.toList());
+            }
         }
         List<Question> qs = new ArrayList<>();
         int n = Math.min(count, selected.size());
@@ -145,33 +148,6 @@ public class QuizController {
         return ResponseEntity.ok(out);
     }
 
-    private static double cos(List<Double> a, List<Double> b) {
-        if (a == null || b == null || a.isEmpty() || b.isEmpty()) return 0.0;
-        int n = Math.min(a.size(), b.size());
-        double dot = 0, na = 0, nb = 0;
-        for (int i = 0; i < n; i++) { double x = a.get(i); double y = b.get(i); dot += x*y; na += x*x; nb += y*y; }
-        if (na == 0 || nb == 0) return 0.0;
-        return dot / (Math.sqrt(na) * Math.sqrt(nb));
-    }
-
-    private static List<Double> parseVec(String json) {
-        try {
-            if (json == null || json.isBlank()) return java.util.Collections.emptyList();
-            String s = json.trim();
-            if (s.startsWith("[")) s = s.substring(1);
-            if (s.endsWith("]")) s = s.substring(0, s.length()-1);
-            if (s.isBlank()) return java.util.Collections.emptyList();
-            String[] parts = s.split(",");
-            List<Double> v = new java.util.ArrayList<>();
-            for (String p : parts) {
-                try { v.add(Double.parseDouble(p.trim())); } catch (Exception ignored) {}
-            }
-            return v;
-        } catch (Exception e) {
-            return java.util.Collections.emptyList();
-        }
-    }
-
     @PostMapping("/{id}/publish")
     public ResponseEntity<Quiz> publish(@PathVariable("id") Long id) {
         Quiz quiz = quizRepository.findById(id).orElseThrow();
@@ -1,21 +1,98 @@
 package com.huixun.lms.controller;
 
+import com.huixun.lms.service.EmbeddingExecutor;
+import com.huixun.lms.service.SearchCache;
 import com.huixun.lms.service.SearchService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/search")
 public class SearchController {
 
+    private static final int MAX_BATCH = 100;
+    // 候选数随 topK * rescore-factor 增长，topK 须有上限
+    private static final int MAX_TOP_K = 200;
+
     private final SearchService searchService;
+    private final SearchCache searchCache;
 
-    public SearchController(SearchService searchService) {
+    public SearchController(SearchService searchService, SearchCache searchCache) {
         this.searchService = searchService;
+        this.searchCache = searchCache;
     }
 
+    // efSearch / probes 覆盖本次检索的索引搜索宽度（HNSW / IVFFlat），不传时用配置值；documentId 限定在一个文档内检索；
+    // mode 为 vector（只用向量）或 hybrid（向量与 BM25 融合），不传时用配置值
     @GetMapping("/fragments")
-    public ResponseEntity<?> fragments(@RequestParam String q, @RequestParam(defaultValue = "10") int topK) {
-        return ResponseEntity.ok(searchService.topK(q, topK));
+    public ResponseEntity<?> fragments(@RequestParam("q") String q, @RequestParam(value = "topK", defaultValue = "10") int topK,
+                                       @RequestParam(value = "documentId", required = false) Long documentId,
+                                       @RequestParam(value = "mode", required = false) String mode,
+                                       @RequestParam(value = "efSearch", required = false) Integer efSearch,
+                                       @RequestParam(value = "probes", required = false) Integer probes) {
+        if (topK < 1 || topK > MAX_TOP_K || (efSearch != null && (efSearch < 1 || efSearch > 1000)) || (probes != null && probes < 1)) {
+            return ResponseEntity.badRequest().body("topK 取值 1-" + MAX_TOP_K + "，efSearch 取值 1-1000，probes 须为正数");
+        }
+        if (mode != null && !mode.equals("vector") && !mode.equals("hybrid")) {
+            return ResponseEntity.badRequest().body("mode 取值 vector 或 hybrid");
+        }
+        try {
+            SearchService.Scope scope = documentId != null ? SearchService.Scope.document(documentId) : null;
+            return ResponseEntity.ok(searchService.topK(q, topK, scope, mode == null ? null : mode.equals("hybrid"), efSearch, probes));
+        } catch (EmbeddingExecutor.EmbeddingFailedException e) {
+            return ResponseEntity.status(503).body("向量服务暂不可用：" + e.getMessage());
+        }
+    }
+
+    // 批量检索：queries 中每个查询各返回一个列表（与 queries 按下标对应），其余参数同 /fragments。
+    // 查询向量一次批量嵌入、数据库一次往返，比逐个调用便宜得多
+    @PostMapping("/fragments/batch")
+    public ResponseEntity<?> batch(@RequestBody BatchRequest req) {
+        int topK = req.topK != null ? req.topK : 10;
+        if (req.queries == null || req.queries.isEmpty() || req.queries.size() > MAX_BATCH
+                || req.queries.stream().anyMatch(q -> q == null || q.isBlank())) {
+            return ResponseEntity.badRequest().body("queries 须为 1-" + MAX_BATCH + " 个非空查询");
+        }
+        if (topK < 1 || topK > MAX_TOP_K || (req.efSearch != null && (req.efSearch < 1 || req.efSearch > 1000)) || (req.probes != null && req.probes < 1)) {
+            return ResponseEntity.badRequest().body("topK 取值 1-" + MAX_TOP_K + "，efSearch 取值 1-1000，probes 须为正数");
+        }
+        if (req.mode != null && !req.mode.equals("vector") && !req.mode.equals("hybrid")) {
+            return ResponseEntity.badRequest().body("mode 取值 vector 或 hybrid");
+        }
+        try {
+            SearchService.Scope scope = req.documentId != null ? SearchService.Scope.document(req.documentId) : null;
+            return ResponseEntity.ok(searchService.topK(req.queries, topK, scope,
+                    req.mode == null ? null : req.mode.equals("hybrid"), req.efSearch, req.probes));
+        } catch (EmbeddingExecutor.EmbeddingFailedException e) {
+            return ResponseEntity.status(503).body("向量服务暂不可用：" + e.getMessage());
+        }
+    }
+
+    // 检索结果缓存的命中情况；同样的数据也以 cache.gets{cache=search_results} 等指标导出
+    @GetMapping("/cache")
+    public SearchCache.Stats cache() {
+        return searchCache.stats();
+    }
+
+    // 量化检索的召回率：抽样片段作查询，与精确检索的结果比较
+    @GetMapping("/recall")
+    public ResponseEntity<?> recall(@RequestParam(value = "samples", defaultValue = "50") int samples,
+                                    @RequestParam(value = "topK", defaultValue = "10") int topK,
+                                    @RequestParam(value = "rescoreFactor", required = false) Integer rescoreFactor) {
+        if (samples < 1 || samples > 500 || topK < 1 || topK > 100) {
+            return ResponseEntity.badRequest().body("samples 取值 1-500，topK 取值 1-100");
+        }
+        return ResponseEntity.ok(searchService.recall(samples, topK, rescoreFactor));
+    }
+
+    static class BatchRequest {
+        public List<String> queries;
+        public Integer topK;
+        public Long documentId;
+        public String mode;
+        public Integer efSearch;
+        public Integer probes;
     }
 }
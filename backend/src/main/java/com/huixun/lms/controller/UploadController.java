@@ -0,0 +1,96 @@
+package com.huixun.lms.controller;
+
+import com.huixun.lms.model.Document;
+import com.huixun.lms.model.UploadSession;
+import com.huixun.lms.service.ChunkedUploadService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+@RestController
+@RequestMapping("/api/uploads")
+public class UploadController {
+
+    private final ChunkedUploadService uploadService;
+
+    public UploadController(ChunkedUploadService uploadService) {
+        this.uploadService = uploadService;
+    }
+
+    @PostMapping
+    public ResponseEntity<?> init(@RequestBody InitRequest req) throws IOException {
+        if (req.filename == null || !req.filename.toLowerCase().endsWith(".pdf")) {
+            return ResponseEntity.badRequest().body("仅支持 PDF 文件");
+        }
+        try {
+            UploadSession s = uploadService.init(req.filename, req.size == null ? 0 : req.size, req.chunkSize);
+            return ResponseEntity.ok(new SessionResponse(s, List.of()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<?> get(@PathVariable("id") String id) {
+        try {
+            UploadSession s = uploadService.get(id);
+            return ResponseEntity.ok(new SessionResponse(s, uploadService.receivedParts(id)));
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @PutMapping(value = "/{id}/parts/{part}")
+    public ResponseEntity<?> part(@PathVariable("id") String id, @PathVariable("part") int part, HttpServletRequest request) throws IOException {
+        try {
+            uploadService.writePart(id, part, request.getInputStream());
+            return ResponseEntity.ok().build();
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(e.getMessage());
+        }
+    }
+
+    @PostMapping("/{id}/complete")
+    public ResponseEntity<?> complete(@PathVariable("id") String id) throws IOException {
+        try {
+            Document d = uploadService.complete(id);
+            return ResponseEntity.ok(new DocumentController.UploadResponse(d));
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        } catch (ChunkedUploadService.IncompleteUploadException e) {
+            return ResponseEntity.status(409).body(Map.of("message", e.getMessage(), "missingParts", e.getMissing()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(Map.of("message", e.getMessage()));
+        }
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<?> abort(@PathVariable("id") String id) throws IOException {
+        try {
+            uploadService.abort(id);
+            return ResponseEntity.ok().build();
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    static class InitRequest { public String filename; public Long size; public Integer chunkSize; }
+    static class SessionResponse {
+        public String uploadId; public String filename; public long totalSize; public int chunkSize; public int totalChunks;
+        public String status; public Long documentId; public List<Integer> receivedParts;
+        SessionResponse(UploadSession s, List<Integer> received) {
+            this.uploadId = s.getId(); this.filename = s.getFilename(); this.totalSize = s.getTotalSize();
+            this.chunkSize = s.getChunkSize(); this.totalChunks = s.getTotalChunks(); this.status = s.getStatus();
+            this.documentId = s.getDocumentId(); this.receivedParts = received;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.huixun.lms.controller;
+
+import com.huixun.lms.service.VectorIndexManager;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/vector-index")
+public class VectorIndexController {
+
+    private final VectorIndexManager indexManager;
+
+    public VectorIndexController(VectorIndexManager indexManager) {
+        this.indexManager = indexManager;
+    }
+
+    @GetMapping
+    public ResponseEntity<?> status() {
+        return ResponseEntity.ok(indexManager.status());
+    }
+
+    // 按当前配置在后台重建索引（如调整 m、ef_construction、lists 之后），构建期间检索继续使用旧索引
+    @PostMapping("/rebuild")
+    public ResponseEntity<?> rebuild() {
+        if (!indexManager.isEnabled()) return ResponseEntity.status(409).body("未启用向量列");
+        if (!indexManager.rebuild()) return ResponseEntity.status(409).body("索引正在构建中");
+        return ResponseEntity.accepted().body(Map.of("building", true));
+    }
+}
@@ -4,7 +4,7 @@ import jakarta.persistence.*;
 import java.time.Instant;
 
 @Entity
-@Table(name = "content_fragments")
+@Table(name = "content_fragments", indexes = @Index(name = "idx_content_fragments_document", columnList = "documentId"))
 public class ContentFragment {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -20,6 +20,11 @@ public class ContentFragment {
 
     private String pageRange;
 
+    private Integer ordinal; // 在文档中的顺序
+
+    @Column(length = 64)
+    private String contentHash; // 规范化文本的 SHA-256，用于版本间比对
+
     @Column(length = 4000)
     private String keywords;
 
@@ -30,6 +35,7 @@ public class ContentFragment {
     private Instant createdAt = Instant.now();
 
     public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
     public Long getDocumentId() { return documentId; }
     public void setDocumentId(Long documentId) { this.documentId = documentId; }
     public String getText() { return text; }
@@ -38,6 +44,10 @@ public class ContentFragment {
     public void setSectionPath(String sectionPath) { this.sectionPath = sectionPath; }
     public String getPageRange() { return pageRange; }
     public void setPageRange(String pageRange) { this.pageRange = pageRange; }
+    public Integer getOrdinal() { return ordinal; }
+    public void setOrdinal(Integer ordinal) { this.ordinal = ordinal; }
+    public String getContentHash() { return contentHash; }
+    public void setContentHash(String contentHash) { this.contentHash = contentHash; }
     public String getKeywords() { return keywords; }
     public void setKeywords(String keywords) { this.keywords = keywords; }
     public String getEmbeddingJson() { return embeddingJson; }
@@ -4,7 +4,7 @@ import jakarta.persistence.*;
 import java.time.Instant;
 
 @Entity
-@Table(name = "documents")
+@Table(name = "documents", indexes = @Index(name = "idx_documents_content_hash", columnList = "contentHash"))
 public class Document {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -21,6 +21,13 @@ public class Document {
 
     private String errorMessage;
 
+    private Long sizeBytes;
+
+    @Column(length = 64)
+    private String contentHash; // SHA-256 hex
+
+    private Integer revision = 1;
+
     @Column(nullable = false)
     private Instant createdAt = Instant.now();
 
@@ -35,6 +42,12 @@ public class Document {
     public void setStatus(String status) { this.status = status; }
     public String getErrorMessage() { return errorMessage; }
     public void setErrorMessage(String errorMessage) { this.errorMessage = errorMessage; }
+    public Long getSizeBytes() { return sizeBytes; }
+    public void setSizeBytes(Long sizeBytes) { this.sizeBytes = sizeBytes; }
+    public String getContentHash() { return contentHash; }
+    public void setContentHash(String contentHash) { this.contentHash = contentHash; }
+    public Integer getRevision() { return revision == null ? 1 : revision; }
+    public void setRevision(Integer revision) { this.revision = revision; }
     public Instant getCreatedAt() { return createdAt; }
     public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
     public Instant getUpdatedAt() { return updatedAt; }
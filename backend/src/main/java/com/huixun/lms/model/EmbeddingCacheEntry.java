@@ -0,0 +1,38 @@
+package com.huixun.lms.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+@Entity
+@Table(name = "embedding_cache", uniqueConstraints = @UniqueConstraint(name = "uk_embedding_cache_model_hash", columnNames = {"model", "textHash"}))
+public class EmbeddingCacheEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 128)
+    private String model;
+
+    @Column(nullable = false, length = 64)
+    private String textHash; // 规范化文本的 SHA-256
+
+    @Column(nullable = false)
+    private Integer dim;
+
+    @Column(nullable = false, length = 65536)
+    private byte[] vector; // float32 小端序
+
+    @Column(nullable = false)
+    private Instant createdAt = Instant.now();
+
+    public Long getId() { return id; }
+    public String getModel() { return model; }
+    public void setModel(String model) { this.model = model; }
+    public String getTextHash() { return textHash; }
+    public void setTextHash(String textHash) { this.textHash = textHash; }
+    public Integer getDim() { return dim; }
+    public void setDim(Integer dim) { this.dim = dim; }
+    public byte[] getVector() { return vector; }
+    public void setVector(byte[] vector) { this.vector = vector; }
+    public Instant getCreatedAt() { return createdAt; }
+}
@@ -0,0 +1,69 @@
+package com.huixun.lms.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+// 嵌入模型登记表：每个模型的向量存放在 content_fragments 上各自的列中。
+// 生效模型的列固定为 embedding_json/embedding，其余模型为 embedding_json_m{id}/embedding_m{id}，切换时互换列名
+@Entity
+@Table(name = "embedding_models", uniqueConstraints = @UniqueConstraint(name = "uk_embedding_models_name", columnNames = "name"))
+public class EmbeddingModel {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 128)
+    private String name; // 如 openai:text-embedding-3-small、local:ngram-v1:1536
+
+    @Column(nullable = false)
+    private Integer dimension;
+
+    @Column(nullable = false)
+    private String status; // ACTIVE/BACKFILLING/READY/RETIRED
+
+    @Column(length = 64)
+    private String jsonColumn;
+
+    @Column(length = 64)
+    private String vectorColumn; // 未启用 pgvector 时为空
+
+    @Column(nullable = false)
+    private long backfillCursor; // 回填已处理到的片段 id
+
+    @Column(nullable = false)
+    private long backfilled;
+
+    private Instant leaseUntil; // 回填租约，多实例时同一模型只由一个实例回填
+
+    @Column(length = 2000)
+    private String errorMessage;
+
+    @Column(nullable = false)
+    private Instant createdAt = Instant.now();
+
+    private Instant activatedAt;
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    public Integer getDimension() { return dimension; }
+    public void setDimension(Integer dimension) { this.dimension = dimension; }
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    public String getJsonColumn() { return jsonColumn; }
+    public void setJsonColumn(String jsonColumn) { this.jsonColumn = jsonColumn; }
+    public String getVectorColumn() { return vectorColumn; }
+    public void setVectorColumn(String vectorColumn) { this.vectorColumn = vectorColumn; }
+    public long getBackfillCursor() { return backfillCursor; }
+    public void setBackfillCursor(long backfillCursor) { this.backfillCursor = backfillCursor; }
+    public long getBackfilled() { return backfilled; }
+    public void setBackfilled(long backfilled) { this.backfilled = backfilled; }
+    public Instant getLeaseUntil() { return leaseUntil; }
+    public void setLeaseUntil(Instant leaseUntil) { this.leaseUntil = leaseUntil; }
+    public String getErrorMessage() { return errorMessage; }
+    public void setErrorMessage(String errorMessage) { this.errorMessage = errorMessage; }
+    public Instant getCreatedAt() { return createdAt; }
+    public Instant getActivatedAt() { return activatedAt; }
+    public void setActivatedAt(Instant activatedAt) { this.activatedAt = activatedAt; }
+}
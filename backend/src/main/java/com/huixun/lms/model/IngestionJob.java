@@ -0,0 +1,68 @@
+package com.huixun.lms.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+@Entity
+@Table(name = "ingestion_jobs", indexes = {
+        @Index(name = "idx_ingestion_jobs_status_next_run", columnList = "status,nextRunAt"),
+        @Index(name = "idx_ingestion_jobs_document", columnList = "documentId")
+})
+public class IngestionJob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long documentId;
+
+    @Column(nullable = false)
+    private String status; // QUEUED/RUNNING/SUCCEEDED/FAILED
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(nullable = false)
+    private int maxAttempts;
+
+    @Column(nullable = false)
+    private Instant nextRunAt = Instant.now();
+
+    @Column(length = 2000)
+    private String errorMessage;
+
+    private Instant startedAt;
+
+    // 执行中的 worker 定期刷新，超时未刷新才视为 worker 已失联
+    private Instant heartbeatAt;
+
+    private Instant finishedAt;
+
+    @Column(nullable = false)
+    private Instant createdAt = Instant.now();
+
+    private Instant updatedAt;
+
+    public Long getId() { return id; }
+    public Long getDocumentId() { return documentId; }
+    public void setDocumentId(Long documentId) { this.documentId = documentId; }
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+    public int getMaxAttempts() { return maxAttempts; }
+    public void setMaxAttempts(int maxAttempts) { this.maxAttempts = maxAttempts; }
+    public Instant getNextRunAt() { return nextRunAt; }
+    public void setNextRunAt(Instant nextRunAt) { this.nextRunAt = nextRunAt; }
+    public String getErrorMessage() { return errorMessage; }
+    public void setErrorMessage(String errorMessage) { this.errorMessage = errorMessage; }
+    public Instant getStartedAt() { return startedAt; }
+    public void setStartedAt(Instant startedAt) { this.startedAt = startedAt; }
+    public Instant getHeartbeatAt() { return heartbeatAt; }
+    public void setHeartbeatAt(Instant heartbeatAt) { this.heartbeatAt = heartbeatAt; }
+    public Instant getFinishedAt() { return finishedAt; }
+    public void setFinishedAt(Instant finishedAt) { this.finishedAt = finishedAt; }
+    public Instant getCreatedAt() { return createdAt; }
+    public Instant getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
+}
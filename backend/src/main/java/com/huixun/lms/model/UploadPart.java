@@ -0,0 +1,32 @@
+package com.huixun.lms.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+@Entity
+@Table(name = "upload_parts", uniqueConstraints = @UniqueConstraint(name = "uk_upload_parts_session_part", columnNames = {"sessionId", "partNumber"}))
+public class UploadPart {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 36)
+    private String sessionId;
+
+    @Column(nullable = false)
+    private Integer partNumber;
+
+    @Column(nullable = false)
+    private Long size;
+
+    @Column(nullable = false)
+    private Instant createdAt = Instant.now();
+
+    public Long getId() { return id; }
+    public String getSessionId() { return sessionId; }
+    public void setSessionId(String sessionId) { this.sessionId = sessionId; }
+    public Integer getPartNumber() { return partNumber; }
+    public void setPartNumber(Integer partNumber) { this.partNumber = partNumber; }
+    public Long getSize() { return size; }
+    public void setSize(Long size) { this.size = size; }
+}
@@ -7,4 +7,6 @@ import java.util.List;
 
 public interface ContentFragmentRepository extends JpaRepository<ContentFragment, Long> {
     List<ContentFragment> findByDocumentId(Long documentId);
+
+    List<ContentFragment> findByDocumentIdOrderByOrdinalAscIdAsc(Long documentId);
 }
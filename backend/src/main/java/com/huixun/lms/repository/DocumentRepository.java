@@ -3,5 +3,10 @@ package com.huixun.lms.repository;
 import com.huixun.lms.model.Document;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.List;
+
 public interface DocumentRepository extends JpaRepository<Document, Long> {
+    List<Document> findByContentHashOrderByIdAsc(String contentHash);
+
+    long countByStoragePath(String storagePath);
 }
@@ -0,0 +1,39 @@
+package com.huixun.lms.repository;
+
+import com.huixun.lms.model.EmbeddingModel;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface EmbeddingModelRepository extends JpaRepository<EmbeddingModel, Long> {
+
+    Optional<EmbeddingModel> findByName(String name);
+
+    Optional<EmbeddingModel> findFirstByStatus(String status);
+
+    List<EmbeddingModel> findByStatusIn(Collection<String> statuses);
+
+    List<EmbeddingModel> findAllByOrderByIdAsc();
+
+    // 条件更新抢占回填租约，租约过期（实例退出）后其他实例可以接手
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmbeddingModel m SET m.leaseUntil = :until " +
+            "WHERE m.id = :id AND (m.leaseUntil IS NULL OR m.leaseUntil < :now)")
+    int claimLease(@Param("id") Long id, @Param("now") Instant now, @Param("until") Instant until);
+
+    // 保存一批回填的进度并释放租约；只在模型仍处于回填阶段时生效
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmbeddingModel m SET m.status = :status, m.backfillCursor = :cursor, m.backfilled = :backfilled, " +
+            "m.errorMessage = :error, m.leaseUntil = NULL WHERE m.id = :id AND m.status IN ('BACKFILLING', 'READY')")
+    int saveBackfill(@Param("id") Long id, @Param("status") String status, @Param("cursor") long cursor,
+                     @Param("backfilled") long backfilled, @Param("error") String error);
+}
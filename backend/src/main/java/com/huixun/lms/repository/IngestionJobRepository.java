@@ -0,0 +1,44 @@
+package com.huixun.lms.repository;
+
+import com.huixun.lms.model.IngestionJob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface IngestionJobRepository extends JpaRepository<IngestionJob, Long> {
+
+    List<IngestionJob> findByStatusAndNextRunAtLessThanEqualOrderByNextRunAtAsc(String status, Instant now, Pageable pageable);
+
+    Optional<IngestionJob> findFirstByDocumentIdAndStatusInOrderByIdDesc(Long documentId, Collection<String> statuses);
+
+    long countByStatusIn(Collection<String> statuses);
+
+    // 条件更新抢占任务，多实例部署时同一任务只会被一个 worker 领取
+    @Modifying
+    @Transactional
+    @Query("UPDATE IngestionJob j SET j.status = 'RUNNING', j.attempts = j.attempts + 1, j.startedAt = :now, j.heartbeatAt = :now, j.updatedAt = :now " +
+            "WHERE j.id = :id AND j.status = 'QUEUED'")
+    int claim(@Param("id") Long id, @Param("now") Instant now);
+
+    // 本实例仍在执行的任务刷新心跳
+    @Modifying
+    @Transactional
+    @Query("UPDATE IngestionJob j SET j.heartbeatAt = :now WHERE j.id IN :ids AND j.status = 'RUNNING'")
+    int heartbeat(@Param("ids") Collection<Long> ids, @Param("now") Instant now);
+
+    // 只回收心跳超时的任务（worker 所在实例已退出或失联），执行时间长但仍在刷新心跳的任务不受影响；
+    // 升级前领取、尚无心跳的任务按领取时间计算
+    @Modifying
+    @Transactional
+    @Query("UPDATE IngestionJob j SET j.status = 'QUEUED', j.nextRunAt = :now, j.updatedAt = :now " +
+            "WHERE j.status = 'RUNNING' AND COALESCE(j.heartbeatAt, j.startedAt) < :staleBefore")
+    int requeueStale(@Param("staleBefore") Instant staleBefore, @Param("now") Instant now);
+}
@@ -0,0 +1,24 @@
+package com.huixun.lms.repository;
+
+import com.huixun.lms.model.UploadPart;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+public interface UploadPartRepository extends JpaRepository<UploadPart, Long> {
+    @Query("SELECT p.partNumber FROM UploadPart p WHERE p.sessionId = :sessionId ORDER BY p.partNumber")
+    List<Integer> findPartNumbers(@Param("sessionId") String sessionId);
+
+    boolean existsBySessionIdAndPartNumber(String sessionId, Integer partNumber);
+
+    long countBySessionId(String sessionId);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM UploadPart p WHERE p.sessionId = :sessionId")
+    int deleteBySession(@Param("sessionId") String sessionId);
+}
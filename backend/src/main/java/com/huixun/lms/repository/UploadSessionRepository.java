@@ -0,0 +1,29 @@
+package com.huixun.lms.repository;
+
+import com.huixun.lms.model.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+    List<UploadSession> findByStatusAndCreatedAtBefore(String status, Instant before);
+
+    List<UploadSession> findByStatusAndUpdatedAtBefore(String status, Instant before);
+
+    // 条件更新切换状态，并发的 complete 请求只有一个能把会话从 OPEN 切到 COMPLETING
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.status = :to, s.updatedAt = :now WHERE s.id = :id AND s.status = :from")
+    int transition(@Param("id") String id, @Param("from") String from, @Param("to") String to, @Param("now") Instant now);
+
+    // 已完成的会话只为 complete 重试保留，过期后直接删除
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM UploadSession s WHERE s.status = :status AND s.updatedAt < :before")
+    int deleteByStatusAndUpdatedAtBefore(@Param("status") String status, @Param("before") Instant before);
+}
@@ -0,0 +1,208 @@
+package com.huixun.lms.service;
+
+import com.huixun.lms.model.Document;
+import com.huixun.lms.model.UploadPart;
+import com.huixun.lms.model.UploadSession;
+import com.huixun.lms.repository.DocumentRepository;
+import com.huixun.lms.repository.UploadPartRepository;
+import com.huixun.lms.repository.UploadSessionRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+@Service
+public class ChunkedUploadService {
+
+    public static final String OPEN = "OPEN";
+    public static final String COMPLETING = "COMPLETING";
+    public static final String COMPLETED = "COMPLETED";
+
+    private static final int MAX_CHUNKS = 10000;
+
+    private final UploadSessionRepository sessionRepository;
+    private final UploadPartRepository partRepository;
+    private final DocumentRepository documentRepository;
+    private final DocumentService documentService;
+    private final String stagingDir;
+    private final int defaultChunkSize;
+    private final long maxFileSize;
+    private final Duration sessionTtl;
+
+    public ChunkedUploadService(UploadSessionRepository sessionRepository,
+                                UploadPartRepository partRepository,
+                                DocumentRepository documentRepository,
+                                DocumentService documentService,
+                                @Value("${storage.uploads:storage/uploads}") String stagingDir,
+                                @Value("${app.upload.chunk-size:5242880}") int defaultChunkSize,
+                                @Value("${app.upload.max-file-size:524288000}") long maxFileSize,
+                                @Value("${app.upload.session-ttl-hours:24}") long sessionTtlHours) {
+        this.sessionRepository = sessionRepository;
+        this.partRepository = partRepository;
+        this.documentRepository = documentRepository;
+        this.documentService = documentService;
+        this.stagingDir = stagingDir;
+        this.defaultChunkSize = defaultChunkSize;
+        this.maxFileSize = maxFileSize;
+        this.sessionTtl = Duration.ofHours(sessionTtlHours);
+    }
+
+    public UploadSession init(String filename, long totalSize, Integer requestedChunkSize) throws IOException {
+        if (totalSize <= 0 || totalSize > maxFileSize) {
+            throw new IllegalArgumentException("文件大小超出限制");
+        }
+        int chunkSize = requestedChunkSize == null || requestedChunkSize <= 0 ? defaultChunkSize : requestedChunkSize;
+        long chunks = (totalSize + chunkSize - 1) / chunkSize;
+        if (chunks > MAX_CHUNKS) {
+            chunkSize = (int) ((totalSize + MAX_CHUNKS - 1) / MAX_CHUNKS);
+            chunks = (totalSize + chunkSize - 1) / chunkSize;
+        }
+        Path dir = Paths.get(stagingDir);
+        Files.createDirectories(dir);
+        String id = UUID.randomUUID().toString();
+        Path staging = dir.resolve(id + ".part");
+        try (FileChannel ch = FileChannel.open(staging, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            // 预先占位到最终长度，各分片按偏移写入，互不依赖到达顺序
+            ch.write(ByteBuffer.wrap(new byte[1]), totalSize - 1);
+        }
+        UploadSession s = new UploadSession();
+        s.setId(id);
+        s.setFilename(filename);
+        s.setTotalSize(totalSize);
+        s.setChunkSize(chunkSize);
+        s.setTotalChunks((int) chunks);
+        s.setStagingPath(staging.toString());
+        s.setStatus(OPEN);
+        return sessionRepository.save(s);
+    }
+
+    public UploadSession get(String id) {
+        return sessionRepository.findById(id).orElseThrow();
+    }
+
+    public List<Integer> receivedParts(String id) {
+        return partRepository.findPartNumbers(id);
+    }
+
+    public List<Integer> missingParts(UploadSession s) {
+        List<Integer> received = partRepository.findPartNumbers(s.getId());
+        List<Integer> missing = new ArrayList<>();
+        int j = 0;
+        for (int i = 0; i < s.getTotalChunks(); i++) {
+            if (j < received.size() && received.get(j) == i) j++;
+            else missing.add(i);
+        }
+        return missing;
+    }
+
+    // 分片直接从请求流写到暂存文件的对应偏移，不在堆内缓冲
+    public void writePart(String id, int partNumber, InputStream body) throws IOException {
+        UploadSession s = get(id);
+        if (!OPEN.equals(s.getStatus())) throw new IllegalStateException("上传会话已结束");
+        if (partNumber < 0 || partNumber >= s.getTotalChunks()) throw new IllegalArgumentException("分片序号越界");
+        long offset = (long) partNumber * s.getChunkSize();
+        long expected = Math.min(s.getChunkSize(), s.getTotalSize() - offset);
+        long written = 0;
+        try (ReadableByteChannel src = Channels.newChannel(body);
+             FileChannel out = FileChannel.open(Paths.get(s.getStagingPath()), StandardOpenOption.WRITE)) {
+            long n;
+            while (written < expected && (n = out.transferFrom(src, offset + written, expected - written)) > 0) {
+                written += n;
+            }
+            if (written != expected || body.read() != -1) {
+                throw new IllegalArgumentException("分片大小不符，期望 " + expected + " 字节");
+            }
+            out.force(false);
+        }
+        if (partRepository.existsBySessionIdAndPartNumber(id, partNumber)) return;
+        UploadPart p = new UploadPart();
+        p.setSessionId(id);
+        p.setPartNumber(partNumber);
+        p.setSize(written);
+        try {
+            partRepository.save(p);
+        } catch (DataIntegrityViolationException ignored) {
+            // 同一分片被并发重传，已由另一请求登记
+        }
+    }
+
+    public Document complete(String id) throws IOException {
+        UploadSession s = get(id);
+        if (COMPLETED.equals(s.getStatus())) {
+            // complete 的响应丢失后客户端会重试，直接返回已生成的文档
+            return documentRepository.findById(s.getDocumentId()).orElseThrow();
+        }
+        if (COMPLETING.equals(s.getStatus())) throw new IllegalStateException("上传正在合并，请稍后重试");
+        if (partRepository.countBySessionId(id) < s.getTotalChunks()) {
+            throw new IncompleteUploadException(missingParts(s));
+        }
+        if (sessionRepository.transition(id, OPEN, COMPLETING, Instant.now()) == 0) {
+            // 并发的 complete 已抢先合并
+            s = get(id);
+            if (COMPLETED.equals(s.getStatus())) return documentRepository.findById(s.getDocumentId()).orElseThrow();
+            throw new IllegalStateException("上传正在合并，请稍后重试");
+        }
+        Document doc;
+        try {
+            doc = documentService.saveStaged(s.getFilename(), Paths.get(s.getStagingPath()));
+        } catch (IOException | RuntimeException e) {
+            // 合并失败时暂存文件和分片记录都还在，回到 OPEN 让客户端重试 complete
+            sessionRepository.transition(id, COMPLETING, OPEN, Instant.now());
+            throw e;
+        }
+        s.setStatus(COMPLETED);
+        s.setDocumentId(doc.getId());
+        s.setUpdatedAt(Instant.now());
+        sessionRepository.save(s);
+        partRepository.deleteBySession(id);
+        return doc;
+    }
+
+    public void abort(String id) throws IOException {
+        UploadSession s = sessionRepository.findById(id).orElseThrow();
+        Files.deleteIfExists(Paths.get(s.getStagingPath()));
+        partRepository.deleteBySession(id);
+        sessionRepository.delete(s);
+    }
+
+    @Scheduled(fixedDelayString = "${app.upload.cleanup-interval-ms:3600000}")
+    public void purgeExpired() {
+        Instant before = Instant.now().minus(sessionTtl);
+        List<UploadSession> expired = new ArrayList<>(sessionRepository.findByStatusAndCreatedAtBefore(OPEN, before));
+        // 合并中途实例退出的会话停在 COMPLETING，按最后一次状态变更计时
+        expired.addAll(sessionRepository.findByStatusAndUpdatedAtBefore(COMPLETING, before));
+        for (UploadSession s : expired) {
+            try {
+                abort(s.getId());
+            } catch (IOException | NoSuchElementException ignored) {}
+        }
+        // 已完成的会话只为 complete 重试保留，暂存文件已转存，直接删除记录
+        sessionRepository.deleteByStatusAndUpdatedAtBefore(COMPLETED, before);
+    }
+
+    public static class IncompleteUploadException extends RuntimeException {
+        private final List<Integer> missing;
+        public IncompleteUploadException(List<Integer> missing) {
+            super("仍有 " + missing.size() + " 个分片未上传");
+            this.missing = missing;
+        }
+        public List<Integer> getMissing() { return missing; }
+    }
+}
@@ -0,0 +1,11 @@
+package com.huixun.lms.service;
+
+import java.util.List;
+
+public interface ChunkingStrategy {
+
+    // pages 按页序给出每页文本，返回的片段记录其起止页码（从 1 开始）
+    List<Chunk> chunk(List<String> pages);
+
+    record Chunk(String text, int startPage, int endPage) {}
+}
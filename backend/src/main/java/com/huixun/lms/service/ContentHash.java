@@ -0,0 +1,22 @@
+package com.huixun.lms.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+// 规范化文本（去首尾空白、连续空白折叠为一个空格）的 SHA-256，片段比对与嵌入缓存共用
+public final class ContentHash {
+
+    private ContentHash() {}
+
+    public static String of(String text) {
+        String normalized = text == null ? "" : text.strip().replaceAll("\\s+", " ");
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(d);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -3,36 +3,239 @@ package com.huixun.lms.service;
 import com.huixun.lms.model.Document;
 import com.huixun.lms.repository.DocumentRepository;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
 
 @Service
 public class DocumentService {
 
+    private static final long TRANSFER_CHUNK = 1L << 20;
+
     @Value("${storage.docs:storage/docs}")
     private String storageDir;
 
     private final DocumentRepository documentRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean vectorEnabled;
+    private final EmbeddingModelRegistry models;
+    private final ProgressPublisher progress;
+    private final SearchCache searchCache;
+    private final TransactionTemplate tx;
 
-    public DocumentService(DocumentRepository documentRepository) {
+    public DocumentService(DocumentRepository documentRepository,
+                           JdbcTemplate jdbcTemplate,
+                           @Value("${app.vector.enabled:true}") boolean vectorEnabled,
+                           EmbeddingModelRegistry models,
+                           ProgressPublisher progress,
+                           SearchCache searchCache,
+                           PlatformTransactionManager transactionManager) {
         this.documentRepository = documentRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.vectorEnabled = vectorEnabled;
+        this.models = models;
+        this.progress = progress;
+        this.searchCache = searchCache;
+        this.tx = new TransactionTemplate(transactionManager);
     }
 
-    public Document saveUploaded(String originalFilename, byte[] content) throws IOException {
-        Path dir = Paths.get(storageDir);
-        if (!Files.exists(dir)) {
-            Files.createDirectories(dir);
+    // 以流的方式落盘：边读边计算 SHA-256 与大小，内存占用与文件大小无关；
+    // 存储按内容寻址，相同内容只保留一份文件
+    public Document saveUploaded(String originalFilename, InputStream content) throws IOException {
+        Path tmp = Files.createTempFile(storageRoot(), "upload_", ".part");
+        try {
+            StoredBlob blob = writeStream(content, tmp);
+            return store(tmp, originalFilename, blob);
+        } finally {
+            Files.deleteIfExists(tmp);
         }
-        Path target = dir.resolve(System.currentTimeMillis() + "_" + originalFilename);
-        Files.write(target, content);
+    }
+
+    // 分片上传合并完成的暂存文件：只读一遍计算哈希，然后整体移动进存储目录
+    public Document saveStaged(String originalFilename, Path staged) throws IOException {
+        // 只在转存成功后删除暂存文件（内容已有时不会被移走），失败时保留以便重试 complete
+        Document doc = store(staged, originalFilename, digestFile(staged));
+        Files.deleteIfExists(staged);
+        return doc;
+    }
+
+    private Document store(Path tmp, String originalFilename, StoredBlob blob) throws IOException {
+        Optional<Document> existing = findReusable(blob.sha256());
+        if (existing.isPresent()) {
+            return createFromExisting(existing.get(), originalFilename);
+        }
+        Path target = persistBlob(tmp, blob);
         Document doc = new Document();
         doc.setFilename(originalFilename);
         doc.setStoragePath(target.toString());
+        doc.setSizeBytes(blob.size());
+        doc.setContentHash(blob.sha256());
         doc.setStatus("UPLOADED");
         return documentRepository.save(doc);
     }
+
+    // 上传文档的新版本：替换存储文件并提升 revision，片段由解析阶段按内容哈希增量更新。
+    // 返回 false 表示内容与当前版本相同，无需重新处理
+    public boolean saveRevision(Document doc, String originalFilename, InputStream content) throws IOException {
+        Path tmp = Files.createTempFile(storageRoot(), "upload_", ".part");
+        try {
+            StoredBlob blob = writeStream(content, tmp);
+            if (blob.sha256().equals(doc.getContentHash())) return false;
+            String previous = doc.getStoragePath();
+            Path target = persistBlob(tmp, blob);
+            doc.setFilename(originalFilename);
+            doc.setStoragePath(target.toString());
+            doc.setSizeBytes(blob.size());
+            doc.setContentHash(blob.sha256());
+            doc.setRevision(doc.getRevision() + 1);
+            doc.setStatus("UPLOADED");
+            doc.setErrorMessage(null);
+            doc.setUpdatedAt(java.time.Instant.now());
+            documentRepository.save(doc);
+            progress.stage(doc.getId(), "UPLOADED", null);
+            if (previous != null && !previous.equals(doc.getStoragePath()) && !isBlobShared(previous)) {
+                Files.deleteIfExists(Paths.get(previous));
+            }
+            return true;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path persistBlob(Path tmp, StoredBlob blob) throws IOException {
+        Path target = storageRoot().resolve(blob.sha256() + ".pdf");
+        if (Files.exists(target)) return target;
+        try {
+            moveInto(tmp, target);
+        } catch (FileAlreadyExistsException ignored) {
+            // 并发上传了相同内容，保留已有文件即可
+        }
+        return target;
+    }
+
+    private static void moveInto(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target);
+        }
+    }
+
+    // 优先返回已处理完成的副本，这样复用时可以直接克隆片段与向量
+    public Optional<Document> findByHash(String sha256) {
+        if (sha256 == null || sha256.isBlank()) return Optional.empty();
+        List<Document> docs = documentRepository.findByContentHashOrderByIdAsc(sha256.trim().toLowerCase());
+        return docs.stream().filter(d -> "DONE".equals(d.getStatus())).findFirst()
+                .or(() -> docs.stream().findFirst());
+    }
+
+    // 存储文件仍在的副本；删除与复用并发时文件可能已被移除
+    private Optional<Document> findReusable(String sha256) {
+        return findByHash(sha256).filter(d -> Files.exists(Paths.get(d.getStoragePath())));
+    }
+
+    // 秒传：客户端只提交哈希，命中则直接引用已有文件
+    public Optional<Document> instantUpload(String sha256, String originalFilename) {
+        return findReusable(sha256).map(src -> createFromExisting(src, originalFilename));
+    }
+
+    // 新文档与片段复制在同一事务中提交，复制失败时不会留下没有片段的 DONE 文档。
+    // 调用方都在本类内，经 TransactionTemplate 而不是 @Transactional 开启事务
+    private Document createFromExisting(Document source, String originalFilename) {
+        return tx.execute(status -> copyOf(source, originalFilename));
+    }
+
+    private Document copyOf(Document source, String originalFilename) {
+        Document doc = new Document();
+        doc.setFilename(originalFilename == null || originalFilename.isBlank() ? source.getFilename() : originalFilename);
+        doc.setStoragePath(source.getStoragePath());
+        doc.setSizeBytes(source.getSizeBytes());
+        doc.setContentHash(source.getContentHash());
+        boolean reuse = "DONE".equals(source.getStatus());
+        doc.setStatus(reuse ? "DONE" : "UPLOADED");
+        doc = documentRepository.save(doc);
+        if (reuse) cloneFragments(source.getId(), doc.getId());
+        return doc;
+    }
+
+    // 单条 INSERT ... SELECT 在库内完成复制，不经过 PDFBox 与嵌入模型；未安装 pgvector 时没有 embedding 列，只复制 JSON
+    private void cloneFragments(Long sourceId, Long targetId) {
+        String cols = "text, section_path, page_range, ordinal, content_hash, keywords, embedding_json";
+        if (vectorEnabled && models.hasColumn(EmbeddingModelRegistry.VECTOR_COLUMN)) cols += ", " + EmbeddingModelRegistry.VECTOR_COLUMN;
+        jdbcTemplate.update("INSERT INTO content_fragments (document_id, created_at, " + cols + ") " +
+                "SELECT ?, CURRENT_TIMESTAMP, " + cols + " FROM content_fragments WHERE document_id = ? ORDER BY id",
+                targetId, sourceId);
+        searchCache.changed(targetId);
+    }
+
+    public boolean isBlobShared(String storagePath) {
+        return storagePath != null && documentRepository.countByStoragePath(storagePath) > 0;
+    }
+
+    private StoredBlob writeStream(InputStream content, Path target) throws IOException {
+        MessageDigest digest = sha256();
+        long pos = 0;
+        try (ReadableByteChannel src = Channels.newChannel(new DigestInputStream(content, digest));
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long n;
+            while ((n = out.transferFrom(src, pos, TRANSFER_CHUNK)) > 0) pos += n;
+            out.force(false);
+        }
+        return new StoredBlob(pos, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    private StoredBlob digestFile(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        long size = 0;
+        ByteBuffer buf = ByteBuffer.allocateDirect((int) TRANSFER_CHUNK);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                buf.flip();
+                digest.update(buf);
+                buf.clear();
+                size += n;
+            }
+        }
+        return new StoredBlob(size, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    private Path storageRoot() throws IOException {
+        Path dir = Paths.get(storageDir);
+        if (!Files.exists(dir)) {
+            Files.createDirectories(dir);
+        }
+        return dir;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record StoredBlob(long size, String sha256) {}
 }
@@ -0,0 +1,69 @@
+package com.huixun.lms.service;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// float 点积。JVM 以 --add-modules jdk.incubator.vector 启动时用 Vector API（按 CPU 支持的最宽寄存器并行计算），
+// 否则用标量循环；两者只在舍入上有差别。Vector API 的类放在内部类里，模块缺失时不会被加载
+final class DotProduct {
+
+    static final boolean SIMD = detect();
+
+    private DotProduct() {
+    }
+
+    // a[0..n) 与 b[offset..offset+n) 的点积
+    static float dot(float[] a, float[] b, int offset, int n) {
+        return SIMD ? Simd.dot(a, b, offset, n) : scalar(a, b, offset, n);
+    }
+
+    static float scalar(float[] a, float[] b, int offset, int n) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int bound = n - 3; i < bound; i += 4) {
+            s0 += a[i] * b[offset + i];
+            s1 += a[i + 1] * b[offset + i + 1];
+            s2 += a[i + 2] * b[offset + i + 2];
+            s3 += a[i + 3] * b[offset + i + 3];
+        }
+        for (; i < n; i++) s0 += a[i] * b[offset + i];
+        return s0 + s1 + s2 + s3;
+    }
+
+    static float simd(float[] a, float[] b, int offset, int n) {
+        return Simd.dot(a, b, offset, n);
+    }
+
+    private static boolean detect() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return false;
+        try {
+            Simd.dot(new float[16], new float[16], 0, 16);
+            return true;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    private static final class Simd {
+        private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+        // 两个累加器交替使用，减少 fma 之间的依赖等待
+        static float dot(float[] a, float[] b, int offset, int n) {
+            int step = SPECIES.length();
+            FloatVector acc0 = FloatVector.zero(SPECIES);
+            FloatVector acc1 = FloatVector.zero(SPECIES);
+            int i = 0;
+            for (int bound = SPECIES.loopBound(n) - step; i < bound; i += 2 * step) {
+                acc0 = FloatVector.fromArray(SPECIES, a, i).fma(FloatVector.fromArray(SPECIES, b, offset + i), acc0);
+                acc1 = FloatVector.fromArray(SPECIES, a, i + step).fma(FloatVector.fromArray(SPECIES, b, offset + i + step), acc1);
+            }
+            for (int bound = SPECIES.loopBound(n); i < bound; i += step) {
+                acc0 = FloatVector.fromArray(SPECIES, a, i).fma(FloatVector.fromArray(SPECIES, b, offset + i), acc0);
+            }
+            float s = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+            for (; i < n; i++) s += a[i] * b[offset + i];
+            return s;
+        }
+    }
+}
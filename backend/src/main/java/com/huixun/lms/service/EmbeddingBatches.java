@@ -0,0 +1,30 @@
+package com.huixun.lms.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 把待嵌入文本按条数与估算 token 总量打包成若干请求，返回每批在原列表中的 [from, to) 区间
+public final class EmbeddingBatches {
+
+    private EmbeddingBatches() {}
+
+    public static List<int[]> pack(List<String> texts, int maxItems, int maxTokens) {
+        int items = Math.max(1, maxItems);
+        int budget = Math.max(1, maxTokens);
+        List<int[]> out = new ArrayList<>();
+        int from = 0;
+        int tokens = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            int t = TokenEstimator.estimateTokens(texts.get(i));
+            // 单条超过预算时独占一批，由服务端决定是否截断
+            if (i > from && (i - from >= items || tokens + t > budget)) {
+                out.add(new int[]{from, i});
+                from = i;
+                tokens = 0;
+            }
+            tokens += t;
+        }
+        if (from < texts.size()) out.add(new int[]{from, texts.size()});
+        return out;
+    }
+}
@@ -0,0 +1,138 @@
+package com.huixun.lms.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 两级嵌入缓存，键为 (模型, 规范化文本 SHA-256)：
+// 一级为进程内 W-TinyLFU（Caffeine，按字节数限量），二级为 embedding_cache 表，跨实例、跨重启共享
+@Component
+public class EmbeddingCache {
+
+    private static final int LOOKUP_CHUNK = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Cache<String, float[]> local;
+    private final boolean persistent;
+    private final Counter l1Hits;
+    private final Counter l2Hits;
+    private final Counter misses;
+
+    public EmbeddingCache(JdbcTemplate jdbcTemplate,
+                          MeterRegistry registry,
+                          @Value("${app.embedding.cache.max-bytes:67108864}") long maxBytes,
+                          @Value("${app.embedding.cache.persistent:true}") boolean persistent) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.persistent = persistent;
+        this.local = Caffeine.newBuilder()
+                .maximumWeight(Math.max(1L << 20, maxBytes))
+                .weigher((String k, float[] v) -> 64 + k.length() * 2 + v.length * 4)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, local, "embedding_l1");
+        this.l1Hits = Counter.builder("embedding.cache.lookups").tag("result", "l1_hit").register(registry);
+        this.l2Hits = Counter.builder("embedding.cache.lookups").tag("result", "l2_hit").register(registry);
+        this.misses = Counter.builder("embedding.cache.lookups").tag("result", "miss").register(registry);
+    }
+
+    public float[] get(String model, String hash) {
+        return getAll(model, List.of(hash)).get(hash);
+    }
+
+    // 返回命中的 hash -> 向量；未命中的不在结果中
+    public Map<String, float[]> getAll(String model, List<String> hashes) {
+        Map<String, float[]> found = new HashMap<>();
+        List<String> remote = new ArrayList<>();
+        for (String h : hashes) {
+            if (found.containsKey(h)) continue;
+            float[] v = local.getIfPresent(key(model, h));
+            if (v != null) {
+                found.put(h, v);
+                l1Hits.increment();
+            } else if (!remote.contains(h)) {
+                remote.add(h);
+            }
+        }
+        if (persistent && !remote.isEmpty()) {
+            for (int from = 0; from < remote.size(); from += LOOKUP_CHUNK) {
+                List<String> chunk = remote.subList(from, Math.min(remote.size(), from + LOOKUP_CHUNK));
+                String in = String.join(",", java.util.Collections.nCopies(chunk.size(), "?"));
+                Object[] args = new Object[chunk.size() + 1];
+                args[0] = model;
+                for (int i = 0; i < chunk.size(); i++) args[i + 1] = chunk.get(i);
+                jdbcTemplate.query("SELECT text_hash, vector FROM embedding_cache WHERE model = ? AND text_hash IN (" + in + ")",
+                        rs -> {
+                            String h = rs.getString(1);
+                            float[] v = decode(rs.getBytes(2));
+                            found.put(h, v);
+                            local.put(key(model, h), v);
+                        }, args);
+            }
+        }
+        for (String h : remote) {
+            if (found.containsKey(h)) l2Hits.increment();
+            else misses.increment();
+        }
+        return found;
+    }
+
+    public void put(String model, String hash, float[] vector) {
+        putAll(model, Map.of(hash, vector));
+    }
+
+    public void putAll(String model, Map<String, float[]> vectors) {
+        if (vectors.isEmpty()) return;
+        List<Object[]> rows = new ArrayList<>(vectors.size());
+        Timestamp now = Timestamp.from(Instant.now());
+        vectors.forEach((h, v) -> {
+            if (v == null || v.length == 0) return;
+            local.put(key(model, h), v);
+            rows.add(new Object[]{model, h, v.length, encode(v), now});
+        });
+        if (!persistent || rows.isEmpty()) return;
+        String sql = "INSERT INTO embedding_cache (model, text_hash, dim, vector, created_at) VALUES (?, ?, ?, ?, ?)";
+        try {
+            jdbcTemplate.batchUpdate(sql, rows);
+        } catch (DataIntegrityViolationException e) {
+            // 并发写入了相同文本，逐条补写，已存在的跳过
+            for (Object[] row : rows) {
+                try { jdbcTemplate.update(sql, row); } catch (DataIntegrityViolationException ignored) {}
+            }
+        }
+    }
+
+    public long localSize() {
+        return local.estimatedSize();
+    }
+
+    private static String key(String model, String hash) {
+        return model + ':' + hash;
+    }
+
+    static byte[] encode(float[] v) {
+        ByteBuffer buf = ByteBuffer.allocate(v.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buf.asFloatBuffer().put(v);
+        return buf.array();
+    }
+
+    static float[] decode(byte[] b) {
+        float[] v = new float[b.length / 4];
+        ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(v);
+        return v;
+    }
+}
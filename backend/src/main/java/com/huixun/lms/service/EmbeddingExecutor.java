@@ -0,0 +1,233 @@
+package com.huixun.lms.service;
+
+import dev.ai4j.openai4j.OpenAiHttpException;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// 嵌入请求的执行引擎：按批并发调用提供方，请求数与 token 数分别经过每分钟配额的令牌桶，
+// 429/5xx/网络错误按服务端建议的等待时间或指数退避重试，重试耗尽后抛出异常而不是静默降级
+@Component
+public class EmbeddingExecutor {
+
+    private static final Pattern RETRY_HINT = Pattern.compile("(?i)(?:try again in|retry-after:?)\\s*(\\d+(?:\\.\\d+)?)\\s*(ms|s)?");
+
+    private final ExecutorService pool;
+    private final TokenBucket requestBucket;
+    private final TokenBucket tokenBucket;
+    private final int batchItems;
+    private final int batchTokens;
+    private final int maxRetries;
+    private final long backoffInitialMs;
+    private final long backoffMaxMs;
+    // 任一请求被限流后所有 worker 一起暂停到该时刻，避免其余并发请求继续撞上配额
+    private final AtomicLong pausedUntil = new AtomicLong();
+
+    public EmbeddingExecutor(@Value("${app.embedding.parallelism:4}") int parallelism,
+                             @Value("${app.embedding.rate.requests-per-minute:3000}") long rpm,
+                             @Value("${app.embedding.rate.tokens-per-minute:1000000}") long tpm,
+                             @Value("${app.embedding.batch.max-items:256}") int batchItems,
+                             @Value("${app.embedding.batch.max-tokens:100000}") int batchTokens,
+                             @Value("${app.embedding.retry.max-retries:6}") int maxRetries,
+                             @Value("${app.embedding.retry.backoff-initial-ms:1000}") long backoffInitialMs,
+                             @Value("${app.embedding.retry.backoff-max-ms:60000}") long backoffMaxMs) {
+        int n = Math.max(1, parallelism);
+        AtomicInteger seq = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "embed-worker-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.requestBucket = new TokenBucket(rpm);
+        this.tokenBucket = new TokenBucket(tpm);
+        this.batchItems = batchItems;
+        this.batchTokens = batchTokens;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.backoffInitialMs = Math.max(1, backoffInitialMs);
+        this.backoffMaxMs = Math.max(this.backoffInitialMs, backoffMaxMs);
+    }
+
+    public interface BatchListener {
+        // 在调用线程上按完成顺序回调，from/to 为该批在输入列表中的区间
+        void completed(int from, int to, List<float[]> vectors);
+    }
+
+    public void execute(EmbeddingProvider provider, List<String> texts, BatchListener listener) {
+        List<int[]> batches = EmbeddingBatches.pack(texts, batchItems, batchTokens);
+        if (batches.isEmpty()) return;
+        CompletionService<Object[]> done = new ExecutorCompletionService<>(pool);
+        List<Future<Object[]>> futures = new ArrayList<>(batches.size());
+        for (int[] range : batches) {
+            List<String> slice = texts.subList(range[0], range[1]);
+            futures.add(done.submit(() -> new Object[]{range, call(provider, slice)}));
+        }
+        try {
+            for (int i = 0; i < batches.size(); i++) {
+                Object[] r = done.take().get();
+                int[] range = (int[]) r[0];
+                @SuppressWarnings("unchecked")
+                List<float[]> vectors = (List<float[]>) r[1];
+                listener.completed(range[0], range[1], vectors);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EmbeddingFailedException("嵌入任务被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof EmbeddingFailedException ? (EmbeddingFailedException) cause
+                    : new EmbeddingFailedException("嵌入请求失败：" + message(cause), cause);
+        } finally {
+            for (Future<Object[]> f : futures) f.cancel(true);
+        }
+    }
+
+    // 单条调用（查询向量等）在调用线程上执行，同样受配额与重试约束
+    public float[] embedOne(EmbeddingProvider provider, String text) {
+        return call(provider, List.of(text)).get(0);
+    }
+
+    private List<float[]> call(EmbeddingProvider provider, List<String> texts) {
+        int tokens = 0;
+        for (String t : texts) tokens += TokenEstimator.estimateTokens(t);
+        for (int attempt = 0; ; attempt++) {
+            try {
+                awaitPause();
+                requestBucket.acquire(1);
+                tokenBucket.acquire(tokens);
+                List<float[]> out = provider.embedAll(texts);
+                if (out == null || out.size() != texts.size()) {
+                    throw new EmbeddingFailedException("嵌入结果数量与输入不符", null);
+                }
+                return out;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EmbeddingFailedException("嵌入任务被中断", e);
+            } catch (EmbeddingFailedException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                int status = httpStatus(e);
+                boolean retryable = status == 429 || status >= 500 || (status < 0 && isNetworkError(e));
+                if (!retryable || attempt >= maxRetries) {
+                    String reason = status > 0 ? "HTTP " + status + "，" : "";
+                    throw new EmbeddingFailedException("嵌入请求失败（" + reason + "已尝试 " + (attempt + 1) + " 次）：" + message(e), e);
+                }
+                long wait = retryAfterMs(e);
+                if (wait < 0) wait = backoff(attempt);
+                if (status == 429) pausedUntil.accumulateAndGet(System.currentTimeMillis() + wait, Math::max);
+                sleep(wait);
+            }
+        }
+    }
+
+    private long backoff(int attempt) {
+        long d = Math.min(backoffMaxMs, backoffInitialMs << Math.min(20, attempt));
+        // 加抖动，避免多个 worker 同时醒来再次撞上限流
+        return d / 2 + ThreadLocalRandom.current().nextLong(d / 2 + 1);
+    }
+
+    private void awaitPause() throws InterruptedException {
+        long wait = pausedUntil.get() - System.currentTimeMillis();
+        if (wait > 0) Thread.sleep(wait);
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EmbeddingFailedException("嵌入任务被中断", e);
+        }
+    }
+
+    static int httpStatus(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof OpenAiHttpException) return ((OpenAiHttpException) t).code();
+        }
+        return -1;
+    }
+
+    private static boolean isNetworkError(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof IOException) return true;
+        }
+        return false;
+    }
+
+    // OpenAI 客户端不暴露响应头，Retry-After 只能从错误正文里的 "Please try again in 1.5s" 之类提示解析
+    static long retryAfterMs(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() == null) continue;
+            Matcher m = RETRY_HINT.matcher(t.getMessage());
+            if (m.find()) {
+                double v = Double.parseDouble(m.group(1));
+                long ms = "ms".equalsIgnoreCase(m.group(2)) ? (long) Math.ceil(v) : (long) Math.ceil(v * 1000);
+                return Math.max(1, ms);
+            }
+        }
+        return -1;
+    }
+
+    private static String message(Throwable e) {
+        if (e == null) return "";
+        String m = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+        return m.length() > 500 ? m.substring(0, 500) : m;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    // 每分钟配额的令牌桶，连续补充，容量即一分钟的配额；配额 <= 0 表示不限
+    static final class TokenBucket {
+        private final long capacity;
+        private final double perMs;
+        private double available;
+        private long last;
+
+        TokenBucket(long perMinute) {
+            this.capacity = perMinute;
+            this.perMs = perMinute / 60000.0;
+            this.available = perMinute;
+            this.last = System.nanoTime();
+        }
+
+        void acquire(long n) throws InterruptedException {
+            if (capacity <= 0) return;
+            long need = Math.min(Math.max(1, n), capacity);
+            while (true) {
+                long wait;
+                synchronized (this) {
+                    long now = System.nanoTime();
+                    available = Math.min(capacity, available + (now - last) / 1_000_000.0 * perMs);
+                    last = now;
+                    if (available >= need) {
+                        available -= need;
+                        return;
+                    }
+                    wait = (long) Math.ceil((need - available) / perMs);
+                }
+                Thread.sleep(Math.max(1, wait));
+            }
+        }
+    }
+
+    public static class EmbeddingFailedException extends RuntimeException {
+        public EmbeddingFailedException(String message, Throwable cause) { super(message, cause); }
+    }
+}
@@ -0,0 +1,241 @@
+package com.huixun.lms.service;
+
+import com.huixun.lms.model.ContentFragment;
+import com.huixun.lms.model.EmbeddingModel;
+import com.huixun.lms.repository.EmbeddingModelRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// 在线切换嵌入模型：
+// 1. register 登记新模型，在 content_fragments 上加该模型自己的列（新增可空列只改元数据，不重写表）；
+// 2. 后台按批回填新模型的向量，速率约为 batch-size / poll-interval，远程模型的请求同样经过 EmbeddingExecutor 的配额；
+//    检索期间始终读生效模型的列，不受影响；回填完成后建索引并置为 READY，之后继续追平新增片段；
+// 3. activate 在一个事务里互换新旧模型的列名并更新登记表，改名只需瞬时的元数据锁，提交后检索即读新模型的列
+@Service
+public class EmbeddingMigrationService {
+
+    private final EmbeddingModelRepository repository;
+    private final EmbeddingModelRegistry models;
+    private final EmbeddingProviders providers;
+    private final EmbeddingService embeddingService;
+    private final VectorStore vectorStore;
+    private final VectorIndexManager indexManager;
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+    private final Duration lease;
+    private volatile Boolean postgres;
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "embedding-backfill");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public EmbeddingMigrationService(EmbeddingModelRepository repository,
+                                     EmbeddingModelRegistry models,
+                                     EmbeddingProviders providers,
+                                     EmbeddingService embeddingService,
+                                     VectorStore vectorStore,
+                                     VectorIndexManager indexManager,
+                                     JdbcTemplate jdbcTemplate,
+                                     @Value("${app.embedding.migration.batch-size:200}") int batchSize,
+                                     @Value("${app.embedding.migration.lease-ms:300000}") long leaseMs) {
+        this.repository = repository;
+        this.models = models;
+        this.providers = providers;
+        this.embeddingService = embeddingService;
+        this.vectorStore = vectorStore;
+        this.indexManager = indexManager;
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = Math.max(1, batchSize);
+        this.lease = Duration.ofMillis(leaseMs);
+    }
+
+    public List<EmbeddingModel> list() {
+        models.active();
+        return repository.findAllByOrderByIdAsc();
+    }
+
+    // 尚未写入某模型向量的片段数
+    public long remaining(EmbeddingModel m) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM content_fragments WHERE " + m.getJsonColumn() + " IS NULL", Long.class);
+    }
+
+    public EmbeddingModel register(String name) {
+        if (name == null || name.isBlank()) throw new IllegalArgumentException("模型标识不能为空");
+        String model = name.trim();
+        models.active();
+        if (repository.findByName(model).isPresent()) throw new ModelStateException("模型已登记：" + model);
+        providers.forModel(model);
+        int dim = providers.declaredDimension(model);
+        if (dim <= 0) {
+            // 远程模型实际调用一次以得到输出维度
+            dim = embeddingService.embedText(model, "维度探测").length;
+            if (dim == 0) throw new IllegalArgumentException("模型未返回向量：" + model);
+        }
+        EmbeddingModel m = new EmbeddingModel();
+        m.setName(model);
+        m.setDimension(dim);
+        m.setStatus(EmbeddingModelRegistry.BACKFILLING);
+        m = repository.save(m);
+        m.setJsonColumn(EmbeddingModelRegistry.JSON_COLUMN + "_m" + m.getId());
+        jdbcTemplate.execute("ALTER TABLE content_fragments ADD COLUMN IF NOT EXISTS " + m.getJsonColumn() + " TEXT");
+        // 生效模型的向量列存在才说明 pgvector 可用；否则新模型同样只有 JSON 列
+        if (vectorStore.isEnabled() && models.hasColumn(EmbeddingModelRegistry.VECTOR_COLUMN)) {
+            m.setVectorColumn(EmbeddingModelRegistry.VECTOR_COLUMN + "_m" + m.getId());
+            jdbcTemplate.execute("ALTER TABLE content_fragments ADD COLUMN IF NOT EXISTS " + m.getVectorColumn() + " vector(" + dim + ")");
+        }
+        return repository.save(m);
+    }
+
+    // 回填与建索引可能耗时较长，放在独立线程上执行，不占用共享的调度线程
+    @Scheduled(fixedDelayString = "${app.embedding.migration.poll-interval-ms:1000}")
+    public void backfill() {
+        if (worker.isShutdown() || !busy.compareAndSet(false, true)) return;
+        worker.execute(() -> {
+            try {
+                backfillOnce();
+            } finally {
+                busy.set(false);
+            }
+        });
+    }
+
+    private void backfillOnce() {
+        List<EmbeddingModel> pending = repository.findByStatusIn(List.of(EmbeddingModelRegistry.BACKFILLING, EmbeddingModelRegistry.READY));
+        for (EmbeddingModel m : pending) {
+            Instant now = Instant.now();
+            if (repository.claimLease(m.getId(), now, now.plus(lease)) == 0) continue;
+            EmbeddingModel current = repository.findById(m.getId()).orElse(null);
+            if (current == null) continue;
+            String error = null;
+            try {
+                backfillBatch(current);
+            } catch (Exception e) {
+                String msg = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+                error = msg.length() > 2000 ? msg.substring(0, 2000) : msg;
+            }
+            // 条件更新：回填期间模型若已被切换或删除，不覆盖其状态
+            repository.saveBackfill(current.getId(), current.getStatus(), current.getBackfillCursor(), current.getBackfilled(), error);
+        }
+    }
+
+    // 按 id 游标取下一批尚无该模型向量的片段；新片段的 id 总是更大，READY 之后沿同一游标即可追平
+    private void backfillBatch(EmbeddingModel m) {
+        List<ContentFragment> batch = jdbcTemplate.query(
+                "SELECT id, text, content_hash FROM content_fragments WHERE id > ? AND " + m.getJsonColumn() + " IS NULL ORDER BY id LIMIT ?",
+                (rs, rowNum) -> {
+                    ContentFragment f = new ContentFragment();
+                    f.setId(rs.getLong(1));
+                    f.setText(rs.getString(2));
+                    f.setContentHash(rs.getString(3));
+                    return f;
+                },
+                m.getBackfillCursor(), batchSize);
+        if (batch.isEmpty()) {
+            if (EmbeddingModelRegistry.BACKFILLING.equals(m.getStatus())) {
+                // 切换前先为新模型的列建好索引
+                indexManager.ensure(m, false);
+                m.setStatus(EmbeddingModelRegistry.READY);
+            }
+            return;
+        }
+        embeddingService.embedFragments(m.getName(), batch, (done, vectors) -> {
+            vectorStore.writeModelColumns(m, done, vectors);
+            m.setBackfilled(m.getBackfilled() + done.size());
+        });
+        m.setBackfillCursor(batch.get(batch.size() - 1).getId());
+    }
+
+    @Transactional
+    public EmbeddingModel activate(Long id) {
+        EmbeddingModel target = repository.findById(id).orElseThrow(() -> new NoSuchElementException("模型不存在"));
+        if (!EmbeddingModelRegistry.READY.equals(target.getStatus())) {
+            throw new ModelStateException("模型尚未回填完成，当前状态：" + target.getStatus());
+        }
+        EmbeddingModel current = repository.findFirstByStatus(EmbeddingModelRegistry.ACTIVE).orElseThrow();
+        if (isPostgres()) {
+            // 改名需要短暂的排他锁，拿不到时尽快失败，避免排在长查询后面阻塞所有读写
+            jdbcTemplate.execute("SET LOCAL lock_timeout = '5s'");
+            // 先挡住并发写入再计数：否则计数之后、改名之前写入的旧模型向量会在切换后丢失。
+            // 该锁不阻塞读，检索在计数期间照常进行
+            jdbcTemplate.execute("LOCK TABLE content_fragments IN SHARE ROW EXCLUSIVE MODE");
+        }
+        // 已有旧模型向量、但新模型尚未追平的片段；待嵌入的新片段切换后直接按新模型嵌入，不计入
+        Long lagging = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM content_fragments WHERE "
+                + current.getJsonColumn() + " IS NOT NULL AND " + target.getJsonColumn() + " IS NULL", Long.class);
+        if (lagging != null && lagging > 0) throw new ModelStateException("仍有 " + lagging + " 个片段待回填，请稍后重试");
+        String retiredJson = EmbeddingModelRegistry.JSON_COLUMN + "_m" + current.getId();
+        String retiredVector = EmbeddingModelRegistry.VECTOR_COLUMN + "_m" + current.getId();
+        rename(current.getJsonColumn(), retiredJson);
+        if (current.getVectorColumn() != null) rename(current.getVectorColumn(), retiredVector);
+        rename(target.getJsonColumn(), EmbeddingModelRegistry.JSON_COLUMN);
+        if (target.getVectorColumn() != null) rename(target.getVectorColumn(), EmbeddingModelRegistry.VECTOR_COLUMN);
+        current.setStatus(EmbeddingModelRegistry.RETIRED);
+        current.setJsonColumn(retiredJson);
+        current.setVectorColumn(current.getVectorColumn() != null ? retiredVector : null);
+        repository.saveAndFlush(current);
+        target.setStatus(EmbeddingModelRegistry.ACTIVE);
+        target.setJsonColumn(EmbeddingModelRegistry.JSON_COLUMN);
+        target.setVectorColumn(target.getVectorColumn() != null ? EmbeddingModelRegistry.VECTOR_COLUMN : null);
+        target.setActivatedAt(Instant.now());
+        target.setLeaseUntil(null);
+        repository.saveAndFlush(target);
+        // 提交后本实例立即读新模型，其他实例在 refresh-ms 内跟上
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                models.invalidate();
+            }
+        });
+        return target;
+    }
+
+    // 删除未生效的模型及其列；DROP COLUMN 同样只改元数据
+    @Transactional
+    public void delete(Long id) {
+        EmbeddingModel m = repository.findById(id).orElseThrow(() -> new NoSuchElementException("模型不存在"));
+        if (EmbeddingModelRegistry.ACTIVE.equals(m.getStatus())) throw new ModelStateException("不能删除生效中的模型");
+        if (m.getJsonColumn() != null) jdbcTemplate.execute("ALTER TABLE content_fragments DROP COLUMN IF EXISTS " + m.getJsonColumn());
+        if (m.getVectorColumn() != null) jdbcTemplate.execute("ALTER TABLE content_fragments DROP COLUMN IF EXISTS " + m.getVectorColumn());
+        repository.delete(m);
+    }
+
+    private void rename(String from, String to) {
+        jdbcTemplate.execute("ALTER TABLE content_fragments RENAME COLUMN " + from + " TO " + to);
+    }
+
+    private boolean isPostgres() {
+        Boolean pg = postgres;
+        if (pg == null) {
+            pg = jdbcTemplate.execute((ConnectionCallback<Boolean>) c ->
+                    c.getMetaData().getDatabaseProductName().toLowerCase().contains("postgres"));
+            postgres = pg;
+        }
+        return Boolean.TRUE.equals(pg);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+
+    public static class ModelStateException extends RuntimeException {
+        public ModelStateException(String message) { super(message); }
+    }
+}
@@ -0,0 +1,108 @@
+package com.huixun.lms.service;
+
+import com.huixun.lms.model.EmbeddingModel;
+import com.huixun.lms.repository.EmbeddingModelRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 当前生效的嵌入模型。结果在进程内缓存 refresh-ms，其他实例完成切换后本实例在该时间内跟上；
+// 登记表为空时按配置登记默认模型，对应已有的 embedding_json/embedding 列。
+// 向量列以库中实际存在为准：未安装 pgvector 时 VectorSchemaInitializer 建列失败，各模型只写、只读 JSON 列
+@Component
+public class EmbeddingModelRegistry {
+
+    public static final String ACTIVE = "ACTIVE";
+    public static final String BACKFILLING = "BACKFILLING";
+    public static final String READY = "READY";
+    public static final String RETIRED = "RETIRED";
+
+    public static final String JSON_COLUMN = "embedding_json";
+    public static final String VECTOR_COLUMN = "embedding";
+
+    private final EmbeddingModelRepository repository;
+    private final JdbcTemplate jdbcTemplate;
+    private final EmbeddingProviders providers;
+    private final boolean vectorEnabled;
+    private final int vectorDimension;
+    private final long refreshMs;
+    private volatile EmbeddingModel active;
+    private volatile long loadedAt;
+    private final Map<String, Boolean> columns = new ConcurrentHashMap<>();
+
+    public EmbeddingModelRegistry(EmbeddingModelRepository repository,
+                                  JdbcTemplate jdbcTemplate,
+                                  EmbeddingProviders providers,
+                                  @Value("${app.vector.enabled:true}") boolean vectorEnabled,
+                                  @Value("${app.vector.dimension:1536}") int vectorDimension,
+                                  @Value("${app.embedding.models.refresh-ms:2000}") long refreshMs) {
+        this.repository = repository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.providers = providers;
+        this.vectorEnabled = vectorEnabled;
+        this.vectorDimension = vectorDimension;
+        this.refreshMs = refreshMs;
+    }
+
+    public EmbeddingModel active() {
+        EmbeddingModel m = active;
+        if (m != null && System.currentTimeMillis() - loadedAt < refreshMs) return m;
+        return refresh();
+    }
+
+    public boolean isActive(String name) {
+        return refresh().getName().equals(name);
+    }
+
+    public void invalidate() {
+        loadedAt = 0;
+    }
+
+    // 模型可用的向量列：未启用向量、未登记向量列或库中没有该列时为 null，调用方只用 JSON 列
+    public String vectorColumn(EmbeddingModel model) {
+        String column = model.getVectorColumn();
+        return vectorEnabled && column != null && hasColumn(column) ? column : null;
+    }
+
+    // 结果在进程内缓存；安装 pgvector 补建列后需重启才会启用向量列
+    public boolean hasColumn(String column) {
+        return columns.computeIfAbsent(column.toLowerCase(), c -> {
+            Long n = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM information_schema.columns "
+                    + "WHERE LOWER(table_name) = 'content_fragments' AND LOWER(column_name) = ?", Long.class, c);
+            return n != null && n > 0;
+        });
+    }
+
+    // 写入时数据库报告列或 vector 类型不存在（如扩展被删除），之后不再尝试写该列
+    public void columnMissing(String column) {
+        columns.put(column.toLowerCase(), false);
+    }
+
+    public synchronized EmbeddingModel refresh() {
+        EmbeddingModel m = repository.findFirstByStatus(ACTIVE).orElseGet(this::bootstrap);
+        active = m;
+        loadedAt = System.currentTimeMillis();
+        return m;
+    }
+
+    private EmbeddingModel bootstrap() {
+        String name = providers.defaultModel();
+        int declared = providers.declaredDimension(name);
+        EmbeddingModel m = new EmbeddingModel();
+        m.setName(name);
+        m.setDimension(declared > 0 ? declared : vectorDimension);
+        m.setStatus(ACTIVE);
+        m.setJsonColumn(JSON_COLUMN);
+        m.setVectorColumn(vectorEnabled && hasColumn(VECTOR_COLUMN) ? VECTOR_COLUMN : null);
+        try {
+            return repository.save(m);
+        } catch (DataIntegrityViolationException e) {
+            // 其他实例已同时完成登记
+            return repository.findFirstByStatus(ACTIVE).orElseThrow(() -> e);
+        }
+    }
+}
@@ -1,7 +1,15 @@
 package com.huixun.lms.service;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public interface EmbeddingProvider {
-    List<Double> embed(String text);
+    float[] embed(String text);
+
+    // 按输入顺序返回向量；空白文本对应长度为 0 的数组。默认逐条调用，支持批量接口的实现应覆盖
+    default List<float[]> embedAll(List<String> texts) {
+        List<float[]> out = new ArrayList<>(texts.size());
+        for (String t : texts) out.add(embed(t));
+        return out;
+    }
 }
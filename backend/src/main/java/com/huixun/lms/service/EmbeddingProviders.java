@@ -0,0 +1,81 @@
+package com.huixun.lms.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 按模型标识取得嵌入提供方：openai:{模型名} 走远程接口，local:ngram-v1:{维度} 为进程内嵌入
+@Component
+public class EmbeddingProviders {
+
+    public static final String OPENAI_PREFIX = "openai:";
+
+    private final OpenAiEmbeddingProvider openAiProvider;
+    private final LocalEmbeddingProvider localProvider;
+    private final String providerName;
+    private final String apiKey;
+    private final String openAiModel;
+    private final int batchItems;
+    private final int batchTokens;
+    private final Map<String, EmbeddingProvider> providers = new ConcurrentHashMap<>();
+
+    public EmbeddingProviders(OpenAiEmbeddingProvider openAiProvider,
+                              LocalEmbeddingProvider localProvider,
+                              @Value("${app.llm.provider}") String providerName,
+                              @Value("${app.llm.openai.api-key}") String apiKey,
+                              @Value("${app.llm.openai.embedding-model}") String openAiModel,
+                              @Value("${app.embedding.batch.max-items:256}") int batchItems,
+                              @Value("${app.embedding.batch.max-tokens:100000}") int batchTokens) {
+        this.openAiProvider = openAiProvider;
+        this.localProvider = localProvider;
+        this.providerName = providerName;
+        this.apiKey = apiKey;
+        this.openAiModel = openAiModel;
+        this.batchItems = batchItems;
+        this.batchTokens = batchTokens;
+    }
+
+    // 首次启动、登记表为空时采用的模型：配置为 openai 且提供了 API key 时用远程模型，否则用本地嵌入
+    public String defaultModel() {
+        if ("openai".equalsIgnoreCase(providerName) && openAiProvider.isConfigured()) return OPENAI_PREFIX + openAiModel;
+        return localProvider.modelId();
+    }
+
+    public boolean isRemote(String model) {
+        return model.startsWith(OPENAI_PREFIX);
+    }
+
+    // 本地模型的维度由标识决定；远程模型返回 -1，需实际调用一次才能得知
+    public int declaredDimension(String model) {
+        if (model.startsWith(LocalEmbeddingProvider.MODEL_PREFIX)) return localDimension(model);
+        return -1;
+    }
+
+    public EmbeddingProvider forModel(String model) {
+        return providers.computeIfAbsent(model, this::create);
+    }
+
+    private EmbeddingProvider create(String model) {
+        if (model.startsWith(OPENAI_PREFIX)) {
+            String name = model.substring(OPENAI_PREFIX.length());
+            if (name.equals(openAiModel) && openAiProvider.isConfigured()) return openAiProvider;
+            if (apiKey == null || apiKey.isBlank()) throw new IllegalArgumentException("未配置 OpenAI API key，无法使用模型：" + model);
+            return new OpenAiEmbeddingProvider(apiKey, name, batchItems, batchTokens);
+        }
+        if (model.startsWith(LocalEmbeddingProvider.MODEL_PREFIX)) {
+            int dim = localDimension(model);
+            return dim == localProvider.dimension() ? localProvider : new LocalEmbeddingProvider(dim);
+        }
+        throw new IllegalArgumentException("不支持的嵌入模型：" + model);
+    }
+
+    private static int localDimension(String model) {
+        try {
+            return Integer.parseInt(model.substring(LocalEmbeddingProvider.MODEL_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("本地嵌入模型标识应为 " + LocalEmbeddingProvider.MODEL_PREFIX + "{维度}：" + model);
+        }
+    }
+}
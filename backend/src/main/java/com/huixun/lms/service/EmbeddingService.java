@@ -2,15 +2,19 @@ package com.huixun.lms.service;
 
 import com.huixun.lms.model.ContentFragment;
 import com.huixun.lms.model.Document;
+import com.huixun.lms.model.EmbeddingModel;
 import com.huixun.lms.repository.ContentFragmentRepository;
 import com.huixun.lms.repository.DocumentRepository;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 @Service
@@ -18,90 +22,165 @@ public class EmbeddingService {
 
     private final ContentFragmentRepository fragmentRepository;
     private final DocumentRepository documentRepository;
-    private final EmbeddingProvider openAiProvider;
-    private final String providerName;
-    private final JdbcTemplate jdbcTemplate;
+    private final VectorStore vectorStore;
+    private final ProgressPublisher progress;
+    private final EmbeddingExecutor embeddingExecutor;
+    private final EmbeddingCache embeddingCache;
+    private final EmbeddingProviders providers;
+    private final EmbeddingModelRegistry models;
+    private final SearchCache searchCache;
+
+    private static final int LOCAL_BATCH = 500;
 
     public EmbeddingService(ContentFragmentRepository fragmentRepository,
                             DocumentRepository documentRepository,
-                            OpenAiEmbeddingProvider openAiProvider,
-                            @Value("${app.llm.provider}") String providerName,
-                            JdbcTemplate jdbcTemplate) {
+                            VectorStore vectorStore,
+                            ProgressPublisher progress,
+                            EmbeddingExecutor embeddingExecutor,
+                            EmbeddingCache embeddingCache,
+                            EmbeddingProviders providers,
+                            EmbeddingModelRegistry models,
+                            SearchCache searchCache) {
         this.fragmentRepository = fragmentRepository;
         this.documentRepository = documentRepository;
-        this.openAiProvider = openAiProvider;
-        this.providerName = providerName;
-        this.jdbcTemplate = jdbcTemplate;
+        this.vectorStore = vectorStore;
+        this.progress = progress;
+        this.embeddingExecutor = embeddingExecutor;
+        this.embeddingCache = embeddingCache;
+        this.providers = providers;
+        this.models = models;
+        this.searchCache = searchCache;
     }
 
     public void embedDocument(Long documentId) throws IOException {
         Document doc = documentRepository.findById(documentId).orElseThrow();
         try {
-            List<ContentFragment> fragments = fragmentRepository.findByDocumentId(documentId);
-            for (ContentFragment f : fragments) {
-                List<Double> vec = null;
-                if ("openai".equalsIgnoreCase(providerName)) {
-                    try {
-                        vec = openAiProvider.embed(f.getText());
-                    } catch (Exception ex) {
-                        vec = java.util.Collections.emptyList();
-                    }
-                }
-                if (vec == null || vec.isEmpty()) {
-                    double[] rv = randomVec(64);
-                    f.setEmbeddingJson(toJson(rv));
-                } else {
-                    f.setEmbeddingJson(toJson(vec));
-                }
-                try {
-                    String vstr = toVectorString(vec != null && !vec.isEmpty() ? vec : java.util.Arrays.stream(randomVec(64)).boxed().toList());
-                    jdbcTemplate.update("UPDATE content_fragments SET embedding = '" + vstr + "'::vector WHERE id = ?", f.getId());
-                } catch (Exception ignored) {}
-            }
-            fragmentRepository.saveAll(fragments);
+            // 只为尚无向量的片段调用嵌入；新版本文档中未变化的片段沿用已有向量
+            List<ContentFragment> fragments = fragmentRepository.findByDocumentId(documentId).stream()
+                    .filter(f -> f.getEmbeddingJson() == null || f.getEmbeddingJson().isBlank())
+                    .collect(Collectors.toList());
+            // 整个文档用同一个模型；写入期间若模型已切换，VectorStore 抛错，任务重试时按新模型重新嵌入
+            EmbeddingModel model = models.active();
+            int[] embedded = {0};
+            embedFragments(model.getName(), fragments, (batch, vectors) -> {
+                vectorStore.writeEmbeddings(model, batch, vectors);
+                embedded[0] += batch.size();
+                progress.progress(documentId, "EMBEDDING", embedded[0], fragments.size());
+            });
             doc.setStatus("DONE");
             doc.setErrorMessage(null);
             documentRepository.save(doc);
+            progress.stage(documentId, "DONE", null);
         } catch (Exception e) {
             doc.setStatus("FAILED");
             doc.setErrorMessage(e.getMessage());
             documentRepository.save(doc);
             throw e instanceof IOException ? (IOException) e : new IOException(e);
+        } finally {
+            // 失败时已写入的批次同样改变了检索结果
+            searchCache.changed(documentId);
         }
     }
 
-    public List<Double> embedText(String text) {
-        if ("openai".equalsIgnoreCase(providerName)) {
-            try {
-                List<Double> v = openAiProvider.embed(text);
-                if (v != null && !v.isEmpty()) return v;
-            } catch (Exception ignored) {}
+    // 用指定模型为片段计算向量，每完成一批回调一次 sink（片段与向量按下标对应），供文档嵌入与模型回填共用。
+    // 远程模型先查缓存，命中的直接交给 sink；其余按文本去重后分批并发请求，每批完成即回调并回填缓存。
+    // 失败时抛出，已回调的批次在重试时不再重复调用
+    public void embedFragments(String model, List<ContentFragment> fragments,
+                               BiConsumer<List<ContentFragment>, List<float[]>> sink) {
+        if (fragments.isEmpty()) return;
+        EmbeddingProvider provider = providers.forModel(model);
+        if (!providers.isRemote(model)) {
+            // 本地嵌入在进程内计算，不经过限流与缓存，按批回调以便推送进度
+            for (int from = 0; from < fragments.size(); from += LOCAL_BATCH) {
+                List<ContentFragment> batch = fragments.subList(from, Math.min(fragments.size(), from + LOCAL_BATCH));
+                List<float[]> vectors = new ArrayList<>(batch.size());
+                for (ContentFragment f : batch) vectors.add(provider.embed(f.getText()));
+                sink.accept(batch, vectors);
+            }
+            return;
+        }
+        Map<String, List<ContentFragment>> byHash = new LinkedHashMap<>();
+        for (ContentFragment f : fragments) {
+            String h = f.getContentHash() != null ? f.getContentHash() : ContentHash.of(f.getText());
+            byHash.computeIfAbsent(h, k -> new ArrayList<>()).add(f);
         }
-        double[] rv = randomVec(64);
-        java.util.List<Double> list = new java.util.ArrayList<>();
-        for (double d : rv) list.add(d);
-        return list;
+        Map<String, float[]> cached = embeddingCache.getAll(model, new ArrayList<>(byHash.keySet()));
+        List<ContentFragment> hits = new ArrayList<>();
+        List<float[]> hitVectors = new ArrayList<>();
+        cached.forEach((h, v) -> byHash.remove(h).forEach(f -> {
+            hits.add(f);
+            hitVectors.add(v);
+        }));
+        if (!hits.isEmpty()) sink.accept(hits, hitVectors);
+        List<String> hashes = new ArrayList<>(byHash.keySet());
+        List<String> texts = new ArrayList<>(hashes.size());
+        for (String h : hashes) texts.add(byHash.get(h).get(0).getText());
+        embeddingExecutor.execute(provider, texts, (from, to, vecs) -> {
+            List<ContentFragment> batch = new ArrayList<>();
+            List<float[]> batchVectors = new ArrayList<>();
+            Map<String, float[]> fresh = new LinkedHashMap<>();
+            for (int i = from; i < to; i++) {
+                float[] v = vecs.get(i - from);
+                fresh.put(hashes.get(i), v);
+                for (ContentFragment f : byHash.get(hashes.get(i))) {
+                    batch.add(f);
+                    batchVectors.add(v);
+                }
+            }
+            sink.accept(batch, batchVectors);
+            embeddingCache.putAll(model, fresh);
+        });
     }
 
-    private double[] randomVec(int n) {
-        Random rnd = new Random(42);
-        double[] v = new double[n];
-        for (int i = 0; i < n; i++) v[i] = rnd.nextDouble();
-        return v;
+    // 嵌入服务不可用时抛出 EmbeddingExecutor.EmbeddingFailedException，由调用方返回明确错误
+    public float[] embedText(String text) {
+        return embedText(models.active().getName(), text);
     }
 
-    private String toJson(double[] v) {
-        return "[" + java.util.Arrays.stream(v).mapToObj(d -> String.format("%.6f", d)).collect(Collectors.joining(",")) + "]";
+    public float[] embedText(String model, String text) {
+        EmbeddingProvider provider = providers.forModel(model);
+        if (!providers.isRemote(model)) return provider.embed(text);
+        // 相同的查询文本直接命中缓存，不再发起网络请求
+        String h = ContentHash.of(text);
+        float[] v = embeddingCache.get(model, h);
+        if (v == null) {
+            v = embeddingExecutor.embedOne(provider, text);
+            embeddingCache.put(model, h, v);
+        }
+        return v;
     }
 
-    private String toJson(List<Double> v) {
-        return "[" + v.stream().map(d -> String.format("%.6f", d)).collect(Collectors.joining(",")) + "]";
+    // 批量检索的查询向量，与输入按下标对应。远程模型未命中缓存的文本去重后合并成一次批量请求（超出批量上限时分批）
+    public List<float[]> embedTexts(List<String> texts) {
+        String model = models.active().getName();
+        EmbeddingProvider provider = providers.forModel(model);
+        List<float[]> out = new ArrayList<>(texts.size());
+        if (!providers.isRemote(model)) {
+            for (String t : texts) out.add(provider.embed(t));
+            return out;
+        }
+        List<String> hashes = new ArrayList<>(texts.size());
+        for (String t : texts) hashes.add(ContentHash.of(t));
+        Map<String, float[]> vectors = new HashMap<>(embeddingCache.getAll(model, new ArrayList<>(new LinkedHashSet<>(hashes))));
+        Map<String, String> missing = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (!vectors.containsKey(hashes.get(i))) missing.putIfAbsent(hashes.get(i), texts.get(i));
+        }
+        if (!missing.isEmpty()) {
+            List<String> keys = new ArrayList<>(missing.keySet());
+            Map<String, float[]> fresh = new LinkedHashMap<>();
+            embeddingExecutor.execute(provider, new ArrayList<>(missing.values()), (from, to, vecs) -> {
+                for (int i = from; i < to; i++) fresh.put(keys.get(i), vecs.get(i - from));
+            });
+            embeddingCache.putAll(model, fresh);
+            vectors.putAll(fresh);
+        }
+        for (String h : hashes) out.add(vectors.get(h));
+        return out;
     }
 
-    private String toVectorString(List<Double> v) {
-        StringBuilder b = new StringBuilder("[");
-        for (int i = 0; i < v.size(); i++) { if (i>0) b.append(','); b.append(String.format("%.6f", v.get(i))); }
-        b.append(']');
-        return b.toString();
+    // 当前生效的嵌入模型标识，不同模型的向量不可混用
+    public String modelId() {
+        return models.active().getName();
     }
 }
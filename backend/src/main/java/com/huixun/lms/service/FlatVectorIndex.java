@@ -0,0 +1,463 @@
+package com.huixun.lms.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// 精确检索：归一化后的向量按行连续存放在内存映射的 float 矩阵文件（<base>-<generation>.f32）中，不占堆内存；
+// 每行的片段 id 另存在 sidecar（<base>.ids）。检索逐行算点积，行数多时按线程分段扫描，每段维护容量为 k 的堆，最后合并。
+// 矩阵文件只追加，删除与替换只在 id 上打标记。sidecar 原子落盘后才算提交，之后追加的行在重启时丢弃，由调用方从库中补读；
+// 重建时写新 generation 的矩阵文件，sidecar 指向新文件后旧文件才删除
+final class FlatVectorIndex implements LocalVectorIndex, Closeable {
+
+    private static final int MAGIC = 0x464C4154;
+    private static final int VERSION = 1;
+    private static final long DELETED = Long.MIN_VALUE;
+    // 每段映射约 64MB，文件按段增长
+    private static final int SEGMENT_BYTES = 64 << 20;
+    // 每次从映射区拷出这么多行再计算，拷贝留在 L2 内
+    private static final int BLOCK_ROWS = 64;
+    // 行数不足时分段的调度开销大于收益
+    static final int MIN_ROWS_PER_TASK = 16384;
+
+    private final String model;
+    private final int dimension;
+    private final Path base;
+    private final long generation;
+    private final FileChannel channel;
+    private final int segmentRows;
+    private final ExecutorService pool;
+    private final int parallelism;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final List<FloatBuffer> views = new ArrayList<>();
+    private final ThreadLocal<float[]> scratch;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long[] ids = new long[1024];
+    private final Map<Long, Integer> rows = new HashMap<>();
+    private int size;
+    private int deletedCount;
+    private volatile long watermark;
+
+    private FlatVectorIndex(String model, int dimension, Path base, long generation, FileChannel channel,
+                            ExecutorService pool, int parallelism, int segmentBytes) {
+        this.model = model;
+        this.dimension = dimension;
+        this.base = base;
+        this.generation = generation;
+        this.channel = channel;
+        this.segmentRows = Math.max(1, segmentBytes / (dimension * 4));
+        this.pool = pool;
+        this.parallelism = Math.max(1, parallelism);
+        this.scratch = ThreadLocal.withInitial(() -> new float[BLOCK_ROWS * dimension]);
+    }
+
+    // 新建一个空索引，矩阵写入新 generation 的文件；pool 用于分段扫描
+    static FlatVectorIndex create(Path base, String model, int dimension, ExecutorService pool, int parallelism) throws IOException {
+        return create(base, model, dimension, pool, parallelism, SEGMENT_BYTES);
+    }
+
+    // 行在文件中连续存放，与映射分段无关，segmentBytes 只影响每段映射的大小
+    static FlatVectorIndex create(Path base, String model, int dimension, ExecutorService pool, int parallelism,
+                                  int segmentBytes) throws IOException {
+        Path dir = base.toAbsolutePath().getParent();
+        if (dir != null) Files.createDirectories(dir);
+        long generation = System.currentTimeMillis();
+        while (Files.exists(matrix(base, generation))) generation++;
+        FileChannel ch = FileChannel.open(matrix(base, generation),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new FlatVectorIndex(model, dimension, base, generation, ch, pool, parallelism, segmentBytes);
+    }
+
+    // 打开已提交的索引；不存在或与当前模型不符时返回 null，由调用方从数据库重建
+    static FlatVectorIndex open(Path base, String model, int dimension, ExecutorService pool, int parallelism) throws IOException {
+        Path meta = sidecar(base);
+        if (!Files.isRegularFile(meta)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(meta), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            if (!in.readUTF().equals(model) || in.readInt() != dimension) return null;
+            long generation = in.readLong();
+            int n = in.readInt();
+            long watermark = in.readLong();
+            Path file = matrix(base, generation);
+            if (!Files.isRegularFile(file) || Files.size(file) < (long) n * dimension * 4) return null;
+            FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                FlatVectorIndex x = new FlatVectorIndex(model, dimension, base, generation, ch, pool, parallelism, SEGMENT_BYTES);
+                x.ensureCapacity(n);
+                for (int i = 0; i < n; i++) {
+                    long id = in.readLong();
+                    x.ids[i] = id;
+                    if (id == DELETED) x.deletedCount++;
+                    else x.rows.put(id, i);
+                }
+                x.mapThrough(n);
+                x.size = n;
+                x.watermark = watermark;
+                return x;
+            } catch (IOException | RuntimeException e) {
+                ch.close();
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public String model() {
+        return model;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public long watermark() {
+        return watermark;
+    }
+
+    @Override
+    public void watermark(long id) {
+        watermark = id;
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int deletedCount() {
+        lock.readLock().lock();
+        try {
+            return deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(long id) {
+        lock.readLock().lock();
+        try {
+            return rows.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean matches(long id, float[] vector) {
+        float[] v = vector.length == dimension ? VectorMath.normalize(vector) : null;
+        lock.readLock().lock();
+        try {
+            Integer row = rows.get(id);
+            return v != null && row != null && Arrays.equals(read(row), v);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long[] liveIds() {
+        lock.readLock().lock();
+        try {
+            long[] out = new long[rows.size()];
+            int i = 0;
+            for (Long id : rows.keySet()) out[i++] = id;
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean add(long id, float[] vector) {
+        if (vector.length != dimension) return false;
+        float[] v = VectorMath.normalize(vector);
+        if (v == null) return false;
+        lock.writeLock().lock();
+        try {
+            Integer old = rows.get(id);
+            if (old != null) {
+                if (Arrays.equals(read(old), v)) return true;
+                markDeleted(old);
+            }
+            int row = size;
+            ensureCapacity(row + 1);
+            mapThrough(row + 1);
+            views.get(row / segmentRows).put((row % segmentRows) * dimension, v);
+            ids[row] = id;
+            rows.put(id, row);
+            size++;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            Integer row = rows.get(id);
+            if (row != null) markDeleted(row);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // 结果与逐条计算一致，ef 不起作用
+    @Override
+    public List<Hit> search(float[] query, int k, int ef) {
+        return search(new float[][]{query}, k, ef).get(0);
+    }
+
+    // 每块行从映射区读出一次，与全部查询计算点积，批量检索的内存带宽开销与单个查询相同
+    @Override
+    public List<List<Hit>> search(float[][] queries, int k, int ef) {
+        float[][] qs = new float[queries.length][];
+        for (int i = 0; i < queries.length; i++) {
+            qs[i] = queries[i].length == dimension ? VectorMath.normalize(queries[i]) : null;
+        }
+        if (k <= 0) return hits(qs, null);
+        lock.readLock().lock();
+        try {
+            int n = size;
+            int tasks = Math.max(1, Math.min(parallelism, n / MIN_ROWS_PER_TASK));
+            int per = (n + tasks - 1) / tasks;
+            List<Future<TopK[]>> parts = new ArrayList<>(tasks - 1);
+            for (int t = 1; t < tasks; t++) {
+                int from = t * per;
+                int to = Math.min(n, from + per);
+                try {
+                    parts.add(pool.submit(() -> scan(qs, k, from, to)));
+                } catch (RejectedExecutionException e) {
+                    // 关闭过程中在当前线程扫描
+                    parts.add(CompletableFuture.completedFuture(scan(qs, k, from, to)));
+                }
+            }
+            TopK[] top = scan(qs, k, 0, Math.min(n, per));
+            for (Future<TopK[]> f : parts) {
+                TopK[] part = f.get();
+                for (int i = 0; i < top.length; i++) top[i].addAll(part[i]);
+            }
+            return hits(qs, top);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return hits(qs, null);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Hit> search(float[] query, int k, long[] among) {
+        float[] q = query.length == dimension ? VectorMath.normalize(query) : null;
+        if (q == null || k <= 0) return List.of();
+        lock.readLock().lock();
+        try {
+            TopK top = new TopK(k);
+            float[] row = scratch.get();
+            for (long id : among) {
+                Integer r = rows.get(id);
+                if (r == null) continue;
+                views.get(r / segmentRows).get((r % segmentRows) * dimension, row, 0, dimension);
+                float d = Math.max(0f, 1 - DotProduct.dot(q, row, 0, dimension));
+                top.offer(((long) Float.floatToIntBits(d) << 32) | r);
+            }
+            return hits(top);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 先把矩阵刷到磁盘，再原子替换 sidecar；成功后删除旧 generation 的矩阵文件
+    void flush() throws IOException {
+        lock.readLock().lock();
+        try {
+            for (MappedByteBuffer b : segments) b.force();
+            Path meta = sidecar(base);
+            Path tmp = meta.resolveSibling(meta.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(model);
+                out.writeInt(dimension);
+                out.writeLong(generation);
+                out.writeInt(size);
+                out.writeLong(watermark);
+                for (int i = 0; i < size; i++) out.writeLong(ids[i]);
+            }
+            Files.move(tmp, meta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            lock.readLock().unlock();
+        }
+        // 只删更早的 generation，正在构建的新索引的文件不受影响
+        String prefix = base.getFileName() + "-";
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(base.toAbsolutePath().getParent(), prefix + "*.f32")) {
+            for (Path p : stale) {
+                String name = p.getFileName().toString();
+                String g = name.substring(prefix.length(), name.length() - 4);
+                if (!g.isEmpty() && g.chars().allMatch(Character::isDigit) && Long.parseLong(g) < generation) Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    // 已映射的区域在通道关闭后仍可读，进行中的检索不受影响
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private TopK[] scan(float[][] qs, int k, int from, int to) {
+        TopK[] top = new TopK[qs.length];
+        for (int j = 0; j < qs.length; j++) top[j] = new TopK(k);
+        float[] block = scratch.get();
+        int r = from;
+        while (r < to) {
+            int offset = r % segmentRows;
+            int len = Math.min(Math.min(BLOCK_ROWS, to - r), segmentRows - offset);
+            views.get(r / segmentRows).get(offset * dimension, block, 0, len * dimension);
+            for (int i = 0; i < len; i++) {
+                if (ids[r + i] == DELETED) continue;
+                for (int j = 0; j < qs.length; j++) {
+                    if (qs[j] == null) continue;
+                    // 舍入可能使距离略小于 0，截断后才能保证位模式与数值同序
+                    float d = Math.max(0f, 1 - DotProduct.dot(qs[j], block, i * dimension, dimension));
+                    top[j].offer(((long) Float.floatToIntBits(d) << 32) | (r + i));
+                }
+            }
+            r += len;
+        }
+        return top;
+    }
+
+    // 维度不符的查询与中断时返回空结果
+    private List<List<Hit>> hits(float[][] qs, TopK[] top) {
+        List<List<Hit>> out = new ArrayList<>(qs.length);
+        for (int i = 0; i < qs.length; i++) out.add(top == null || qs[i] == null ? List.of() : hits(top[i]));
+        return out;
+    }
+
+    private List<Hit> hits(TopK top) {
+        long[] sorted = top.sorted();
+        List<Hit> hits = new ArrayList<>(sorted.length);
+        for (long key : sorted) hits.add(new Hit(ids[(int) key], 1 - Float.intBitsToFloat((int) (key >>> 32))));
+        return hits;
+    }
+
+    private float[] read(int row) {
+        float[] out = new float[dimension];
+        views.get(row / segmentRows).get((row % segmentRows) * dimension, out);
+        return out;
+    }
+
+    private void markDeleted(int row) {
+        rows.remove(ids[row]);
+        ids[row] = DELETED;
+        deletedCount++;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= ids.length) return;
+        ids = Arrays.copyOf(ids, Math.max(n, ids.length + (ids.length >> 1)));
+    }
+
+    // 映射到能容纳 n 行为止；超出文件末尾的映射会把文件加长
+    private void mapThrough(int n) throws IOException {
+        long segmentBytes = (long) segmentRows * dimension * 4;
+        while ((long) segments.size() * segmentRows < n) {
+            MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_WRITE, segments.size() * segmentBytes, segmentBytes);
+            segments.add(b);
+            views.add(b.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer());
+        }
+    }
+
+    private static Path matrix(Path base, long generation) {
+        return base.resolveSibling(base.getFileName() + "-" + generation + ".f32");
+    }
+
+    private static Path sidecar(Path base) {
+        return base.resolveSibling(base.getFileName() + ".ids");
+    }
+
+    // 容量为 k 的堆，堆顶是已收集结果中距离最大的一个，新元素更近时才替换它。
+    // 元素把 (距离, 行号) 编码为一个 long，距离相同时行号小的在前
+    private static final class TopK {
+        private final long[] a;
+        private int n;
+
+        TopK(int k) {
+            a = new long[k];
+        }
+
+        void offer(long x) {
+            if (n < a.length) {
+                int i = n++;
+                while (i > 0) {
+                    int p = (i - 1) >>> 1;
+                    if (a[p] >= x) break;
+                    a[i] = a[p];
+                    i = p;
+                }
+                a[i] = x;
+            } else if (x < a[0]) {
+                int i = 0;
+                while (true) {
+                    int c = 2 * i + 1;
+                    if (c >= n) break;
+                    if (c + 1 < n && a[c + 1] > a[c]) c++;
+                    if (a[c] <= x) break;
+                    a[i] = a[c];
+                    i = c;
+                }
+                a[i] = x;
+            }
+        }
+
+        void addAll(TopK other) {
+            for (int i = 0; i < other.n; i++) offer(other.a[i]);
+        }
+
+        long[] sorted() {
+            long[] out = Arrays.copyOf(a, n);
+            Arrays.sort(out);
+            return out;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.huixun.lms.service;
+
+import com.huixun.lms.model.ContentFragment;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// 片段的批量写入路径。JPA 对 IDENTITY 主键逐行 INSERT 取回 id，无法批处理；
+// 这里直接用 JDBC 批量语句，新行的 id 通过 getGeneratedKeys 一次取回
+@Component
+public class FragmentWriter {
+
+    private static final String INSERT = "INSERT INTO content_fragments " +
+            "(document_id, text, section_path, page_range, ordinal, content_hash, keywords, embedding_json, created_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE = "UPDATE content_fragments " +
+            "SET text = ?, section_path = ?, page_range = ?, ordinal = ?, content_hash = ?, keywords = ? WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final LexicalIndex lexicalIndex;
+    private final MemoryVectorIndex memoryIndex;
+    private final SearchCache searchCache;
+    private final int batchSize;
+
+    public FragmentWriter(JdbcTemplate jdbcTemplate,
+                          LexicalIndex lexicalIndex,
+                          MemoryVectorIndex memoryIndex,
+                          SearchCache searchCache,
+                          @Value("${app.fragments.batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.lexicalIndex = lexicalIndex;
+        this.memoryIndex = memoryIndex;
+        this.searchCache = searchCache;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    // 删除、更新、新增在同一事务内完成，解析失败时文档保持原有片段。
+    // 由被删片段生成的题目保留，只解除与片段的关联，不留下指向不存在片段的 fragment_id
+    @Transactional
+    public void apply(List<ContentFragment> upserts, List<ContentFragment> removed) {
+        if (!removed.isEmpty()) {
+            List<Object[]> ids = new ArrayList<>(removed.size());
+            for (ContentFragment f : removed) ids.add(new Object[]{f.getId()});
+            jdbcTemplate.batchUpdate("UPDATE questions SET fragment_id = NULL WHERE fragment_id = ?", ids);
+            jdbcTemplate.batchUpdate("DELETE FROM content_fragments WHERE id = ?", ids);
+        }
+        List<ContentFragment> inserts = new ArrayList<>();
+        List<Object[]> updates = new ArrayList<>();
+        for (ContentFragment f : upserts) {
+            if (f.getId() == null) {
+                inserts.add(f);
+            } else {
+                updates.add(new Object[]{f.getText(), f.getSectionPath(), f.getPageRange(), f.getOrdinal(),
+                        f.getContentHash(), f.getKeywords(), f.getId()});
+            }
+        }
+        if (!updates.isEmpty()) jdbcTemplate.batchUpdate(UPDATE, updates);
+        for (int from = 0; from < inserts.size(); from += batchSize) {
+            insert(inserts.subList(from, Math.min(inserts.size(), from + batchSize)));
+        }
+        lexicalIndex.changed(upserts, removed);
+        memoryIndex.removed(removed);
+        Set<Long> documents = new HashSet<>();
+        for (ContentFragment f : upserts) documents.add(f.getDocumentId());
+        for (ContentFragment f : removed) documents.add(f.getDocumentId());
+        documents.forEach(searchCache::changed);
+    }
+
+    private void insert(List<ContentFragment> batch) {
+        jdbcTemplate.execute((Connection con) -> {
+            try (PreparedStatement ps = con.prepareStatement(INSERT, new String[]{"id"})) {
+                Timestamp now = Timestamp.from(Instant.now());
+                for (ContentFragment f : batch) {
+                    ps.setLong(1, f.getDocumentId());
+                    ps.setString(2, f.getText());
+                    ps.setString(3, f.getSectionPath());
+                    ps.setString(4, f.getPageRange());
+                    if (f.getOrdinal() == null) ps.setNull(5, Types.INTEGER);
+                    else ps.setInt(5, f.getOrdinal());
+                    ps.setString(6, f.getContentHash());
+                    ps.setString(7, f.getKeywords());
+                    ps.setString(8, f.getEmbeddingJson());
+                    ps.setTimestamp(9, now);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    int i = 0;
+                    while (keys.next() && i < batch.size()) batch.get(i++).setId(keys.getLong(1));
+                }
+            }
+            return null;
+        });
+    }
+}
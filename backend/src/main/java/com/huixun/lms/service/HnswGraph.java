@@ -0,0 +1,507 @@
+package com.huixun.lms.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// 余弦距离上的 HNSW 图（Malkov & Yashunin）。向量入图前归一化，距离为 1 - 点积。
+// 检索并发进行，插入与删除互斥；删除只打标记，节点仍参与路由但不出现在结果中，标记过多时由调用方重建。
+// 堆中的元素把 (距离, 节点) 编码为一个 long：非负 float 的位模式与数值同序，高 32 位放距离即可直接比较
+final class HnswGraph implements LocalVectorIndex {
+
+    private static final int MAGIC = 0x484E5357;
+    private static final int VERSION = 1;
+
+    private final String model;
+    private final int dimension;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMult;
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<Visited> visited = ThreadLocal.withInitial(Visited::new);
+
+    private float[][] vectors = new float[16][];
+    private long[] ids = new long[16];
+    // links[node][level] 为该层的邻居
+    private int[][][] links = new int[16][][];
+    private boolean[] deleted = new boolean[16];
+    private final Map<Long, Integer> nodes = new HashMap<>();
+    private int size;
+    private int deletedCount;
+    private int entry = -1;
+    private int maxLevel = -1;
+    private volatile long watermark;
+
+    HnswGraph(String model, int dimension, int m, int efConstruction) {
+        this.model = model;
+        this.dimension = dimension;
+        this.m = Math.max(2, m);
+        this.maxM0 = this.m * 2;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMult = 1 / Math.log(this.m);
+    }
+
+    @Override
+    public String model() {
+        return model;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public long watermark() {
+        return watermark;
+    }
+
+    @Override
+    public void watermark(long id) {
+        watermark = id;
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int deletedCount() {
+        lock.readLock().lock();
+        try {
+            return deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(long id) {
+        lock.readLock().lock();
+        try {
+            return nodes.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean matches(long id, float[] vector) {
+        float[] v = vector.length == dimension ? VectorMath.normalize(vector) : null;
+        lock.readLock().lock();
+        try {
+            Integer node = nodes.get(id);
+            return v != null && node != null && Arrays.equals(vectors[node], v);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long[] liveIds() {
+        lock.readLock().lock();
+        try {
+            long[] out = new long[nodes.size()];
+            int i = 0;
+            for (Long id : nodes.keySet()) out[i++] = id;
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean add(long id, float[] vector) {
+        if (vector.length != dimension) return false;
+        float[] v = VectorMath.normalize(vector);
+        if (v == null) return false;
+        lock.writeLock().lock();
+        try {
+            Integer old = nodes.get(id);
+            if (old != null) {
+                if (Arrays.equals(vectors[old], v)) return true;
+                markDeleted(old);
+            }
+            insert(id, v);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            Integer node = nodes.get(id);
+            if (node != null) markDeleted(node);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void markDeleted(int node) {
+        deleted[node] = true;
+        deletedCount++;
+        nodes.remove(ids[node]);
+    }
+
+    // ef 越大召回越高
+    @Override
+    public List<Hit> search(float[] query, int k, int ef) {
+        float[] q = query.length == dimension ? VectorMath.normalize(query) : null;
+        if (q == null || k <= 0) return List.of();
+        lock.readLock().lock();
+        try {
+            if (entry < 0) return List.of();
+            int cur = greedy(q, entry, maxLevel, 1);
+            LongHeap results = searchLayer(q, cur, Math.max(ef, k), 0, true);
+            long[] sorted = results.drainAscending();
+            List<Hit> hits = new ArrayList<>(Math.min(k, sorted.length));
+            for (int i = 0; i < sorted.length && hits.size() < k; i++) {
+                int node = node(sorted[i]);
+                hits.add(new Hit(ids[node], 1 - distanceOf(sorted[i])));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Hit> search(float[] query, int k, long[] among) {
+        float[] q = query.length == dimension ? VectorMath.normalize(query) : null;
+        if (q == null || k <= 0) return List.of();
+        lock.readLock().lock();
+        try {
+            long[] keys = new long[among.length];
+            int n = 0;
+            for (long id : among) {
+                Integer node = nodes.get(id);
+                if (node != null) keys[n++] = key(distance(q, vectors[node]), node);
+            }
+            Arrays.sort(keys, 0, n);
+            List<Hit> hits = new ArrayList<>(Math.min(k, n));
+            for (int i = 0; i < Math.min(k, n); i++) hits.add(new Hit(ids[node(keys[i])], 1 - distanceOf(keys[i])));
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void insert(long id, float[] v) {
+        int node = size++;
+        ensureCapacity(size);
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMult);
+        vectors[node] = v;
+        ids[node] = id;
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) links[node][l] = new int[0];
+        nodes.put(id, node);
+        if (entry < 0) {
+            entry = node;
+            maxLevel = level;
+            return;
+        }
+        int cur = greedy(v, entry, maxLevel, level + 1);
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            LongHeap candidates = searchLayer(v, cur, efConstruction, l, false);
+            long[] sorted = candidates.drainAscending();
+            int[] selected = selectNeighbors(sorted, l == 0 ? maxM0 : m);
+            links[node][l] = selected;
+            for (int e : selected) connect(e, node, l);
+            cur = node(sorted[0]);
+        }
+        if (level > maxLevel) {
+            entry = node;
+            maxLevel = level;
+        }
+    }
+
+    // 从 from 层逐层贪心下降到 to 层，每层只保留最近的一个节点
+    private int greedy(float[] q, int start, int from, int to) {
+        int cur = start;
+        float curDist = distance(q, vectors[cur]);
+        for (int l = from; l >= to; l--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                int[] nb = l < links[cur].length ? links[cur][l] : new int[0];
+                for (int e : nb) {
+                    float d = distance(q, vectors[e]);
+                    if (d < curDist) {
+                        curDist = d;
+                        cur = e;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return cur;
+    }
+
+    // 单层的 beam 搜索；liveOnly 时结果只收未删除节点，已删除节点仍用于扩展
+    private LongHeap searchLayer(float[] q, int start, int ef, int level, boolean liveOnly) {
+        Visited seen = visited.get();
+        seen.reset(size);
+        LongHeap candidates = new LongHeap(false);
+        LongHeap results = new LongHeap(true);
+        long first = key(distance(q, vectors[start]), start);
+        seen.mark(start);
+        candidates.push(first);
+        if (!liveOnly || !deleted[start]) results.push(first);
+        while (!candidates.isEmpty()) {
+            long c = candidates.pop();
+            if (results.size() >= ef && distanceOf(c) > distanceOf(results.peek())) break;
+            int[] nb = links[node(c)][level];
+            for (int e : nb) {
+                if (!seen.mark(e)) continue;
+                float d = distance(q, vectors[e]);
+                if (results.size() < ef || d < distanceOf(results.peek())) {
+                    long ke = key(d, e);
+                    candidates.push(ke);
+                    if (!liveOnly || !deleted[e]) {
+                        results.push(ke);
+                        if (results.size() > ef) results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    // 启发式选邻：候选按距离升序，只保留比已选邻居都更靠近新节点的候选，使邻居分布在不同方向；不足时用被跳过的候选补齐
+    private int[] selectNeighbors(long[] sortedAsc, int max) {
+        int[] out = new int[Math.min(max, sortedAsc.length)];
+        int n = 0;
+        boolean[] skipped = new boolean[sortedAsc.length];
+        for (int i = 0; i < sortedAsc.length && n < out.length; i++) {
+            int e = node(sortedAsc[i]);
+            float de = distanceOf(sortedAsc[i]);
+            boolean keep = true;
+            for (int j = 0; j < n; j++) {
+                if (distance(vectors[e], vectors[out[j]]) < de) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) out[n++] = e;
+            else skipped[i] = true;
+        }
+        for (int i = 0; i < sortedAsc.length && n < out.length; i++) {
+            if (skipped[i]) out[n++] = node(sortedAsc[i]);
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    private void connect(int from, int to, int level) {
+        int[] nb = links[from][level];
+        int max = level == 0 ? maxM0 : m;
+        if (nb.length < max) {
+            int[] grown = Arrays.copyOf(nb, nb.length + 1);
+            grown[nb.length] = to;
+            links[from][level] = grown;
+            return;
+        }
+        // 邻居已满时新节点只替换最远的邻居；每次都重新跑启发式选邻在高维下代价过高（每次 O(M²) 次距离计算）
+        float[] v = vectors[from];
+        int farthest = -1;
+        float far = distance(v, vectors[to]);
+        for (int i = 0; i < nb.length; i++) {
+            float d = distance(v, vectors[nb[i]]);
+            if (d > far) {
+                far = d;
+                farthest = i;
+            }
+        }
+        if (farthest >= 0) nb[farthest] = to;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= ids.length) return;
+        int cap = Math.max(n, ids.length + (ids.length >> 1));
+        vectors = Arrays.copyOf(vectors, cap);
+        ids = Arrays.copyOf(ids, cap);
+        links = Arrays.copyOf(links, cap);
+        deleted = Arrays.copyOf(deleted, cap);
+    }
+
+    // 舍入可能使距离略小于 0，截断后才能保证位模式与数值同序
+    private static float distance(float[] a, float[] b) {
+        return Math.max(0f, 1 - DotProduct.dot(a, b, 0, a.length));
+    }
+
+    private static long key(float distance, int node) {
+        return ((long) Float.floatToIntBits(distance) << 32) | (node & 0xFFFFFFFFL);
+    }
+
+    private static int node(long key) {
+        return (int) key;
+    }
+
+    private static float distanceOf(long key) {
+        return Float.intBitsToFloat((int) (key >>> 32));
+    }
+
+    // 快照：整个图按节点顺序写出，加载后无需重新建图。写入期间持读锁，检索不受影响
+    void write(DataOutputStream out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(model);
+            out.writeInt(dimension);
+            out.writeInt(m);
+            out.writeInt(efConstruction);
+            out.writeInt(size);
+            out.writeInt(entry);
+            out.writeInt(maxLevel);
+            out.writeLong(watermark);
+            for (int i = 0; i < size; i++) {
+                out.writeLong(ids[i]);
+                out.writeBoolean(deleted[i]);
+                for (float x : vectors[i]) out.writeFloat(x);
+                out.writeInt(links[i].length);
+                for (int[] nb : links[i]) {
+                    out.writeInt(nb.length);
+                    for (int e : nb) out.writeInt(e);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 快照与当前模型或参数不符时返回 null，由调用方从数据库重建
+    static HnswGraph read(DataInputStream in, String model, int dimension, int m, int efConstruction) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+        HnswGraph g = new HnswGraph(model, dimension, m, efConstruction);
+        if (!in.readUTF().equals(model) || in.readInt() != dimension || in.readInt() != g.m || in.readInt() != g.efConstruction) {
+            return null;
+        }
+        int n = in.readInt();
+        g.ensureCapacity(n);
+        g.entry = in.readInt();
+        g.maxLevel = in.readInt();
+        g.watermark = in.readLong();
+        for (int i = 0; i < n; i++) {
+            g.ids[i] = in.readLong();
+            g.deleted[i] = in.readBoolean();
+            float[] v = new float[dimension];
+            for (int j = 0; j < dimension; j++) v[j] = in.readFloat();
+            g.vectors[i] = v;
+            int levels = in.readInt();
+            g.links[i] = new int[levels][];
+            for (int l = 0; l < levels; l++) {
+                int[] nb = new int[in.readInt()];
+                for (int j = 0; j < nb.length; j++) nb[j] = in.readInt();
+                g.links[i][l] = nb;
+            }
+            if (g.deleted[i]) g.deletedCount++;
+            else g.nodes.put(g.ids[i], i);
+        }
+        g.size = n;
+        return g;
+    }
+
+    // 按轮次标记访问过的节点，避免每次检索分配与图同样大小的数组
+    private static final class Visited {
+        private int[] marks = new int[0];
+        private int epoch;
+
+        void reset(int n) {
+            if (marks.length < n) {
+                marks = new int[Math.max(n, marks.length * 2)];
+                epoch = 0;
+            }
+            if (++epoch == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+        }
+
+        // 首次访问返回 true
+        boolean mark(int node) {
+            if (marks[node] == epoch) return false;
+            marks[node] = epoch;
+            return true;
+        }
+    }
+
+    // long 元素的二叉堆；max 为 true 时堆顶是最大值
+    private static final class LongHeap {
+        private long[] a = new long[32];
+        private int n;
+        private final boolean max;
+
+        LongHeap(boolean max) {
+            this.max = max;
+        }
+
+        boolean isEmpty() {
+            return n == 0;
+        }
+
+        int size() {
+            return n;
+        }
+
+        long peek() {
+            return a[0];
+        }
+
+        void push(long x) {
+            if (n == a.length) a = Arrays.copyOf(a, n * 2);
+            int i = n++;
+            while (i > 0) {
+                int p = (i - 1) >>> 1;
+                if (!before(x, a[p])) break;
+                a[i] = a[p];
+                i = p;
+            }
+            a[i] = x;
+        }
+
+        long pop() {
+            long top = a[0];
+            long x = a[--n];
+            int i = 0;
+            while (true) {
+                int c = 2 * i + 1;
+                if (c >= n) break;
+                if (c + 1 < n && before(a[c + 1], a[c])) c++;
+                if (!before(a[c], x)) break;
+                a[i] = a[c];
+                i = c;
+            }
+            if (n > 0) a[i] = x;
+            return top;
+        }
+
+        long[] drainAscending() {
+            long[] out = Arrays.copyOf(a, n);
+            Arrays.sort(out);
+            n = 0;
+            return out;
+        }
+
+        private boolean before(long x, long y) {
+            return max ? x > y : x < y;
+        }
+    }
+}
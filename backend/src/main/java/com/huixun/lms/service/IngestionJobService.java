@@ -0,0 +1,216 @@
+package com.huixun.lms.service;
+
+import com.huixun.lms.model.IngestionJob;
+import com.huixun.lms.repository.DocumentRepository;
+import com.huixun.lms.repository.IngestionJobRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Service
+public class IngestionJobService {
+
+    public static final String QUEUED = "QUEUED";
+    public static final String RUNNING = "RUNNING";
+    public static final String SUCCEEDED = "SUCCEEDED";
+    public static final String FAILED = "FAILED";
+
+    private static final List<String> ACTIVE = List.of(QUEUED, RUNNING);
+
+    private final IngestionJobRepository jobRepository;
+    private final DocumentRepository documentRepository;
+    private final PdfParseService pdfParseService;
+    private final EmbeddingService embeddingService;
+    private final ProgressPublisher progress;
+    private final int maxQueueDepth;
+    private final int maxAttempts;
+    private final Duration backoffInitial;
+    private final Duration backoffMax;
+    private final Duration staleAfter;
+    private final ExecutorService workers;
+    private final Semaphore slots;
+    private final Set<Long> running = ConcurrentHashMap.newKeySet();
+
+    public IngestionJobService(IngestionJobRepository jobRepository,
+                               DocumentRepository documentRepository,
+                               PdfParseService pdfParseService,
+                               EmbeddingService embeddingService,
+                               ProgressPublisher progress,
+                               @Value("${app.ingest.workers:2}") int workerCount,
+                               @Value("${app.ingest.max-queue-depth:100}") int maxQueueDepth,
+                               @Value("${app.ingest.max-attempts:3}") int maxAttempts,
+                               @Value("${app.ingest.backoff-initial-ms:5000}") long backoffInitialMs,
+                               @Value("${app.ingest.backoff-max-ms:300000}") long backoffMaxMs,
+                               @Value("${app.ingest.stale-after-ms:300000}") long staleAfterMs) {
+        this.jobRepository = jobRepository;
+        this.documentRepository = documentRepository;
+        this.pdfParseService = pdfParseService;
+        this.embeddingService = embeddingService;
+        this.progress = progress;
+        this.maxQueueDepth = maxQueueDepth;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffInitial = Duration.ofMillis(backoffInitialMs);
+        this.backoffMax = Duration.ofMillis(backoffMaxMs);
+        this.staleAfter = Duration.ofMillis(staleAfterMs);
+        int n = Math.max(1, workerCount);
+        AtomicInteger seq = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "ingest-worker-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.slots = new Semaphore(n);
+    }
+
+    public IngestionJob submit(Long documentId) {
+        documentRepository.findById(documentId).orElseThrow();
+        var existing = jobRepository.findFirstByDocumentIdAndStatusInOrderByIdDesc(documentId, ACTIVE);
+        if (existing.isPresent()) return existing.get();
+        if (jobRepository.countByStatusIn(ACTIVE) >= maxQueueDepth) {
+            throw new QueueFullException("解析队列已满，请稍后重试");
+        }
+        IngestionJob job = new IngestionJob();
+        job.setDocumentId(documentId);
+        job.setStatus(QUEUED);
+        job.setMaxAttempts(maxAttempts);
+        job.setNextRunAt(Instant.now());
+        job = jobRepository.save(job);
+        dispatch();
+        return job;
+    }
+
+    public java.util.Optional<IngestionJob> find(Long jobId) {
+        return jobRepository.findById(jobId);
+    }
+
+    public boolean hasActiveJob(Long documentId) {
+        return jobRepository.findFirstByDocumentIdAndStatusInOrderByIdDesc(documentId, ACTIVE).isPresent();
+    }
+
+    public long queueDepth() {
+        return jobRepository.countByStatusIn(ACTIVE);
+    }
+
+    @Scheduled(fixedDelayString = "${app.ingest.heartbeat-interval-ms:60000}")
+    public void heartbeat() {
+        if (running.isEmpty()) return;
+        jobRepository.heartbeat(List.copyOf(running), Instant.now());
+    }
+
+    @Scheduled(fixedDelayString = "${app.ingest.poll-interval-ms:1000}")
+    public synchronized void dispatch() {
+        if (workers.isShutdown()) return;
+        Instant now = Instant.now();
+        jobRepository.requeueStale(now.minus(staleAfter), now);
+        int free = slots.availablePermits();
+        if (free <= 0) return;
+        List<IngestionJob> due = jobRepository.findByStatusAndNextRunAtLessThanEqualOrderByNextRunAtAsc(QUEUED, now, PageRequest.of(0, free));
+        for (IngestionJob job : due) {
+            if (!slots.tryAcquire()) break;
+            if (jobRepository.claim(job.getId(), now) == 0) {
+                slots.release();
+                continue;
+            }
+            Long jobId = job.getId();
+            running.add(jobId);
+            workers.execute(() -> {
+                try {
+                    run(jobId);
+                } finally {
+                    running.remove(jobId);
+                    slots.release();
+                }
+            });
+        }
+    }
+
+    private void run(Long jobId) {
+        IngestionJob job = jobRepository.findById(jobId).orElse(null);
+        if (job == null) return;
+        try {
+            pdfParseService.parse(job.getDocumentId());
+            embeddingService.embedDocument(job.getDocumentId());
+            job.setStatus(SUCCEEDED);
+            job.setErrorMessage(null);
+            job.setFinishedAt(Instant.now());
+        } catch (ParseAdmission.AdmissionRejectedException e) {
+            // 解析内存预算已满属于背压而非失败：不计入重试次数，文档保持排队状态，稍后重新领取
+            job.setAttempts(Math.max(0, job.getAttempts() - 1));
+            job.setStatus(QUEUED);
+            job.setErrorMessage(truncate(e.getMessage()));
+            job.setNextRunAt(Instant.now().plus(backoffInitial));
+        } catch (NoSuchElementException e) {
+            job.setStatus(FAILED);
+            job.setErrorMessage("文档不存在或已删除");
+            job.setFinishedAt(Instant.now());
+            progress.stage(job.getDocumentId(), "FAILED", job.getErrorMessage());
+        } catch (Exception e) {
+            String msg = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            job.setErrorMessage(truncate(msg));
+            if (job.getAttempts() < job.getMaxAttempts()) {
+                job.setStatus(QUEUED);
+                job.setNextRunAt(Instant.now().plus(backoff(job.getAttempts())));
+                // 等待重试期间文档回到排队状态，避免前端把可恢复的失败当作终态
+                documentRepository.findById(job.getDocumentId()).ifPresent(d -> {
+                    d.setStatus("UPLOADED");
+                    d.setErrorMessage(truncate("第" + job.getAttempts() + "次处理失败，稍后自动重试：" + msg));
+                    documentRepository.save(d);
+                    progress.stage(d.getId(), "UPLOADED", d.getErrorMessage());
+                });
+            } else {
+                job.setStatus(FAILED);
+                job.setFinishedAt(Instant.now());
+                // 失败终态只在不再重试时推送，订阅方收到后即结束
+                progress.stage(job.getDocumentId(), "FAILED", truncate(msg));
+            }
+        }
+        job.setUpdatedAt(Instant.now());
+        jobRepository.save(job);
+    }
+
+    private Duration backoff(int attempts) {
+        int shift = Math.min(20, Math.max(0, attempts - 1));
+        Duration d = backoffInitial.multipliedBy(1L << shift);
+        return d.compareTo(backoffMax) > 0 ? backoffMax : d;
+    }
+
+    private String truncate(String s) {
+        return s != null && s.length() > 2000 ? s.substring(0, 2000) : s;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        workers.shutdown();
+        if (!workers.awaitTermination(10, TimeUnit.SECONDS)) workers.shutdownNow();
+        // 未完成的任务立即放回队列，重启后无需等待 stale-after 超时
+        Instant now = Instant.now();
+        for (Long id : running) {
+            jobRepository.findById(id).ifPresent(j -> {
+                if (RUNNING.equals(j.getStatus())) {
+                    j.setStatus(QUEUED);
+                    j.setNextRunAt(now);
+                    j.setUpdatedAt(now);
+                    jobRepository.save(j);
+                }
+            });
+        }
+    }
+
+    public static class QueueFullException extends RuntimeException {
+        public QueueFullException(String message) { super(message); }
+    }
+}
@@ -0,0 +1,285 @@
+package com.huixun.lms.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// 片段文本的倒排索引，BM25 打分。不依赖分词词典：连续汉字切成单字与相邻两字（bigram），连续的字母数字作为一个词（转小写）；
+// 查询中两个字以上的汉字串只用 bigram，命中更准。postings 按内部文档号递增追加，每项高 24 位为文档号、低 8 位为词频（封顶 255）。
+// 删除与替换只打标记，标记过多时由调用方重建
+final class InvertedIndex {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int MAX_DOCS = 1 << 24;
+
+    private final Map<String, Postings> terms = new HashMap<>();
+    private final Map<Long, Integer> docs = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long[] ids = new long[1024];
+    private long[] documentIds = new long[1024];
+    // 文档长度（词数）；已删除为 -1
+    private int[] lengths = new int[1024];
+    private int[] hashes = new int[1024];
+    private int size;
+    private int deletedCount;
+    private long totalLength;
+    private volatile long watermark;
+
+    long watermark() {
+        return watermark;
+    }
+
+    void watermark(long id) {
+        watermark = id;
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int deletedCount() {
+        lock.readLock().lock();
+        try {
+            return deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean isFull() {
+        return size() >= MAX_DOCS;
+    }
+
+    long[] liveIds() {
+        lock.readLock().lock();
+        try {
+            long[] out = new long[docs.size()];
+            int i = 0;
+            for (Long id : docs.keySet()) out[i++] = id;
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 加入或替换一个片段；文本不变时不做任何事
+    void add(long id, long documentId, String text) {
+        String t = text == null ? "" : text;
+        Map<String, Integer> tf = new HashMap<>();
+        for (String term : tokens(t, false)) tf.merge(term, 1, Integer::sum);
+        lock.writeLock().lock();
+        try {
+            Integer old = docs.get(id);
+            if (old != null) {
+                if (hashes[old] == t.hashCode() && documentIds[old] == documentId) return;
+                markDeleted(old);
+            }
+            if (size >= MAX_DOCS) return;
+            int doc = size++;
+            ensureCapacity(size);
+            ids[doc] = id;
+            documentIds[doc] = documentId;
+            hashes[doc] = t.hashCode();
+            int len = 0;
+            for (Map.Entry<String, Integer> e : tf.entrySet()) {
+                terms.computeIfAbsent(e.getKey(), k -> new Postings()).add((doc << 8) | Math.min(255, e.getValue()));
+                len += e.getValue();
+            }
+            lengths[doc] = len;
+            totalLength += len;
+            docs.put(id, doc);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            Integer doc = docs.get(id);
+            if (doc != null) markDeleted(doc);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // BM25 最高的 n 个片段；documents / among 不为 null 时只在这些文档 / 片段中取
+    List<Hit> search(String query, int n, Collection<Long> documents, Collection<Long> among) {
+        Set<String> q = new LinkedHashSet<>(tokens(query, true));
+        if (q.isEmpty() || n <= 0) return List.of();
+        Set<Long> inDocuments = documents == null ? null : Set.copyOf(documents);
+        Set<Long> inAmong = among == null ? null : Set.copyOf(among);
+        lock.readLock().lock();
+        try {
+            int live = size - deletedCount;
+            if (live == 0) return List.of();
+            float avg = (float) totalLength / live;
+            float[] acc = new float[size];
+            int[] touched = new int[64];
+            int touchedCount = 0;
+            for (String term : q) {
+                Postings p = terms.get(term);
+                if (p == null) continue;
+                // df 含已删除的文档，删除比例受重建限制，误差可以忽略
+                float idf = Math.max(1e-3f, (float) Math.log(1 + (live - p.n + 0.5) / (p.n + 0.5)));
+                for (int i = 0; i < p.n; i++) {
+                    int doc = p.a[i] >>> 8;
+                    int tf = p.a[i] & 0xFF;
+                    int len = lengths[doc];
+                    if (len < 0) continue;
+                    if (inDocuments != null && !inDocuments.contains(documentIds[doc])) continue;
+                    if (inAmong != null && !inAmong.contains(ids[doc])) continue;
+                    if (acc[doc] == 0) {
+                        if (touchedCount == touched.length) touched = Arrays.copyOf(touched, touchedCount * 2);
+                        touched[touchedCount++] = doc;
+                    }
+                    acc[doc] += idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * len / avg));
+                }
+            }
+            // 分数均为正，按位模式倒序即按分数从高到低，同分按文档号
+            long[] keys = new long[touchedCount];
+            for (int i = 0; i < touchedCount; i++) {
+                int doc = touched[i];
+                keys[i] = (long) (Integer.MAX_VALUE - Float.floatToIntBits(acc[doc])) << 32 | doc;
+            }
+            Arrays.sort(keys);
+            List<Hit> hits = new ArrayList<>(Math.min(n, touchedCount));
+            for (int i = 0; i < Math.min(n, touchedCount); i++) {
+                int doc = (int) keys[i];
+                hits.add(new Hit(ids[doc], acc[doc]));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 包含关键词全部词项的片段 id（多字关键词按 bigram 求交，可能把字序不同的片段也算进来）；documents 不为 null 时只在这些文档中取
+    long[] containing(String keyword, Collection<Long> documents) {
+        Set<String> q = new LinkedHashSet<>(tokens(keyword, true));
+        if (q.isEmpty()) return new long[0];
+        Set<Long> inDocuments = documents == null ? null : Set.copyOf(documents);
+        lock.readLock().lock();
+        try {
+            List<Postings> lists = new ArrayList<>(q.size());
+            for (String term : q) {
+                Postings p = terms.get(term);
+                if (p == null) return new long[0];
+                lists.add(p);
+            }
+            lists.sort((x, y) -> Integer.compare(x.n, y.n));
+            Postings first = lists.get(0);
+            long[] out = new long[first.n];
+            int n = 0;
+            for (int i = 0; i < first.n; i++) {
+                int doc = first.a[i] >>> 8;
+                if (lengths[doc] < 0 || (inDocuments != null && !inDocuments.contains(documentIds[doc]))) continue;
+                boolean all = true;
+                for (int j = 1; j < lists.size() && all; j++) all = lists.get(j).contains(doc);
+                if (all) out[n++] = ids[doc];
+            }
+            return Arrays.copyOf(out, n);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    static List<String> tokens(String text, boolean query) {
+        List<String> out = new ArrayList<>();
+        if (text == null) return out;
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            int c = text.codePointAt(i);
+            if (isHan(c)) {
+                int start = i;
+                while (i < n && isHan(text.codePointAt(i))) i += Character.charCount(text.codePointAt(i));
+                han(text.substring(start, i), query, out);
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < n) {
+                    int d = text.codePointAt(i);
+                    if (isHan(d) || !Character.isLetterOrDigit(d)) break;
+                    i += Character.charCount(d);
+                }
+                out.add(text.substring(start, i).toLowerCase());
+            } else {
+                i += Character.charCount(c);
+            }
+        }
+        return out;
+    }
+
+    private static void han(String run, boolean query, List<String> out) {
+        int[] cps = run.codePoints().toArray();
+        if (cps.length == 1 || !query) {
+            for (int cp : cps) out.add(new String(Character.toChars(cp)));
+        }
+        for (int j = 0; j + 1 < cps.length; j++) out.add(new String(cps, j, 2));
+    }
+
+    private static boolean isHan(int c) {
+        return Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN;
+    }
+
+    private void markDeleted(int doc) {
+        docs.remove(ids[doc]);
+        totalLength -= lengths[doc];
+        lengths[doc] = -1;
+        deletedCount++;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= ids.length) return;
+        int cap = Math.max(n, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, cap);
+        documentIds = Arrays.copyOf(documentIds, cap);
+        lengths = Arrays.copyOf(lengths, cap);
+        hashes = Arrays.copyOf(hashes, cap);
+    }
+
+    static final class Hit {
+        final long id;
+        final double score;
+
+        Hit(long id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+    private static final class Postings {
+        private int[] a = new int[4];
+        private int n;
+
+        void add(int x) {
+            if (n == a.length) a = Arrays.copyOf(a, n * 2);
+            a[n++] = x;
+        }
+
+        // 按文档号二分查找
+        boolean contains(int doc) {
+            int lo = 0, hi = n - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int d = a[mid] >>> 8;
+                if (d < doc) lo = mid + 1;
+                else if (d > doc) hi = mid - 1;
+                else return true;
+            }
+            return false;
+        }
+    }
+}
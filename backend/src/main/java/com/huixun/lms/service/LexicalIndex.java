@@ -0,0 +1,178 @@
+package com.huixun.lms.service;
+
+import com.huixun.lms.model.ContentFragment;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// 片段文本与 keywords 的内存倒排索引（InvertedIndex），用于混合检索的词项召回与按关键词过滤。启动时在后台从库中读入全部片段文本，
+// 加载完成前 search / containing 返回 null，调用方只用向量检索或退回 LIKE。之后的变化与 MemoryVectorIndex 一样分三路跟上：
+// FragmentWriter 写入后推送、检索前按 id 游标补读（秒传复制等直接写库的片段）、定时核对删除的片段，已删除过多时重建
+@Component
+public class LexicalIndex {
+
+    private static final int CHUNK = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SearchCache searchCache;
+    private final boolean enabled;
+    private final long syncIntervalMs;
+    private volatile InvertedIndex index;
+    private volatile long lastSync;
+    private final AtomicBoolean building = new AtomicBoolean();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "lexical-index");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public LexicalIndex(JdbcTemplate jdbcTemplate,
+                        SearchCache searchCache,
+                        @Value("${app.search.lexical.enabled:true}") boolean enabled,
+                        @Value("${app.search.lexical.sync-interval-ms:1000}") long syncIntervalMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.searchCache = searchCache;
+        this.enabled = enabled;
+        this.syncIntervalMs = syncIntervalMs;
+    }
+
+    public boolean isReady() {
+        return index != null;
+    }
+
+    // BM25 最高的 n 个片段；documents / among 不为 null 时只在其中取。索引未就绪时返回 null
+    public List<InvertedIndex.Hit> search(String query, int n, Collection<Long> documents, Collection<Long> among) {
+        InvertedIndex x = current();
+        return x == null ? null : x.search(query, n, documents, among);
+    }
+
+    // 文本或 keywords 包含关键词全部词项的片段 id，经 postings 求交得到，不扫描片段。索引未就绪时返回 null
+    public long[] containing(String keyword, Collection<Long> documents) {
+        InvertedIndex x = current();
+        return x == null ? null : x.containing(keyword, documents);
+    }
+
+    // FragmentWriter 写入后调用（新增片段此时已有 id）；索引未加载时忽略。在事务内调用时提交后才交给 worker：
+    // 回滚的删除若已应用，postings 再也补不回来（syncTail 只读游标之后的片段）；回滚的插入则会留下不存在的 id
+    public void changed(List<ContentFragment> upserts, List<ContentFragment> removed) {
+        List<ContentFragment> us = new ArrayList<>(upserts);
+        List<ContentFragment> rs = new ArrayList<>(removed);
+        AfterCommit.run(() -> apply(us, rs));
+    }
+
+    private void apply(List<ContentFragment> us, List<ContentFragment> rs) {
+        InvertedIndex x = index;
+        if (x == null || worker.isShutdown()) return;
+        worker.execute(() -> {
+            Set<Long> documents = new HashSet<>();
+            for (ContentFragment f : rs) {
+                x.remove(f.getId());
+                documents.add(f.getDocumentId());
+            }
+            for (ContentFragment f : us) {
+                if (f.getId() == null) continue;
+                x.add(f.getId(), f.getDocumentId(), indexed(f.getText(), f.getKeywords()));
+                documents.add(f.getDocumentId());
+            }
+            searchCache.indexed(documents);
+        });
+    }
+
+    // 启动后加载；之后按间隔核对
+    @Scheduled(fixedDelayString = "${app.search.lexical.reconcile-interval-ms:600000}")
+    public void maintain() {
+        if (!enabled) return;
+        if (index == null) {
+            start();
+            return;
+        }
+        if (worker.isShutdown()) return;
+        worker.execute(() -> {
+            InvertedIndex x = index;
+            if (x == null) return;
+            reconcile(x);
+            // 已删除的片段仍占着 postings，超过两成时重建
+            if (x.deletedCount() > x.size() / 5) index = build();
+        });
+    }
+
+    private InvertedIndex current() {
+        if (!enabled) return null;
+        InvertedIndex x = index;
+        if (x == null) {
+            start();
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastSync >= syncIntervalMs) {
+            lastSync = now;
+            // 加载完成前检索不读索引，只有增量补读需要使缓存失效
+            searchCache.indexed(syncTail(x));
+        }
+        return x;
+    }
+
+    private void start() {
+        if (worker.isShutdown() || !building.compareAndSet(false, true)) return;
+        worker.execute(() -> {
+            try {
+                if (index == null) index = build();
+            } finally {
+                building.set(false);
+            }
+        });
+    }
+
+    private InvertedIndex build() {
+        InvertedIndex x = new InvertedIndex();
+        syncTail(x);
+        return x;
+    }
+
+    // 返回补读到的片段所属文档
+    private Set<Long> syncTail(InvertedIndex x) {
+        Set<Long> documents = new HashSet<>();
+        synchronized (x) {
+            while (!x.isFull()) {
+                List<Object[]> rows = jdbcTemplate.query(
+                        "SELECT id, document_id, text, keywords FROM content_fragments WHERE id > ? ORDER BY id LIMIT ?",
+                        (rs, rowNum) -> new Object[]{rs.getLong(1), rs.getLong(2), indexed(rs.getString(3), rs.getString(4))},
+                        x.watermark(), CHUNK);
+                for (Object[] row : rows) {
+                    x.add((Long) row[0], (Long) row[1], (String) row[2]);
+                    x.watermark((Long) row[0]);
+                    documents.add((Long) row[1]);
+                }
+                if (rows.size() < CHUNK) break;
+            }
+        }
+        return documents;
+    }
+
+    private static String indexed(String text, String keywords) {
+        return keywords == null || keywords.isBlank() ? text : text + "\n" + keywords;
+    }
+
+    private void reconcile(InvertedIndex x) {
+        Set<Long> present = new HashSet<>(jdbcTemplate.queryForList("SELECT id FROM content_fragments", Long.class));
+        for (long id : x.liveIds()) {
+            if (!present.contains(id)) x.remove(id);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+}
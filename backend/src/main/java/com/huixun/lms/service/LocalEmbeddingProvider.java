@@ -0,0 +1,129 @@
+package com.huixun.lms.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// 进程内嵌入：字符 n-gram 特征哈希到固定维度，不依赖网络与语料统计，同一文本始终得到同一向量。
+// 中文按单字与相邻二字组取特征，拉丁字母/数字按整词与带边界的字符三元组取特征；
+// 各类特征的权重是固定的 IDF 先验（二字组 > 单字，高频虚词接近 0），桶值取带符号平方根作为次线性 TF，最后做 L2 归一化
+@Component
+public class LocalEmbeddingProvider implements EmbeddingProvider {
+
+    // 特征或权重变化时须改版本号，旧版本的向量与新版本不可混用
+    public static final String MODEL_PREFIX = "local:ngram-v1:";
+
+    private static final float[] EMPTY = new float[0];
+    private static final String STOP_CHARS = "的了是在和与及或也就都而且但被把对从以为之其这那有个们中上下不一着过来去得地所";
+    private static final boolean[] STOP = new boolean[0x10000];
+
+    static {
+        for (int i = 0; i < STOP_CHARS.length(); i++) STOP[STOP_CHARS.charAt(i)] = true;
+    }
+
+    // 不同特征类型用不同种子，避免 "ab" 的二字组与词 "ab" 落在同一个桶
+    private static final int SEED_UNIGRAM = 0x9E3779B1;
+    private static final int SEED_BIGRAM = 0x85EBCA77;
+    private static final int SEED_WORD = 0xC2B2AE3D;
+    private static final int SEED_TRIGRAM = 0x27D4EB2F;
+
+    private static final float W_UNIGRAM = 0.5f;
+    private static final float W_STOP = 0.05f;
+    private static final float W_BIGRAM = 1.0f;
+    private static final float W_STOP_BIGRAM = 0.4f;
+    private static final float W_WORD = 1.0f;
+    private static final float W_TRIGRAM = 0.4f;
+
+    private final int dimension;
+
+    public LocalEmbeddingProvider(@Value("${app.embedding.local.dimension:1536}") int dimension) {
+        if (dimension < 8) throw new IllegalArgumentException("app.embedding.local.dimension 过小：" + dimension);
+        this.dimension = dimension;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public String modelId() {
+        return MODEL_PREFIX + dimension;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        if (text == null || text.isBlank()) return EMPTY;
+        float[] v = new float[dimension];
+        int n = text.length();
+        // 上一个汉字；空白不打断二字组（PDF 换行常把词拆开），标点与字母数字会打断
+        int prev = -1;
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+            if (isCjk(c)) {
+                add(v, mix(SEED_UNIGRAM, c), STOP[c] ? W_STOP : W_UNIGRAM);
+                if (prev >= 0) add(v, mix(mix(SEED_BIGRAM, prev), c), STOP[c] || STOP[prev] ? W_STOP_BIGRAM : W_BIGRAM);
+                prev = c;
+                i++;
+            } else if (isWordChar(c)) {
+                prev = -1;
+                int start = i;
+                int h = SEED_WORD;
+                while (i < n && isWordChar(text.charAt(i))) h = mix(h, Character.toLowerCase(text.charAt(i++)));
+                add(v, h, W_WORD);
+                int len = i - start;
+                if (len >= 3) {
+                    // "^" 与 "$" 标记词首词尾，缓解词形变化与拼写差异
+                    for (int j = start - 1; j < i - 1; j++) {
+                        int t = mix(SEED_TRIGRAM, j < start ? '^' : Character.toLowerCase(text.charAt(j)));
+                        t = mix(t, Character.toLowerCase(text.charAt(j + 1)));
+                        t = mix(t, j + 2 < i ? Character.toLowerCase(text.charAt(j + 2)) : '$');
+                        add(v, t, W_TRIGRAM);
+                    }
+                }
+            } else {
+                if (!Character.isWhitespace(c)) prev = -1;
+                i++;
+            }
+        }
+        double norm = 0;
+        for (int k = 0; k < dimension; k++) {
+            float x = v[k];
+            if (x == 0) continue;
+            float y = x > 0 ? (float) Math.sqrt(x) : -(float) Math.sqrt(-x);
+            v[k] = y;
+            norm += (double) y * y;
+        }
+        if (norm == 0) return EMPTY;
+        float inv = (float) (1.0 / Math.sqrt(norm));
+        for (int k = 0; k < dimension; k++) v[k] *= inv;
+        return v;
+    }
+
+    // 带符号的特征哈希：最低位决定正负，使不同特征的碰撞在期望上相互抵消
+    private void add(float[] v, int h, float w) {
+        h = finish(h);
+        int idx = (h >>> 1) % dimension;
+        v[idx] += (h & 1) == 0 ? w : -w;
+    }
+
+    private static int mix(int h, int c) {
+        return (h ^ c) * 0x01000193;
+    }
+
+    private static int finish(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static boolean isCjk(char c) {
+        return (c >= 0x4E00 && c <= 0x9FFF) || (c >= 0x3400 && c <= 0x4DBF) || (c >= 0xF900 && c <= 0xFAFF)
+                || (c >= 0x3040 && c <= 0x30FF) || (c >= 0xAC00 && c <= 0xD7AF);
+    }
+
+    private static boolean isWordChar(char c) {
+        return c < 0x3000 && Character.isLetterOrDigit(c);
+    }
+}
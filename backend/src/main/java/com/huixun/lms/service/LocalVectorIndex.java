@@ -0,0 +1,58 @@
+package com.huixun.lms.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// MemoryVectorIndex 使用的进程内索引：FlatVectorIndex 精确扫描，HnswGraph 近似检索。
+// 向量入索引前归一化，得分为余弦相似度；删除只打标记，由调用方按 deletedCount 决定何时重建
+interface LocalVectorIndex {
+
+    String model();
+
+    int dimension();
+
+    // 已读入的片段 id 上限，由 MemoryVectorIndex 维护，随快照保存
+    long watermark();
+
+    void watermark(long id);
+
+    // 条目数（含已删除）
+    int size();
+
+    int deletedCount();
+
+    boolean contains(long id);
+
+    // 索引中该片段的向量与给定向量相同（比较归一化后的值）
+    boolean matches(long id, float[] vector);
+
+    long[] liveIds();
+
+    // 加入或替换一个向量；向量不变时不做任何事。维度不符或零向量时返回 false
+    boolean add(long id, float[] vector);
+
+    void remove(long id);
+
+    // 最近的 k 个未删除条目，按相似度降序；ef 只对近似索引有效
+    List<Hit> search(float[] query, int k, int ef);
+
+    // 一批查询各自最近的 k 个，与逐个调用 search 的结果相同；精确扫描的实现让各查询共用一遍矩阵扫描
+    default List<List<Hit>> search(float[][] queries, int k, int ef) {
+        List<List<Hit>> out = new ArrayList<>(queries.length);
+        for (float[] q : queries) out.add(search(q, k, ef));
+        return out;
+    }
+
+    // 只在给定片段中精确计算最近的 k 个，用于按文档等范围过滤的检索；索引中没有的 id 跳过
+    List<Hit> search(float[] query, int k, long[] among);
+
+    final class Hit {
+        final long id;
+        final double score;
+
+        Hit(long id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+}
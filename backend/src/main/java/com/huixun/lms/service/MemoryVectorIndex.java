@@ -0,0 +1,355 @@
+package com.huixun.lms.service;
+
+import com.huixun.lms.model.ContentFragment;
+import com.huixun.lms.model.EmbeddingModel;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// 向量列不可用时检索用的进程内索引，数据来自 embedding_json。片段数不超过 exact-max-rows 时用 FlatVectorIndex 精确扫描
+// （矩阵文件即快照），超过后用 HnswGraph 近似检索；type 可固定为 exact 或 hnsw。
+// 未启用 pgvector 时启动即在后台加载（先读磁盘快照，再从库中补齐），启用 pgvector 时在检索第一次回退到内存时才加载；
+// 加载完成前检索仍走全量计算。之后的变化分三路跟上：
+// - VectorStore 写入生效模型的向量后推送过来，在后台线程插入；
+// - 检索前按 id 游标补读新插入且已带向量的片段（复用向量的新版本、秒传复制），最多每 sync-interval-ms 一次；
+// - 定时全量核对：移除已删除的片段、补齐遗漏的片段，已删除节点过多时重建，并写出快照
+@Component
+public class MemoryVectorIndex {
+
+    private static final int CHUNK = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EmbeddingModelRegistry models;
+    private final SearchCache searchCache;
+    private final boolean enabled;
+    private final boolean vectorEnabled;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final String type;
+    private final int exactMaxRows;
+    private final Path snapshot;
+    private final Path matrix;
+    private final int scanThreads;
+    private final long syncIntervalMs;
+    private volatile LocalVectorIndex graph;
+    private volatile long lastSync;
+    private volatile boolean dirty;
+    private final AtomicBoolean building = new AtomicBoolean();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "memory-vector-index");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService scanPool;
+
+    public MemoryVectorIndex(JdbcTemplate jdbcTemplate,
+                             EmbeddingModelRegistry models,
+                             SearchCache searchCache,
+                             @Value("${app.vector.memory-index.enabled:true}") boolean enabled,
+                             @Value("${app.vector.enabled:true}") boolean vectorEnabled,
+                             @Value("${app.vector.memory-index.m:16}") int m,
+                             @Value("${app.vector.memory-index.ef-construction:100}") int efConstruction,
+                             @Value("${app.vector.memory-index.ef-search:64}") int efSearch,
+                             @Value("${app.vector.memory-index.type:auto}") String type,
+                             @Value("${app.vector.memory-index.exact-max-rows:500000}") int exactMaxRows,
+                             @Value("${app.vector.memory-index.snapshot-path:storage/index/hnsw.bin}") String snapshot,
+                             @Value("${app.vector.memory-index.matrix-path:storage/index/vectors}") String matrix,
+                             @Value("${app.vector.memory-index.scan-threads:0}") int scanThreads,
+                             @Value("${app.vector.memory-index.sync-interval-ms:1000}") long syncIntervalMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.models = models;
+        this.searchCache = searchCache;
+        this.enabled = enabled;
+        this.vectorEnabled = vectorEnabled;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.type = type;
+        this.exactMaxRows = exactMaxRows;
+        this.snapshot = Paths.get(snapshot);
+        this.matrix = Paths.get(matrix);
+        this.scanThreads = scanThreads > 0 ? scanThreads : Runtime.getRuntime().availableProcessors();
+        this.syncIntervalMs = syncIntervalMs;
+        this.scanPool = Executors.newFixedThreadPool(this.scanThreads, r -> {
+            Thread t = new Thread(r, "memory-vector-scan");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // 索引可用时返回最近的 k 个片段 id 与余弦相似度，否则返回 null 并在后台开始加载，调用方改走全量计算。
+    // ef 为 null 时用配置值，越大召回越高；精确扫描时不起作用
+    public List<LocalVectorIndex.Hit> search(float[] q, int k, Integer ef) {
+        LocalVectorIndex g = current(q);
+        return g == null ? null : g.search(q, k, ef != null ? ef : efSearch);
+    }
+
+    // 一批同一模型的查询，语义同上；精确扫描时各查询共用一遍扫描
+    public List<List<LocalVectorIndex.Hit>> search(float[][] qs, int k, Integer ef) {
+        LocalVectorIndex g = qs.length == 0 ? null : current(qs[0]);
+        return g == null ? null : g.search(qs, k, ef != null ? ef : efSearch);
+    }
+
+    // 只在给定片段中精确计算，调用方先按范围（文档等）查出 id
+    public List<LocalVectorIndex.Hit> search(float[] q, int k, long[] among) {
+        LocalVectorIndex g = current(q);
+        return g == null ? null : g.search(q, k, among);
+    }
+
+    private LocalVectorIndex current(float[] q) {
+        if (!enabled) return null;
+        LocalVectorIndex g = graph;
+        EmbeddingModel active = models.active();
+        if (g == null || !g.model().equals(active.getName())) {
+            // 首次使用，或模型已切换（embedding_json 已换成新模型的向量）
+            start();
+            return null;
+        }
+        if (q.length != g.dimension()) return null;
+        long now = System.currentTimeMillis();
+        if (now - lastSync >= syncIntervalMs) {
+            lastSync = now;
+            // 加载完成前检索走全量计算，只有增量补读需要使缓存失效
+            searchCache.indexed(syncTail(g));
+        }
+        return g;
+    }
+
+    public boolean isReady() {
+        LocalVectorIndex g = graph;
+        return g != null && g.model().equals(models.active().getName());
+    }
+
+    // VectorStore 写入生效模型的向量后调用；索引尚未加载或属于其他模型时忽略，由加载或核对补齐
+    public void added(String model, List<ContentFragment> fragments, List<float[]> vectors) {
+        LocalVectorIndex g = graph;
+        if (g == null || !g.model().equals(model) || worker.isShutdown()) return;
+        List<ContentFragment> fs = new ArrayList<>(fragments);
+        List<float[]> vs = new ArrayList<>(vectors);
+        worker.execute(() -> {
+            Set<Long> documents = new HashSet<>();
+            for (int i = 0; i < fs.size(); i++) {
+                g.add(fs.get(i).getId(), vs.get(i));
+                documents.add(fs.get(i).getDocumentId());
+            }
+            dirty = true;
+            searchCache.indexed(documents);
+        });
+    }
+
+    // 片段删除后调用（重新解析移除的片段、删除文档）。在事务内调用时提交后才移除；
+    // 不推送的话已删除的片段会占着 top-k 的名额，直到下次核对
+    public void removed(List<ContentFragment> fragments) {
+        if (fragments.isEmpty()) return;
+        List<ContentFragment> fs = new ArrayList<>(fragments);
+        AfterCommit.run(() -> {
+            LocalVectorIndex g = graph;
+            if (g == null || worker.isShutdown()) return;
+            worker.execute(() -> {
+                Set<Long> documents = new HashSet<>();
+                for (ContentFragment f : fs) {
+                    if (f.getId() == null || !g.contains(f.getId())) continue;
+                    g.remove(f.getId());
+                    documents.add(f.getDocumentId());
+                }
+                if (!documents.isEmpty()) dirty = true;
+                searchCache.indexed(documents);
+            });
+        });
+    }
+
+    // 未启用 pgvector 时随启动加载；之后按间隔核对并写快照
+    @Scheduled(fixedDelayString = "${app.vector.memory-index.reconcile-interval-ms:600000}")
+    public void maintain() {
+        if (!enabled) return;
+        if (graph == null) {
+            if (!vectorEnabled) start();
+            return;
+        }
+        if (worker.isShutdown()) return;
+        worker.execute(() -> {
+            LocalVectorIndex g = graph;
+            if (g == null || !g.model().equals(models.active().getName())) return;
+            reconcile(g);
+            // 已删除条目超过两成时检索要绕过大量无效条目，重新构建；片段数越过 exact-max-rows 时换用另一种索引
+            if (g.deletedCount() > g.size() / 5 || exact(g.size() - g.deletedCount()) != (g instanceof FlatVectorIndex)) {
+                graph = build(g.model(), g.dimension(), false);
+                close(g);
+                dirty = true;
+            }
+            if (dirty) save(graph);
+        });
+    }
+
+    private void start() {
+        if (worker.isShutdown() || !building.compareAndSet(false, true)) return;
+        worker.execute(() -> {
+            try {
+                EmbeddingModel active = models.active();
+                LocalVectorIndex g = graph;
+                if (g != null && g.model().equals(active.getName())) return;
+                graph = build(active.getName(), active.getDimension(), true);
+                close(g);
+            } finally {
+                building.set(false);
+            }
+        });
+    }
+
+    private LocalVectorIndex build(String model, int dimension, boolean fromSnapshot) {
+        Long rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM content_fragments WHERE embedding_json IS NOT NULL", Long.class);
+        boolean exact = exact(rows == null ? 0 : rows);
+        LocalVectorIndex g = fromSnapshot ? load(model, dimension, exact) : null;
+        boolean loaded = g != null;
+        if (g == null && exact) {
+            try {
+                g = FlatVectorIndex.create(matrix, model, dimension, scanPool, scanThreads);
+            } catch (IOException ignored) {
+                // 矩阵文件无法创建时改用堆内的 HNSW
+            }
+        }
+        if (g == null) g = new HnswGraph(model, dimension, m, efConstruction);
+        syncTail(g);
+        // 快照之后才写入向量的旧片段与快照之后删除的片段，只有核对能发现
+        if (loaded) reconcile(g);
+        dirty = !loaded;
+        return g;
+    }
+
+    // 按图上记录的 id 游标补读已带向量的片段；图中已有的片段不再解析
+    private boolean exact(long rows) {
+        return switch (type) {
+            case "exact" -> true;
+            case "hnsw" -> false;
+            default -> rows <= exactMaxRows;
+        };
+    }
+
+    // 返回补读到的片段所属文档
+    private Set<Long> syncTail(LocalVectorIndex g) {
+        Set<Long> documents = new HashSet<>();
+        synchronized (g) {
+            while (true) {
+                List<Object[]> rows = jdbcTemplate.query(
+                        "SELECT id, embedding_json, document_id FROM content_fragments WHERE id > ? AND embedding_json IS NOT NULL ORDER BY id LIMIT ?",
+                        (rs, rowNum) -> new Object[]{rs.getLong(1), rs.getString(2), rs.getLong(3)}, g.watermark(), CHUNK);
+                for (Object[] row : rows) {
+                    long id = (Long) row[0];
+                    if (!g.contains(id)) {
+                        g.add(id, VectorCodec.parse((String) row[1]));
+                        documents.add((Long) row[2]);
+                    }
+                    g.watermark(id);
+                }
+                if (!rows.isEmpty()) dirty = true;
+                if (rows.size() < CHUNK) break;
+            }
+        }
+        return documents;
+    }
+
+    private void reconcile(LocalVectorIndex g) {
+        Set<Long> present = new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT id FROM content_fragments WHERE embedding_json IS NOT NULL", Long.class));
+        for (long id : g.liveIds()) {
+            if (!present.remove(id)) {
+                g.remove(id);
+                dirty = true;
+            }
+        }
+        // 剩下的是图中没有的片段
+        List<Long> missing = new ArrayList<>(present);
+        for (int from = 0; from < missing.size(); from += CHUNK) {
+            List<Long> chunk = missing.subList(from, Math.min(missing.size(), from + CHUNK));
+            String in = String.join(",", chunk.stream().map(String::valueOf).toList());
+            jdbcTemplate.query("SELECT id, embedding_json FROM content_fragments WHERE id IN (" + in + ")",
+                    rs -> {
+                        g.add(rs.getLong(1), VectorCodec.parse(rs.getString(2)));
+                    });
+            dirty = true;
+        }
+    }
+
+    private LocalVectorIndex load(String model, int dimension, boolean exact) {
+        LocalVectorIndex g;
+        try {
+            g = exact ? FlatVectorIndex.open(matrix, model, dimension, scanPool, scanThreads) : read(model, dimension);
+        } catch (IOException | RuntimeException e) {
+            // 快照损坏时从库中重建
+            return null;
+        }
+        if (g == null || g.watermark() == 0) return g;
+        // 库被重建过时同一 id 可能已是别的片段：游标处的片段须仍在且向量一致，否则弃用快照
+        List<String> json = jdbcTemplate.queryForList(
+                "SELECT embedding_json FROM content_fragments WHERE id = ?", String.class, g.watermark());
+        if (!json.isEmpty() && json.get(0) != null && g.matches(g.watermark(), VectorCodec.parse(json.get(0)))) return g;
+        close(g);
+        return null;
+    }
+
+    private HnswGraph read(String model, int dimension) throws IOException {
+        if (!Files.isRegularFile(snapshot)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 20))) {
+            return HnswGraph.read(in, model, dimension, m, efConstruction);
+        }
+    }
+
+    // 先写临时文件再改名，中途失败不会留下半个快照
+    private void save(LocalVectorIndex g) {
+        if (g == null) return;
+        try {
+            if (g instanceof FlatVectorIndex flat) {
+                flat.flush();
+                dirty = false;
+                return;
+            }
+            Path dir = snapshot.toAbsolutePath().getParent();
+            if (dir != null) Files.createDirectories(dir);
+            Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 20))) {
+                ((HnswGraph) g).write(out);
+            }
+            Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException ignored) {
+            // 下次核对时重试
+        }
+    }
+
+    private static void close(LocalVectorIndex g) {
+        if (!(g instanceof FlatVectorIndex flat)) return;
+        try {
+            flat.close();
+        } catch (IOException ignored) {
+            // 映射区随对象回收释放
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        worker.shutdownNow();
+        scanPool.shutdownNow();
+        if (dirty && !building.get()) save(graph);
+        close(graph);
+    }
+}
@@ -1,33 +1,71 @@
 package com.huixun.lms.service;
 
 import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.model.openai.OpenAiEmbeddingModel;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 @Component
 public class OpenAiEmbeddingProvider implements EmbeddingProvider {
 
+    private static final float[] EMPTY = new float[0];
+
     private final OpenAiEmbeddingModel model;
+    private final int batchItems;
+    private final int batchTokens;
 
     public OpenAiEmbeddingProvider(@Value("${app.llm.openai.api-key}") String apiKey,
-                                   @Value("${app.llm.openai.embedding-model}") String modelName) {
+                                   @Value("${app.llm.openai.embedding-model}") String modelName,
+                                   @Value("${app.embedding.batch.max-items:256}") int batchItems,
+                                   @Value("${app.embedding.batch.max-tokens:100000}") int batchTokens) {
         if (apiKey != null && !apiKey.trim().isEmpty()) {
-            this.model = OpenAiEmbeddingModel.builder().apiKey(apiKey).modelName(modelName).build();
+            // 重试与限流由 EmbeddingExecutor 统一处理，客户端自身不再重试
+            this.model = OpenAiEmbeddingModel.builder().apiKey(apiKey).modelName(modelName).maxRetries(1).build();
         } else {
             this.model = null;
         }
+        this.batchItems = batchItems;
+        this.batchTokens = batchTokens;
+    }
+
+    public boolean isConfigured() {
+        return model != null;
     }
 
     @Override
-    public List<Double> embed(String text) {
-        if (model == null || text == null || text.trim().isEmpty()) return java.util.Collections.emptyList();
+    public float[] embed(String text) {
+        if (model == null || text == null || text.trim().isEmpty()) return EMPTY;
         Embedding e = model.embed(text).content();
-        float[] v = e.vector();
-        java.util.List<Double> out = new java.util.ArrayList<>(v.length);
-        for (float f : v) out.add((double) f);
+        return e.vector();
+    }
+
+    // 一次请求携带多条输入；空白文本不发送，对应位置返回空列表
+    @Override
+    public List<float[]> embedAll(List<String> texts) {
+        List<float[]> out = new ArrayList<>(Collections.nCopies(texts.size(), EMPTY));
+        if (model == null || texts.isEmpty()) return out;
+        List<Integer> positions = new ArrayList<>(texts.size());
+        List<String> inputs = new ArrayList<>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            String t = texts.get(i);
+            if (t == null || t.trim().isEmpty()) continue;
+            positions.add(i);
+            inputs.add(t);
+        }
+        for (int[] range : EmbeddingBatches.pack(inputs, batchItems, batchTokens)) {
+            List<TextSegment> segments = new ArrayList<>(range[1] - range[0]);
+            for (int i = range[0]; i < range[1]; i++) segments.add(TextSegment.from(inputs.get(i)));
+            List<Embedding> embeddings = model.embedAll(segments).content();
+            if (embeddings.size() != segments.size()) {
+                throw new IllegalStateException("嵌入结果数量与输入不符：" + embeddings.size() + "/" + segments.size());
+            }
+            for (int i = 0; i < embeddings.size(); i++) out.set(positions.get(range[0] + i), embeddings.get(i).vector());
+        }
         return out;
     }
 }
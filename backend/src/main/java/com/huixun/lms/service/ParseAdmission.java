@@ -0,0 +1,74 @@
+package com.huixun.lms.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// 以字节预算限制同时解析的 PDF 总量；超出预算的任务短暂等待，超时后拒绝，由任务队列放回排队（不计重试次数）
+@Component
+public class ParseAdmission {
+
+    private static final int UNIT = 1024;
+
+    private final Semaphore budget;
+    private final int budgetUnits;
+    private final double amplification;
+    private final long queueTimeoutMs;
+
+    public ParseAdmission(@Value("${app.parse.admission.max-in-flight-bytes:268435456}") long maxInFlightBytes,
+                          @Value("${app.parse.admission.amplification:1.5}") double amplification,
+                          @Value("${app.parse.admission.queue-timeout-ms:2000}") long queueTimeoutMs) {
+        this.budgetUnits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxInFlightBytes / UNIT));
+        this.budget = new Semaphore(budgetUnits, true);
+        this.amplification = amplification <= 0 ? 1.0 : amplification;
+        this.queueTimeoutMs = queueTimeoutMs;
+    }
+
+    public Permit acquire(long fileBytes) throws IOException {
+        // 单个文件超过总预算时按整份预算计，保证它能独占运行而不是永远排不上
+        long estimate = (long) Math.ceil(Math.max(1, fileBytes) * amplification / UNIT);
+        int units = (int) Math.min(budgetUnits, Math.max(1, estimate));
+        try {
+            if (!budget.tryAcquire(units, queueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new AdmissionRejectedException("解析内存预算已满，稍后重试（需要 " + ((long) units * UNIT) + " 字节）");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AdmissionRejectedException("等待解析内存预算时被中断");
+        }
+        return new Permit(units);
+    }
+
+    public long inFlightBytes() {
+        return (long) (budgetUnits - budget.availablePermits()) * UNIT;
+    }
+
+    public long budgetBytes() {
+        return (long) budgetUnits * UNIT;
+    }
+
+    public int queuedParses() {
+        return budget.getQueueLength();
+    }
+
+    public final class Permit implements AutoCloseable {
+        private final int units;
+        private boolean released;
+
+        private Permit(int units) { this.units = units; }
+
+        @Override
+        public synchronized void close() {
+            if (released) return;
+            released = true;
+            budget.release(units);
+        }
+    }
+
+    public static class AdmissionRejectedException extends IOException {
+        public AdmissionRejectedException(String message) { super(message); }
+    }
+}
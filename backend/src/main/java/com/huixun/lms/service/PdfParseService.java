@@ -4,50 +4,94 @@ import com.huixun.lms.model.ContentFragment;
 import com.huixun.lms.model.Document;
 import com.huixun.lms.repository.ContentFragmentRepository;
 import com.huixun.lms.repository.DocumentRepository;
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class PdfParseService {
 
     private final DocumentRepository documentRepository;
     private final ContentFragmentRepository fragmentRepository;
+    private final ParseAdmission admission;
+    private final ChunkingStrategy chunker;
+    private final FragmentWriter fragmentWriter;
+    private final ProgressPublisher progress;
+    private final ForkJoinPool extractPool;
+    private final int minPagesPerTask;
+    private final String memoryMode;
+    private final long maxMainMemoryBytes;
+    private final File tempDir;
 
     public PdfParseService(DocumentRepository documentRepository,
-                           ContentFragmentRepository fragmentRepository) {
+                           ContentFragmentRepository fragmentRepository,
+                           ParseAdmission admission,
+                           ChunkingStrategy chunker,
+                           FragmentWriter fragmentWriter,
+                           ProgressPublisher progress,
+                           @Value("${app.parse.parallelism:0}") int parallelism,
+                           @Value("${app.parse.min-pages-per-task:16}") int minPagesPerTask,
+                           @Value("${app.parse.memory-mode:MIXED}") String memoryMode,
+                           @Value("${app.parse.max-main-memory-bytes:67108864}") long maxMainMemoryBytes,
+                           @Value("${app.parse.temp-dir:}") String tempDir) {
         this.documentRepository = documentRepository;
         this.fragmentRepository = fragmentRepository;
+        this.admission = admission;
+        this.chunker = chunker;
+        this.fragmentWriter = fragmentWriter;
+        this.progress = progress;
+        int n = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.extractPool = new ForkJoinPool(n);
+        this.minPagesPerTask = Math.max(1, minPagesPerTask);
+        this.memoryMode = memoryMode == null ? "MIXED" : memoryMode.trim().toUpperCase();
+        this.maxMainMemoryBytes = Math.max(1L << 20, maxMainMemoryBytes);
+        this.tempDir = tempDir == null || tempDir.isBlank() ? null : new File(tempDir);
     }
 
     public void parse(Long documentId) throws IOException {
         Document doc = documentRepository.findById(documentId).orElseThrow();
+        File file = new File(doc.getStoragePath());
+        // 先取得内存预算再进入 PARSING，超出预算时抛出 AdmissionRejectedException，由任务队列放回排队
+        try (ParseAdmission.Permit ignored = admission.acquire(file.length())) {
+            doParse(doc, file);
+        }
+    }
+
+    private void doParse(Document doc, File file) throws IOException {
+        Long documentId = doc.getId();
         doc.setStatus("PARSING");
         documentRepository.save(doc);
+        progress.stage(documentId, "PARSING", null);
 
-        File file = new File(doc.getStoragePath());
-        try (PDDocument pdf = PDDocument.load(file)) {
-            PDFTextStripper stripper = new PDFTextStripper();
-            String text = stripper.getText(pdf);
-            List<String> chunks = chunk(text);
-            int pageCount = pdf.getNumberOfPages();
-            List<ContentFragment> fragments = new ArrayList<>();
-            for (String c : chunks) {
-                ContentFragment f = new ContentFragment();
-                f.setDocumentId(documentId);
-                f.setText(c);
-                f.setPageRange("1-" + pageCount);
-                fragments.add(f);
-            }
-            fragmentRepository.saveAll(fragments);
+        try {
+            List<String> pages = extractPages(documentId, file);
+            List<ChunkingStrategy.Chunk> chunks = chunker.chunk(pages);
+            Diff diff = reconcile(documentId, chunks);
+            fragmentWriter.apply(diff.upserts(), diff.removed());
             doc.setStatus("EMBEDDING");
             doc.setErrorMessage(null);
             documentRepository.save(doc);
+            progress.stage(documentId, "EMBEDDING", null);
         } catch (Exception e) {
             doc.setStatus("FAILED");
             doc.setErrorMessage(e.getMessage());
@@ -56,24 +100,129 @@ public class PdfParseService {
         }
     }
 
-    private List<String> chunk(String text) {
-        if (text == null) return java.util.Collections.emptyList();
-        String normalized = text.replaceAll("\r", "\n").replaceAll("\n{2,}", "\n\n");
-        String[] paras = normalized.split("\n\n");
-        List<String> out = new ArrayList<>();
-        StringBuilder cur = new StringBuilder();
-        int limit = 1200;
-        for (String p : paras) {
-            if (cur.length() + p.length() + 2 > limit) {
-                out.add(cur.toString());
-                cur = new StringBuilder();
+    // 与文档现有片段按内容哈希比对：未变化的片段保留原 id、向量及题目关联，只新增变化部分；
+    // 不再出现的片段被删除，其题目解除关联（见 FragmentWriter.apply）。
+    // 同一次任务重试时所有片段都会命中，解析天然幂等
+    private Diff reconcile(Long documentId, List<ChunkingStrategy.Chunk> chunks) {
+        Map<String, Deque<ContentFragment>> existing = new HashMap<>();
+        for (ContentFragment f : fragmentRepository.findByDocumentIdOrderByOrdinalAscIdAsc(documentId)) {
+            String h = f.getContentHash() != null ? f.getContentHash() : ContentHash.of(f.getText());
+            existing.computeIfAbsent(h, k -> new ArrayDeque<>()).add(f);
+        }
+        List<ContentFragment> upserts = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            ChunkingStrategy.Chunk c = chunks.get(i);
+            String h = ContentHash.of(c.text());
+            String pageRange = c.startPage() == c.endPage() ? String.valueOf(c.startPage()) : c.startPage() + "-" + c.endPage();
+            Deque<ContentFragment> same = existing.get(h);
+            ContentFragment f = same == null ? null : same.pollFirst();
+            if (f == null) {
+                f = new ContentFragment();
+                f.setDocumentId(documentId);
+            } else if (Objects.equals(f.getOrdinal(), i) && Objects.equals(f.getPageRange(), pageRange)
+                    && h.equals(f.getContentHash()) && c.text().equals(f.getText())) {
+                continue;
             }
-            if (p != null && !p.trim().isEmpty()) {
-                if (cur.length() > 0) cur.append("\n\n");
-                cur.append(p);
+            f.setText(c.text());
+            f.setContentHash(h);
+            f.setOrdinal(i);
+            f.setPageRange(pageRange);
+            upserts.add(f);
+        }
+        List<ContentFragment> removed = new ArrayList<>();
+        existing.values().forEach(removed::addAll);
+        return new Diff(upserts, removed);
+    }
+
+
+    // 按页区间切分后并行抽取；PDDocument 非线程安全，每个任务各自打开一份
+    private List<String> extractPages(Long documentId, File file) throws IOException {
+        int pageCount;
+        AtomicInteger parsed = new AtomicInteger();
+        Runnable onPage;
+        try (PDDocument pdf = PDDocument.load(file, memoryUsage(1))) {
+            pageCount = pdf.getNumberOfPages();
+            onPage = () -> progress.progress(documentId, "PARSING", parsed.incrementAndGet(), pageCount);
+            if (pageCount <= minPagesPerTask || extractPool.getParallelism() <= 1) {
+                return stripPages(pdf, 1, pageCount, onPage);
             }
         }
-        if (cur.length() > 0) out.add(cur.toString());
-        return out;
+        int tasks = Math.min(extractPool.getParallelism(), (pageCount + minPagesPerTask - 1) / minPagesPerTask);
+        int perTask = (pageCount + tasks - 1) / tasks;
+        MemoryUsageSetting perTaskMemory = memoryUsage(tasks);
+        List<Callable<List<String>>> ranges = new ArrayList<>();
+        for (int start = 1; start <= pageCount; start += perTask) {
+            int s = start;
+            int e = Math.min(pageCount, start + perTask - 1);
+            ranges.add(() -> {
+                try (PDDocument part = PDDocument.load(file, perTaskMemory)) {
+                    return stripPages(part, s, e, onPage);
+                }
+            });
+        }
+        List<String> pages = new ArrayList<>(pageCount);
+        try {
+            for (Future<List<String>> f : extractPool.invokeAll(ranges)) pages.addAll(f.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("PDF 解析被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+        return pages;
+    }
+
+    // 并行任务平分堆内上限，超出部分落到临时文件，使单个文档的解析堆占用有确定上界
+    private MemoryUsageSetting memoryUsage(int loads) {
+        MemoryUsageSetting setting;
+        switch (memoryMode) {
+            case "MAIN_MEMORY" -> setting = MemoryUsageSetting.setupMainMemoryOnly();
+            case "TEMP_FILE" -> setting = MemoryUsageSetting.setupTempFileOnly();
+            default -> setting = MemoryUsageSetting.setupMixed(Math.max(1L << 20, maxMainMemoryBytes / Math.max(1, loads)));
+        }
+        if (tempDir != null) setting.setTempDir(tempDir);
+        return setting;
+    }
+
+    private static List<String> stripPages(PDDocument pdf, int startPage, int endPage, Runnable onPage) throws IOException {
+        PageTextStripper stripper = new PageTextStripper(onPage);
+        stripper.setStartPage(startPage);
+        stripper.setEndPage(endPage);
+        stripper.writeText(pdf, stripper.buffer);
+        return stripper.pages;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        extractPool.shutdownNow();
+    }
+
+    private record Diff(List<ContentFragment> upserts, List<ContentFragment> removed) {}
+
+    // 在一次遍历中按页收集文本
+    private static final class PageTextStripper extends PDFTextStripper {
+        private final StringWriter buffer = new StringWriter();
+        private final List<String> pages = new ArrayList<>();
+        private final Runnable onPage;
+
+        PageTextStripper(Runnable onPage) throws IOException {
+            super();
+            this.onPage = onPage;
+        }
+
+        @Override
+        protected void startPage(PDPage page) throws IOException {
+            super.startPage(page);
+            buffer.getBuffer().setLength(0);
+        }
+
+        @Override
+        protected void endPage(PDPage page) throws IOException {
+            super.endPage(page);
+            output.flush();
+            pages.add(buffer.toString());
+            onPage.run();
+        }
     }
 }
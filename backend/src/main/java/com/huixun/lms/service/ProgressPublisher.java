@@ -0,0 +1,150 @@
+package com.huixun.lms.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// 文档处理进度的进程内发布者：解析/嵌入服务在状态变化时直接推送，订阅方通过 SSE 接收，
+// 并缓存每个文档的最近一次事件。多实例部署时处理可能发生在别的实例上（包括新版本的重新处理），
+// 本地缓存只在刚刷新过时代替读库，其余情况由调用方读库
+@Component
+public class ProgressPublisher {
+
+    private final Map<Long, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+    private final Map<Long, Cached> latest;
+    private final Map<Long, Long> lastProgressAt = new ConcurrentHashMap<>();
+    private final long emitterTimeoutMs;
+    private final long progressIntervalMs;
+    private final long freshMs;
+    // 单线程扇出：慢客户端只拖慢推送线程，不会阻塞解析与嵌入 worker，同一文档的事件保持顺序
+    private final ExecutorService fanout = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "progress-fanout");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ProgressPublisher(@Value("${app.events.emitter-timeout-ms:1800000}") long emitterTimeoutMs,
+                             @Value("${app.events.progress-interval-ms:250}") long progressIntervalMs,
+                             @Value("${app.events.cache-size:10000}") int cacheSize,
+                             @Value("${app.events.status-fresh-ms:2000}") long freshMs) {
+        this.emitterTimeoutMs = emitterTimeoutMs;
+        this.progressIntervalMs = progressIntervalMs;
+        this.freshMs = freshMs;
+        int cap = Math.max(16, cacheSize);
+        this.latest = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Cached> eldest) {
+                return size() > cap;
+            }
+        });
+    }
+
+    // 只返回 freshMs 内刷新过的事件，终态也一样：别的实例可能已开始处理新版本；返回 null 时调用方读库
+    public ProgressEvent latest(Long documentId) {
+        Cached c = latest.get(documentId);
+        return c != null && System.currentTimeMillis() - c.at() <= freshMs ? c.event() : null;
+    }
+
+    // initial 为 latest 返回 null 时由调用方从库中读到的当前状态，只在订阅时读一次
+    public SseEmitter subscribe(Long documentId, ProgressEvent initial) {
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+        ProgressEvent current = latest(documentId);
+        if (current == null && initial != null) {
+            // 读库期间本实例可能刚发布了更新的事件，保留较新的那条
+            long now = System.currentTimeMillis();
+            current = latest.compute(documentId, (k, c) ->
+                    c != null && now - c.at() <= freshMs ? c : new Cached(initial, now)).event();
+        }
+        subscribers.compute(documentId, (k, list) -> {
+            List<SseEmitter> l = list == null ? new CopyOnWriteArrayList<>() : list;
+            l.add(emitter);
+            return l;
+        });
+        Runnable remove = () -> unsubscribe(documentId, emitter);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+        if (current != null) {
+            ProgressEvent first = current;
+            fanout.execute(() -> send(documentId, emitter, first));
+        }
+        return emitter;
+    }
+
+    public void stage(Long documentId, String status, String errorMessage) {
+        lastProgressAt.remove(documentId);
+        publish(new ProgressEvent(documentId, status, 0, 0, errorMessage));
+    }
+
+    // 细粒度进度按时间间隔节流，最后一条（done == total）总会发出
+    public void progress(Long documentId, String status, int done, int total) {
+        long now = System.currentTimeMillis();
+        if (done < total) {
+            Long prev = lastProgressAt.get(documentId);
+            if (prev != null && now - prev < progressIntervalMs) return;
+        }
+        lastProgressAt.put(documentId, now);
+        publish(new ProgressEvent(documentId, status, done, total, null));
+    }
+
+    public void forget(Long documentId) {
+        latest.remove(documentId);
+        lastProgressAt.remove(documentId);
+    }
+
+    public int subscriberCount() {
+        return subscribers.values().stream().mapToInt(List::size).sum();
+    }
+
+    private void publish(ProgressEvent event) {
+        latest.put(event.documentId(), new Cached(event, System.currentTimeMillis()));
+        List<SseEmitter> list = subscribers.get(event.documentId());
+        if (list == null || list.isEmpty()) return;
+        fanout.execute(() -> {
+            for (SseEmitter emitter : list) send(event.documentId(), emitter, event);
+        });
+    }
+
+    private void send(Long documentId, SseEmitter emitter, ProgressEvent event) {
+        try {
+            emitter.send(SseEmitter.event().name("progress").data(event));
+            if (event.isTerminal()) emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            // 客户端已断开
+            unsubscribe(documentId, emitter);
+        }
+    }
+
+    private void unsubscribe(Long documentId, SseEmitter emitter) {
+        subscribers.computeIfPresent(documentId, (k, list) -> {
+            list.remove(emitter);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fanout.shutdownNow();
+        subscribers.values().forEach(list -> list.forEach(SseEmitter::complete));
+        subscribers.clear();
+    }
+
+    private record Cached(ProgressEvent event, long at) {}
+
+    public record ProgressEvent(Long documentId, String status, int done, int total, String errorMessage) {
+        public boolean isTerminal() {
+            return "DONE".equals(status) || "FAILED".equals(status);
+        }
+    }
+}
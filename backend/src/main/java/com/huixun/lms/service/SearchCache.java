@@ -0,0 +1,115 @@
+package com.huixun.lms.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 检索结果缓存，键为 (模型, 规范化查询, k, 范围, 检索参数, 语料版本)。复习周同一课程的学生反复检索相同的内容，
+// 命中时不再嵌入查询、不访问数据库。片段或向量有变化时按文档递增版本号：限定文档的检索只看这些文档的版本，
+// 其余检索看全库版本，旧版本的条目不会再被读到，随容量淘汰。版本号只在本进程内，多实例时由 ttl 限定陈旧时间。
+// 词项索引与内存向量索引在后台线程应用变化，落后于提交，应用后还要再递增一次（indexed）
+@Component
+public class SearchCache {
+
+    private final boolean enabled;
+    private final Cache<String, List<SearchService.Result>> cache;
+    private final AtomicLong corpusVersion = new AtomicLong();
+    private final Map<Long, Long> documentVersions = new ConcurrentHashMap<>();
+
+    public SearchCache(MeterRegistry registry,
+                       @Value("${app.search.cache.enabled:true}") boolean enabled,
+                       @Value("${app.search.cache.max-entries:10000}") long maxEntries,
+                       @Value("${app.search.cache.ttl-seconds:600}") long ttlSeconds) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(Math.max(1, maxEntries))
+                .expireAfterWrite(Duration.ofSeconds(Math.max(1, ttlSeconds)))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, "search_results");
+        Gauge.builder("search.cache.corpus.version", corpusVersion, AtomicLong::get).register(registry);
+    }
+
+    // 文档的片段或向量发生变化（写入、重新嵌入、删除）后调用。在事务内调用时提交后才递增版本：
+    // 提交前的检索仍读到旧数据，若提前递增，旧结果会以新版本缓存下来
+    public void changed(Long documentId) {
+        AfterCommit.run(() -> bump(documentId));
+    }
+
+    // 进程内索引应用变化后调用：提交时递增的版本下可能已缓存了索引跟上之前的结果，再递增一次使其失效
+    public void indexed(Collection<Long> documentIds) {
+        if (documentIds.isEmpty()) return;
+        for (Long id : documentIds) {
+            if (id != null) documentVersions.merge(id, 1L, Long::sum);
+        }
+        corpusVersion.incrementAndGet();
+    }
+
+    private void bump(Long documentId) {
+        if (documentId != null) documentVersions.merge(documentId, 1L, Long::sum);
+        corpusVersion.incrementAndGet();
+    }
+
+    // 查询按嵌入缓存的规则规范化（去首尾空白、折叠连续空白），规范化后相同的查询向量也相同
+    public String key(String model, String query, int k, SearchService.Scope scope, boolean hybrid, Integer efSearch, Integer probes) {
+        StringBuilder b = new StringBuilder(model).append('|').append(ContentHash.of(query)).append('|').append(k)
+                .append('|').append(hybrid ? 'h' : 'v').append('|').append(efSearch).append('|').append(probes);
+        if (scope != null && scope.keyword != null && !scope.keyword.isBlank()) b.append("|kw:").append(scope.keyword.trim().toLowerCase());
+        if (scope == null || scope.documentIds == null) {
+            b.append("|@").append(corpusVersion.get());
+        } else {
+            b.append("|d");
+            for (Long id : scope.documentIds) b.append(':').append(id).append('@').append(documentVersions.getOrDefault(id, 0L));
+        }
+        return b.toString();
+    }
+
+    // Result 的字段可写，存入与取出都复制一份，调用方改动返回的结果不会影响缓存
+    public List<SearchService.Result> get(String key) {
+        List<SearchService.Result> rs = enabled ? cache.getIfPresent(key) : null;
+        return rs == null ? null : copy(rs);
+    }
+
+    public void put(String key, List<SearchService.Result> results) {
+        if (enabled) cache.put(key, copy(results));
+    }
+
+    private static List<SearchService.Result> copy(List<SearchService.Result> results) {
+        return results.stream().map(SearchService.Result::new).toList();
+    }
+
+    public Stats stats() {
+        CacheStats s = cache.stats();
+        Stats out = new Stats();
+        out.enabled = enabled;
+        out.size = cache.estimatedSize();
+        out.hits = s.hitCount();
+        out.misses = s.missCount();
+        out.hitRate = s.requestCount() == 0 ? 0 : s.hitRate();
+        out.evictions = s.evictionCount();
+        out.corpusVersion = corpusVersion.get();
+        return out;
+    }
+
+    public static class Stats {
+        public boolean enabled;
+        public long size;
+        public long hits;
+        public long misses;
+        public double hitRate;
+        public long evictions;
+        public long corpusVersion;
+    }
+}
@@ -2,83 +2,575 @@ package com.huixun.lms.service;
 
 import com.huixun.lms.model.ContentFragment;
 import com.huixun.lms.repository.ContentFragmentRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.support.SqlArrayValue;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 public class SearchService {
     private final ContentFragmentRepository fragmentRepository;
     private final EmbeddingService embeddingService;
     private final JdbcTemplate jdbcTemplate;
+    private final VectorStore vectorStore;
+    private final VectorIndexManager indexManager;
+    private final MemoryVectorIndex memoryIndex;
+    private final LexicalIndex lexicalIndex;
+    private final SearchCache searchCache;
+    private final TransactionTemplate readOnly;
+    private final boolean hybridEnabled;
+    private final int rrfK;
+    private final int hybridCandidates;
 
-    public SearchService(ContentFragmentRepository fragmentRepository, EmbeddingService embeddingService, JdbcTemplate jdbcTemplate) {
+    private static final String EXACT = "SELECT id FROM content_fragments WHERE embedding IS NOT NULL ORDER BY embedding <=> ? LIMIT ?";
+
+    public SearchService(ContentFragmentRepository fragmentRepository, EmbeddingService embeddingService, JdbcTemplate jdbcTemplate,
+                         VectorStore vectorStore, VectorIndexManager indexManager, MemoryVectorIndex memoryIndex,
+                         LexicalIndex lexicalIndex, SearchCache searchCache, PlatformTransactionManager transactionManager,
+                         @Value("${app.search.hybrid.enabled:true}") boolean hybridEnabled,
+                         @Value("${app.search.hybrid.rrf-k:60}") int rrfK,
+                         @Value("${app.search.hybrid.candidates:50}") int hybridCandidates) {
         this.fragmentRepository = fragmentRepository;
         this.embeddingService = embeddingService;
         this.jdbcTemplate = jdbcTemplate;
+        this.vectorStore = vectorStore;
+        this.indexManager = indexManager;
+        this.memoryIndex = memoryIndex;
+        this.lexicalIndex = lexicalIndex;
+        this.searchCache = searchCache;
+        this.hybridEnabled = hybridEnabled;
+        this.rrfK = rrfK;
+        this.hybridCandidates = hybridCandidates;
+        // SET LOCAL 只在事务内生效
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
     }
 
     public List<Result> topK(String query, int k) {
-        List<Double> q = embeddingService.embedText(query);
-        String vstr = toVectorString(q);
-        try {
-            return jdbcTemplate.query(
-                    "SELECT id, text, section_path, page_range, 1 - (embedding <-> '" + vstr + "'::vector) AS score FROM content_fragments WHERE embedding IS NOT NULL ORDER BY embedding <-> '" + vstr + "'::vector LIMIT ?",
-                    ps -> ps.setInt(1, k),
-                    (rs, rowNum) -> new Result(map(rs.getLong("id"), rs.getString("text"), rs.getString("section_path"), rs.getString("page_range")), rs.getDouble("score"))
-            );
-        } catch (Exception e) {
-            List<ContentFragment> all = fragmentRepository.findAll();
-            List<Result> rs = new ArrayList<>();
-            for (ContentFragment f : all) {
-                double[] v = parse(f.getEmbeddingJson());
-                if (v == null || q == null || q.isEmpty()) continue;
-                double s = cosine(q, v);
-                rs.add(new Result(f, s));
+        return topK(query, k, null, null);
+    }
+
+    // efSearch（HNSW，含进程内索引）与 probes（IVFFlat）为单次检索的搜索宽度，为 null 时用配置值；越大召回越高、延迟越高
+    public List<Result> topK(String query, int k, Integer efSearch, Integer probes) {
+        return topK(query, k, null, null, efSearch, probes);
+    }
+
+    // scope 不为空时只在范围内的片段中精确检索（近似索引在过滤后可能凑不够 k 个），此时不使用 efSearch / probes。
+    // hybrid（为 null 时用配置值）时向量结果与 BM25 结果按倒数排名融合，score 为融合分，vectorScore / lexicalScore 为各路原始分；
+    // 否则 score 为余弦相似度。词项索引尚未加载完成时只用向量结果（这样的结果不缓存）。
+    // 结果经 SearchCache 缓存，返回的列表不可修改
+    public List<Result> topK(String query, int k, Scope scope, Boolean hybrid, Integer efSearch, Integer probes) {
+        boolean fuse = hybrid != null ? hybrid : hybridEnabled;
+        String key = searchCache.key(embeddingService.modelId(), query, k, scope, fuse, efSearch, probes);
+        List<Result> cached = searchCache.get(key);
+        if (cached != null) return cached;
+        float[] q = embeddingService.embedText(query);
+        Filter filter = filter(scope);
+        int n = fuse ? Math.max(k, hybridCandidates) : k;
+        List<Result> vector = vectorTopK(q, n, filter, efSearch, probes);
+        if (!fuse) {
+            searchCache.put(key, vector);
+            return List.copyOf(vector);
+        }
+        List<InvertedIndex.Hit> lexical = lexicalIndex.search(query, n,
+                filter == null ? null : filter.documentIds, filter == null ? null : filter.ids);
+        if (lexical == null) return List.copyOf(vector.subList(0, Math.min(k, vector.size())));
+        List<Result> rs = fuse(vector, lexical, k, Map.of());
+        searchCache.put(key, rs);
+        return List.copyOf(rs);
+    }
+
+    // 多个查询一次完成，结果与 queries 按下标对应，各列表的语义同 topK。查询向量合并成一次批量嵌入；
+    // pgvector 下用 LATERAL 连接在一条 SQL 中检索全部查询，进程内精确扫描时共用一遍矩阵扫描；片段一次读出
+    // 已缓存的查询直接取缓存，其余查询合并成一批
+    public List<List<Result>> topK(List<String> queries, int k, Scope scope, Boolean hybrid, Integer efSearch, Integer probes) {
+        boolean fuse = hybrid != null ? hybrid : hybridEnabled;
+        String model = embeddingService.modelId();
+        List<List<Result>> out = new ArrayList<>(Collections.nCopies(queries.size(), null));
+        List<String> keys = new ArrayList<>();
+        List<String> pending = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            String key = searchCache.key(model, queries.get(i), k, scope, fuse, efSearch, probes);
+            List<Result> cached = searchCache.get(key);
+            if (cached != null) {
+                out.set(i, cached);
+            } else {
+                keys.add(key);
+                pending.add(queries.get(i));
+                slots.add(i);
+            }
+        }
+        if (pending.isEmpty()) return out;
+        List<List<Result>> fresh = search(pending, k, scope, fuse, efSearch, probes, keys);
+        for (int i = 0; i < slots.size(); i++) out.set(slots.get(i), fresh.get(i));
+        return out;
+    }
+
+    private List<List<Result>> search(List<String> queries, int k, Scope scope, boolean fuse, Integer efSearch, Integer probes,
+                                      List<String> keys) {
+        List<float[]> qs = embeddingService.embedTexts(queries);
+        Filter filter = filter(scope);
+        int n = fuse ? Math.max(k, hybridCandidates) : k;
+        List<List<Result>> vector = vectorTopK(qs, n, filter, efSearch, probes);
+        if (!fuse) {
+            List<List<Result>> out = new ArrayList<>(vector.size());
+            for (int i = 0; i < vector.size(); i++) {
+                searchCache.put(keys.get(i), vector.get(i));
+                out.add(List.copyOf(vector.get(i)));
+            }
+            return out;
+        }
+        List<List<InvertedIndex.Hit>> lexical = new ArrayList<>(queries.size());
+        Set<Long> missing = new HashSet<>();
+        for (int i = 0; i < queries.size(); i++) {
+            List<InvertedIndex.Hit> hits = lexicalIndex.search(queries.get(i), n,
+                    filter == null ? null : filter.documentIds, filter == null ? null : filter.ids);
+            lexical.add(hits);
+            if (hits == null) continue;
+            Set<Long> seen = new HashSet<>();
+            for (Result r : vector.get(i)) seen.add(r.fragment.getId());
+            for (InvertedIndex.Hit h : hits) {
+                if (!seen.contains(h.id)) missing.add(h.id);
+            }
+        }
+        Map<Long, ContentFragment> known = new HashMap<>();
+        if (!missing.isEmpty()) {
+            for (ContentFragment f : fragmentRepository.findAllById(missing)) known.put(f.getId(), f);
+        }
+        List<List<Result>> out = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            List<Result> v = vector.get(i);
+            if (lexical.get(i) == null) {
+                out.add(List.copyOf(v.subList(0, Math.min(k, v.size()))));
+            } else {
+                List<Result> rs = fuse(v, lexical.get(i), k, known);
+                searchCache.put(keys.get(i), rs);
+                out.add(List.copyOf(rs));
+            }
+        }
+        return out;
+    }
+
+    private List<Result> vectorTopK(float[] q, int k, Filter filter, Integer efSearch, Integer probes) {
+        if (vectorStore.accepts(q)) {
+            try {
+                return filter != null ? nearestWithin(q, k, filter) : nearest(q, k, indexManager.candidates(k), efSearch, probes);
+            } catch (DataAccessException ignored) {
+                // 向量列不可用（扩展未安装、pgvector 低于 0.7 不支持量化索引等）时退回到内存计算
+            }
+        }
+        return memoryTopK(List.of(q), k, filter, efSearch).get(0);
+    }
+
+    private List<List<Result>> vectorTopK(List<float[]> qs, int k, Filter filter, Integer efSearch, Integer probes) {
+        if (qs.stream().allMatch(vectorStore::accepts)) {
+            try {
+                return nearestAll(qs, k, filter, indexManager.candidates(k), efSearch, probes);
+            } catch (DataAccessException ignored) {
+                // 同上，退回到内存计算
+            }
+        }
+        return memoryTopK(qs, k, filter, efSearch);
+    }
+
+    private List<List<Result>> memoryTopK(List<float[]> qs, int k, Filter filter, Integer efSearch) {
+        boolean scoped = filter != null;
+        List<Long> among = scoped
+                ? jdbcTemplate.queryForList("SELECT id FROM content_fragments WHERE embedding_json IS NOT NULL AND " + filter.where(), Long.class, filter.args())
+                : null;
+        List<List<LocalVectorIndex.Hit>> hits;
+        if (scoped) {
+            long[] ids = among.stream().mapToLong(Long::longValue).toArray();
+            hits = new ArrayList<>(qs.size());
+            for (float[] q : qs) {
+                List<LocalVectorIndex.Hit> h = memoryIndex.search(q, k, ids);
+                if (h == null) {
+                    hits = null;
+                    break;
+                }
+                hits.add(h);
+            }
+        } else {
+            hits = memoryIndex.search(qs.toArray(new float[0][]), k, efSearch);
+        }
+        List<List<Result>> out = new ArrayList<>(qs.size());
+        if (hits != null) {
+            Set<Long> ids = new HashSet<>();
+            for (List<LocalVectorIndex.Hit> hs : hits) {
+                for (LocalVectorIndex.Hit h : hs) ids.add(h.id);
             }
+            Map<Long, ContentFragment> byId = new HashMap<>();
+            for (ContentFragment f : fragmentRepository.findAllById(ids)) byId.put(f.getId(), f);
+            for (List<LocalVectorIndex.Hit> hs : hits) {
+                List<Result> rs = new ArrayList<>(hs.size());
+                for (LocalVectorIndex.Hit h : hs) {
+                    // 已删除但尚未从索引移除的片段直接跳过
+                    ContentFragment f = byId.get(h.id);
+                    if (f != null) rs.add(new Result(f, h.score));
+                }
+                out.add(rs);
+            }
+            return out;
+        }
+        // 进程内索引加载完成前逐条计算，片段与向量只读取、解析一次
+        List<ContentFragment> all = scoped ? fragmentRepository.findAllById(among) : fragmentRepository.findAll();
+        List<ContentFragment> fs = new ArrayList<>(all.size());
+        List<float[]> vs = new ArrayList<>(all.size());
+        for (ContentFragment f : all) {
+            float[] v = VectorCodec.parse(f.getEmbeddingJson());
+            if (v.length == 0) continue;
+            fs.add(f);
+            vs.add(v);
+        }
+        for (float[] q : qs) {
+            List<Result> rs = new ArrayList<>();
+            for (int i = 0; i < fs.size() && q.length > 0; i++) rs.add(new Result(fs.get(i), VectorMath.cosine(q, vs.get(i))));
             rs.sort(Comparator.comparingDouble((Result r) -> r.score).reversed());
-            return rs.subList(0, Math.min(k, rs.size()));
+            out.add(rs.subList(0, Math.min(k, rs.size())));
+        }
+        return out;
+    }
+
+    // 先按索引取 candidates 个候选，再在候选内按全精度余弦距离排出前 k 个
+    private List<Result> nearest(float[] q, int k, int candidates, Integer efSearch, Integer probes) {
+        String sql = "SELECT id, document_id, text, section_path, page_range, 1 - (embedding <=> ?) AS score FROM ("
+                + "SELECT id, document_id, text, section_path, page_range, embedding FROM content_fragments WHERE embedding IS NOT NULL"
+                + " ORDER BY " + indexManager.candidateOrder("embedding", q.length) + " LIMIT ?) c"
+                + " ORDER BY embedding <=> ? LIMIT ?";
+        return readOnly.execute(status -> {
+            indexManager.prepare(candidates, efSearch, probes);
+            return jdbcTemplate.query(sql,
+                    ps -> {
+                        VectorStore.bind(ps, 1, q);
+                        VectorStore.bind(ps, 2, q);
+                        ps.setInt(3, candidates);
+                        VectorStore.bind(ps, 4, q);
+                        ps.setInt(5, k);
+                    },
+                    (rs, rowNum) -> new Result(map(rs.getLong("id"), rs.getLong("document_id"), rs.getString("text"), rs.getString("section_path"), rs.getString("page_range")), rs.getDouble("score"))
+            );
+        });
+    }
+
+    // 范围内的片段经 document_id 等普通索引取出后逐条计算精确距离。关闭 index scan 使规划器不走向量索引
+    // （向量索引先取近邻再过滤，范围小时结果不足 k 个）；document_id 索引仍可走 bitmap scan
+    private List<Result> nearestWithin(float[] q, int k, Filter filter) {
+        String sql = "SELECT id, document_id, text, section_path, page_range, 1 - (embedding <=> ?) AS score FROM content_fragments"
+                + " WHERE embedding IS NOT NULL AND " + filter.where() + " ORDER BY embedding <=> ? LIMIT ?";
+        Object[] args = filter.args();
+        return readOnly.execute(status -> {
+            jdbcTemplate.execute("SET LOCAL enable_indexscan = off");
+            return jdbcTemplate.query(sql,
+                    ps -> {
+                        VectorStore.bind(ps, 1, q);
+                        for (int i = 0; i < args.length; i++) StatementCreatorUtils.setParameterValue(ps, 2 + i, SqlTypeValue.TYPE_UNKNOWN, args[i]);
+                        VectorStore.bind(ps, 2 + args.length, q);
+                        ps.setInt(3 + args.length, k);
+                    },
+                    (rs, rowNum) -> new Result(map(rs.getLong("id"), rs.getLong("document_id"), rs.getString("text"), rs.getString("section_path"), rs.getString("page_range")), rs.getDouble("score"))
+            );
+        });
+    }
+
+    // 每个查询各检索一次，语义同 nearest / nearestWithin。查询向量放在 VALUES 中，LATERAL 子查询按每个向量各自走索引
+    // （或范围内精确计算），全部查询只需一条 SQL、一次往返
+    private List<List<Result>> nearestAll(List<float[]> qs, int k, Filter filter, int candidates, Integer efSearch, Integer probes) {
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < qs.size(); i++) values.append(i == 0 ? "" : ", ").append("(").append(i).append(", ?::vector)");
+        String columns = "id, document_id, text, section_path, page_range, 1 - (embedding <=> q.v) AS score";
+        String inner = filter != null
+                ? "SELECT " + columns + " FROM content_fragments WHERE embedding IS NOT NULL AND " + filter.where()
+                        + " ORDER BY embedding <=> q.v LIMIT ?"
+                : "SELECT " + columns + " FROM ("
+                        + "SELECT id, document_id, text, section_path, page_range, embedding FROM content_fragments WHERE embedding IS NOT NULL"
+                        + " ORDER BY " + indexManager.candidateOrder("embedding", qs.get(0).length, "q.v") + " LIMIT ?) c"
+                        + " ORDER BY embedding <=> q.v LIMIT ?";
+        String sql = "SELECT q.ord, r.* FROM (VALUES " + values + ") q(ord, v) CROSS JOIN LATERAL (" + inner + ") r"
+                + " ORDER BY q.ord, r.score DESC";
+        Object[] args = filter != null ? filter.args() : new Object[0];
+        List<List<Result>> out = new ArrayList<>(qs.size());
+        for (int i = 0; i < qs.size(); i++) out.add(new ArrayList<>());
+        readOnly.executeWithoutResult(status -> {
+            if (filter != null) jdbcTemplate.execute("SET LOCAL enable_indexscan = off");
+            else indexManager.prepare(candidates, efSearch, probes);
+            jdbcTemplate.query(sql,
+                    ps -> {
+                        int p = 1;
+                        for (float[] q : qs) VectorStore.bind(ps, p++, q);
+                        for (Object a : args) StatementCreatorUtils.setParameterValue(ps, p++, SqlTypeValue.TYPE_UNKNOWN, a);
+                        if (filter == null) ps.setInt(p++, candidates);
+                        ps.setInt(p, k);
+                    },
+                    rs -> {
+                        out.get(rs.getInt("ord")).add(new Result(map(rs.getLong("id"), rs.getLong("document_id"), rs.getString("text"),
+                                rs.getString("section_path"), rs.getString("page_range")), rs.getDouble("score")));
+                    });
+        });
+        return out;
+    }
+
+    // 倒数排名融合（RRF）：每路结果按名次计 1/(rrfK + 名次)，两路相加。只看名次，不需要把余弦相似度与 BM25 换到同一尺度；
+    // 只在 BM25 结果中出现的片段（精确词项命中而语义不近）先从 known 中取，没有的从库中补读。
+    // 融合结果都是新建的，不改动 vector 中的结果
+    private List<Result> fuse(List<Result> vector, List<InvertedIndex.Hit> lexical, int k, Map<Long, ContentFragment> known) {
+        Map<Long, Result> byId = new LinkedHashMap<>();
+        for (int i = 0; i < vector.size(); i++) {
+            Result v = vector.get(i);
+            Result r = new Result(v.fragment, 1.0 / (rrfK + i + 1));
+            r.vectorScore = v.score;
+            byId.put(r.fragment.getId(), r);
         }
+        List<Long> missing = new ArrayList<>();
+        for (int i = 0; i < lexical.size(); i++) {
+            InvertedIndex.Hit h = lexical.get(i);
+            Result r = byId.get(h.id);
+            if (r == null) {
+                r = new Result(known.get(h.id), 0);
+                byId.put(h.id, r);
+                if (r.fragment == null) missing.add(h.id);
+            }
+            r.score += 1.0 / (rrfK + i + 1);
+            r.lexicalScore = h.score;
+        }
+        if (!missing.isEmpty()) {
+            for (ContentFragment f : fragmentRepository.findAllById(missing)) byId.get(f.getId()).fragment = f;
+        }
+        List<Result> rs = new ArrayList<>(byId.size());
+        for (Result r : byId.values()) {
+            // 已删除但尚未从词项索引移除的片段跳过
+            if (r.fragment != null) rs.add(r);
+        }
+        // 稳定排序，同分时保持向量结果在前的顺序
+        rs.sort(Comparator.comparingDouble((Result r) -> r.score).reversed());
+        return rs.subList(0, Math.min(k, rs.size()));
+    }
+
+    // 关键词优先经词项索引的 postings 求交解析成片段 id；词项索引未就绪时退回对 text / keywords 的 LIKE
+    private Filter filter(Scope scope) {
+        if (scope == null || scope.isEmpty()) return null;
+        Filter f = new Filter();
+        f.documentIds = scope.documentIds;
+        if (scope.keyword != null && !scope.keyword.isBlank()) {
+            long[] ids = lexicalIndex.containing(scope.keyword, scope.documentIds);
+            if (ids != null) {
+                f.ids = new ArrayList<>(ids.length);
+                for (long id : ids) f.ids.add(id);
+            } else {
+                String k = scope.keyword.trim().toLowerCase().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+                f.like = "%" + k + "%";
+            }
+        }
+        return f;
+    }
+
+    // 召回率评估：抽样已有片段的向量作查询，比较量化检索与精确检索的前 k 个结果（均不含查询片段自身）。
+    // pgvector 模式测的是线上索引，包含量化与 ANN 近似两部分误差；向量列不可用时在内存中按二值量化 + 重排估算
+    public Recall recall(int samples, int k, Integer rescoreFactor) {
+        int factor = rescoreFactor != null ? Math.max(1, rescoreFactor) : indexManager.rescoreFactor();
+        List<ContentFragment> sample = jdbcTemplate.query(
+                "SELECT id, embedding_json FROM content_fragments WHERE embedding_json IS NOT NULL ORDER BY RANDOM() LIMIT ?",
+                (rs, rowNum) -> {
+                    ContentFragment f = new ContentFragment();
+                    f.setId(rs.getLong(1));
+                    f.setEmbeddingJson(rs.getString(2));
+                    return f;
+                },
+                samples);
+        if (!sample.isEmpty() && vectorStore.accepts(VectorCodec.parse(sample.get(0).getEmbeddingJson()))) {
+            try {
+                return pgvectorRecall(sample, k, factor);
+            } catch (DataAccessException ignored) {
+                // 与 topK 一致，退回内存估算
+            }
+        }
+        return memoryRecall(sample, k, factor);
+    }
+
+    private Recall pgvectorRecall(List<ContentFragment> sample, int k, int factor) {
+        Recall r = new Recall("pgvector", indexManager.quantization(), k, indexManager.candidates(k, factor));
+        double sum = 0;
+        for (ContentFragment f : sample) {
+            float[] q = VectorCodec.parse(f.getEmbeddingJson());
+            if (!vectorStore.accepts(q)) continue;
+            List<Long> approx = new ArrayList<>();
+            for (Result x : nearest(q, k + 1, indexManager.candidates(k + 1, factor), null, null)) approx.add(x.fragment.getId());
+            // 关闭索引扫描，强制顺序扫描得到精确结果
+            List<Long> exact = readOnly.execute(status -> {
+                jdbcTemplate.execute("SET LOCAL enable_indexscan = off");
+                return jdbcTemplate.query(EXACT, ps -> {
+                    VectorStore.bind(ps, 1, q);
+                    ps.setInt(2, k + 1);
+                }, (rs, rowNum) -> rs.getLong(1));
+            });
+            double x = overlap(f.getId(), approx, exact, k);
+            if (x < 0) continue;
+            sum += x;
+            r.samples++;
+        }
+        r.recall = r.samples == 0 ? 0 : sum / r.samples;
+        r.indexBytes = indexManager.indexBytes();
+        Long rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM content_fragments WHERE embedding IS NOT NULL", Long.class);
+        r.fullPrecisionBytes = (rows == null ? 0 : rows) * vectorStore.dimension() * 4L;
+        return r;
+    }
+
+    private Recall memoryRecall(List<ContentFragment> sample, int k, int factor) {
+        Recall r = new Recall("memory", VectorIndexManager.BINARY, k, k * factor);
+        List<ContentFragment> all = fragmentRepository.findAll();
+        List<float[]> vectors = new ArrayList<>(all.size());
+        List<long[]> codes = new ArrayList<>(all.size());
+        for (ContentFragment f : all) {
+            float[] v = VectorCodec.parse(f.getEmbeddingJson());
+            vectors.add(v);
+            codes.add(VectorQuantizer.binary(v));
+        }
+        double sum = 0;
+        for (ContentFragment f : sample) {
+            float[] q = VectorCodec.parse(f.getEmbeddingJson());
+            long[] qc = VectorQuantizer.binary(q);
+            List<Integer> candidates = new ArrayList<>();
+            for (int i = 0; i < all.size(); i++) {
+                if (vectors.get(i).length == q.length && q.length > 0) candidates.add(i);
+            }
+            // 同分按下标排序，精确结果与重排结果在并列处取同样的片段
+            Comparator<Integer> byScore = Comparator.comparingDouble((Integer i) -> -VectorMath.cosine(q, vectors.get(i)))
+                    .thenComparingInt(i -> i);
+            List<Integer> exact = new ArrayList<>(candidates);
+            exact.sort(byScore);
+            candidates.sort(Comparator.comparingInt((Integer i) -> VectorQuantizer.hamming(qc, codes.get(i))));
+            List<Integer> rescored = new ArrayList<>(candidates.subList(0, Math.min(candidates.size(), (k + 1) * factor)));
+            rescored.sort(byScore);
+            double x = overlap(f.getId(), ids(all, rescored, k + 1), ids(all, exact, k + 1), k);
+            if (x < 0) continue;
+            sum += x;
+            r.samples++;
+        }
+        r.recall = r.samples == 0 ? 0 : sum / r.samples;
+        return r;
+    }
+
+    private static List<Long> ids(List<ContentFragment> all, List<Integer> order, int n) {
+        List<Long> ids = new ArrayList<>(n);
+        for (int i = 0; i < Math.min(n, order.size()); i++) ids.add(all.get(order.get(i)).getId());
+        return ids;
+    }
+
+    // 精确结果中有多少出现在近似结果里；没有可比较的结果时返回 -1，不计入平均
+    private static double overlap(Long self, List<Long> approx, List<Long> exact, int k) {
+        approx.remove(self);
+        exact.remove(self);
+        List<Long> truth = exact.subList(0, Math.min(k, exact.size()));
+        if (truth.isEmpty()) return -1;
+        Set<Long> found = new HashSet<>(approx.subList(0, Math.min(k, approx.size())));
+        int hit = 0;
+        for (Long id : truth) if (found.contains(id)) hit++;
+        return (double) hit / truth.size();
     }
 
-    private ContentFragment map(Long id, String text, String sectionPath, String pageRange) {
+    private ContentFragment map(Long id, Long documentId, String text, String sectionPath, String pageRange) {
         ContentFragment f = new ContentFragment();
         try { var idField = ContentFragment.class.getDeclaredField("id"); idField.setAccessible(true); idField.set(f, id); } catch (Exception ignored) {}
+        f.setDocumentId(documentId);
         f.setText(text);
         f.setSectionPath(sectionPath);
         f.setPageRange(pageRange);
         return f;
     }
 
-    private String toVectorString(List<Double> v) {
-        StringBuilder b = new StringBuilder("[");
-        for (int i = 0; i < v.size(); i++) { if (i>0) b.append(','); b.append(String.format("%.6f", v.get(i))); }
-        b.append(']');
-        return b.toString();
+    public static class Result {
+        public ContentFragment fragment;
+        public double score;
+        // 混合检索时两路的原始分：余弦相似度与 BM25，未出现在该路结果中为 null
+        public Double vectorScore;
+        public Double lexicalScore;
+        public Result(ContentFragment f, double s){ this.fragment = f; this.score = s; }
+        // 片段实体只读，与原结果共用
+        public Result(Result r){ this(r.fragment, r.score); this.vectorScore = r.vectorScore; this.lexicalScore = r.lexicalScore; }
     }
 
-    private double[] parse(String json) {
-        if (json == null || json.isBlank()) return null;
-        String[] parts = json.replace("[", "").replace("]", "").split(",");
-        double[] v = new double[parts.length];
-        for (int i = 0; i < parts.length; i++) v[i] = Double.parseDouble(parts[i]);
-        return v;
+    // 检索范围：documentIds 为 null 时不限文档，keyword 为空时不按关键词过滤（片段文本或 keywords 含该词）。
+    // 课程等更大的范围先解析成文档 id 列表
+    public static class Scope {
+        public List<Long> documentIds;
+        public String keyword;
+
+        public Scope(List<Long> documentIds, String keyword) {
+            this.documentIds = documentIds;
+            this.keyword = keyword;
+        }
+
+        public static Scope document(Long documentId) {
+            return new Scope(List.of(documentId), null);
+        }
+
+        boolean isEmpty() {
+            return documentIds == null && (keyword == null || keyword.isBlank());
+        }
     }
 
-    private double cosine(List<Double> a, double[] b) {
-        int n = Math.min(a.size(), b.length);
-        double dot = 0, na = 0, nb = 0;
-        for (int i = 0; i < n; i++) { dot += a.get(i) * b[i]; na += a.get(i) * a.get(i); nb += b[i] * b[i]; }
-        if (na == 0 || nb == 0) return 0;
-        return dot / (Math.sqrt(na) * Math.sqrt(nb));
+    // Scope 解析后的 SQL 条件；ids 为词项索引解析出的片段。id 列表各绑定为一个数组参数，
+    // 热门关键词可能解析出数万个片段，语句长度与参数个数都不随之增长
+    private static final class Filter {
+        List<Long> documentIds;
+        List<Long> ids;
+        String like;
+
+        String where() {
+            List<String> cs = new ArrayList<>();
+            if (documentIds != null) {
+                cs.add(documentIds.isEmpty() ? "1 = 0" : "document_id = ANY(?)");
+            }
+            if (ids != null) {
+                cs.add(ids.isEmpty() ? "1 = 0" : "id = ANY(?)");
+            }
+            if (like != null) cs.add("(LOWER(text) LIKE ? ESCAPE '\\' OR LOWER(keywords) LIKE ? ESCAPE '\\')");
+            return String.join(" AND ", cs);
+        }
+
+        Object[] args() {
+            List<Object> args = new ArrayList<>();
+            if (documentIds != null && !documentIds.isEmpty()) args.add(new SqlArrayValue("bigint", documentIds.toArray()));
+            if (ids != null && !ids.isEmpty()) args.add(new SqlArrayValue("bigint", ids.toArray()));
+            if (like != null) {
+                args.add(like);
+                args.add(like);
+            }
+            return args.toArray();
+        }
     }
 
-    public static class Result {
-        public ContentFragment fragment;
-        public double score;
-        public Result(ContentFragment f, double s){ this.fragment = f; this.score = s; }
+    public static class Recall {
+        public String mode;
+        public String quantization;
+        public int k;
+        public int candidates;
+        public int samples;
+        public double recall;
+        // 量化索引的实际大小与同样行数全精度向量的大小，用于比较压缩比；仅 pgvector 模式有值
+        public Long indexBytes;
+        public Long fullPrecisionBytes;
+
+        public Recall(String mode, String quantization, int k, int candidates) {
+            this.mode = mode;
+            this.quantization = quantization;
+            this.k = k;
+            this.candidates = candidates;
+        }
     }
 }
@@ -0,0 +1,230 @@
+package com.huixun.lms.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// 单次扫描各页文本：边读边规整换行、累计 token 估算，段落装不下时整段换到下一片，
+// 单段超过上限时在句末或空白处硬切；相邻片段保留一小段重叠，检索时不丢失跨片上下文
+@Component
+public class TokenAwareChunker implements ChunkingStrategy {
+
+    private static final String SENTENCE_END = "。！？；….!?;";
+
+    private final int maxUnits;
+    private final int overlapUnits;
+    private final int maxChars;
+
+    public TokenAwareChunker(@Value("${app.parse.chunk.max-tokens:800}") int maxTokens,
+                             @Value("${app.parse.chunk.overlap-tokens:80}") int overlapTokens,
+                             @Value("${app.parse.chunk.max-chars:4000}") int maxChars) {
+        this.maxUnits = Math.max(16, maxTokens) * TokenEstimator.UNITS_PER_TOKEN;
+        // 重叠不超过上限的四分之一，保证硬切时每一轮都有进展
+        this.overlapUnits = Math.max(0, Math.min(overlapTokens * TokenEstimator.UNITS_PER_TOKEN, maxUnits / 4));
+        this.maxChars = Math.max(64, maxChars);
+    }
+
+    @Override
+    public List<Chunk> chunk(List<String> pages) {
+        Run run = new Run();
+        for (int i = 0; i < pages.size(); i++) {
+            String text = pages.get(i);
+            if (text != null) run.page(text, i + 1);
+        }
+        run.finish();
+        return run.out;
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t' || c == '\f' || c == '\u3000' || c == '\u00A0';
+    }
+
+    private static boolean isBreak(char c) {
+        return isBlank(c) || c == '\n';
+    }
+
+    // 单次切分的可变状态；Bean 本身无状态，可被多个解析任务并发使用
+    private final class Run {
+        private final List<Chunk> out = new ArrayList<>();
+        private final StringBuilder para = new StringBuilder(256);
+        private int paraUnits;
+        private final StringBuilder cur = new StringBuilder(1024);
+        private int curUnits;
+        // cur 开头属于上一片重叠部分的长度，只有重叠内容时不单独成片
+        private int carried;
+        // cur 内各段起始偏移及其页码
+        private int[] markOffsets = new int[16];
+        private int[] markPages = new int[16];
+        private int marks;
+
+        void page(String text, int page) {
+            int newlines = 0;
+            int len = text.length();
+            for (int j = 0; j < len; j++) {
+                char c = text.charAt(j);
+                if (c == '\r') {
+                    if (j + 1 < len && text.charAt(j + 1) == '\n') continue;
+                    c = '\n';
+                }
+                if (c == '\n') {
+                    newlines++;
+                    continue;
+                }
+                // 行首空白与只含空白的行都不计入，段落以空行分隔
+                if ((newlines > 0 || para.length() == 0) && isBlank(c)) continue;
+                if (newlines >= 2) endParagraph(page);
+                else if (newlines == 1 && para.length() > 0) appendPara('\n');
+                newlines = 0;
+                appendPara(c);
+            }
+            // 换页即段落结束，保证片段页码只在段落边界上变化
+            endParagraph(page);
+        }
+
+        void finish() {
+            if (cur.length() > carried) emit(cur.length());
+        }
+
+        private void appendPara(char c) {
+            para.append(c);
+            paraUnits += TokenEstimator.units(c);
+        }
+
+        private void endParagraph(int page) {
+            int n = para.length();
+            while (n > 0 && isBreak(para.charAt(n - 1))) {
+                paraUnits -= TokenEstimator.units(para.charAt(n - 1));
+                n--;
+            }
+            para.setLength(n);
+            if (n == 0) {
+                paraUnits = 0;
+                return;
+            }
+            if (cur.length() > carried
+                    && (curUnits + 2 + paraUnits > maxUnits || cur.length() + 2 + n > maxChars)) {
+                int end = cur.length();
+                emit(end);
+                keepOverlap(overlapStart(end), end);
+            }
+            if (cur.length() > 0) {
+                cur.append("\n\n");
+                curUnits += 2;
+            }
+            mark(cur.length(), page);
+            cur.append(para);
+            curUnits += paraUnits;
+            para.setLength(0);
+            paraUnits = 0;
+            while (curUnits > maxUnits || cur.length() > maxChars) hardSplit();
+        }
+
+        // 超长段落：在上限以内找最靠后的段落/句末/空白边界切开，找不到再按上限硬切
+        private void hardSplit() {
+            int limit = 0;
+            int units = 0;
+            int len = cur.length();
+            while (limit < len && limit < maxChars) {
+                int u = TokenEstimator.units(cur.charAt(limit));
+                if (units + u > maxUnits) break;
+                units += u;
+                limit++;
+            }
+            int floor = Math.max(carried + 1, limit / 2);
+            int sentence = -1;
+            int space = -1;
+            int cut = -1;
+            for (int k = limit; k > floor; k--) {
+                char prev = cur.charAt(k - 1);
+                if (prev == '\n' && k >= 2 && cur.charAt(k - 2) == '\n') {
+                    cut = k;
+                    break;
+                }
+                if (sentence < 0 && SENTENCE_END.indexOf(prev) >= 0) sentence = k;
+                if (space < 0 && isBreak(prev)) space = k;
+            }
+            if (cut < 0) cut = sentence > 0 ? sentence : space > 0 ? space : limit;
+            if (cut < len && Character.isLowSurrogate(cur.charAt(cut)) && cut - 1 > carried) cut--;
+            if (cut <= carried) cut = Math.min(len, Math.max(limit, carried + 1));
+            emit(cut);
+            keepOverlap(overlapStart(cut), cut);
+        }
+
+        private void emit(int end) {
+            int start = 0;
+            int stop = end;
+            while (start < stop && isBreak(cur.charAt(start))) start++;
+            while (stop > start && isBreak(cur.charAt(stop - 1))) stop--;
+            if (start == stop) return;
+            out.add(new Chunk(cur.substring(start, stop), pageAt(start), pageAt(stop - 1)));
+        }
+
+        // 从 end 向前取约 overlapUnits 的尾部，再向后对齐到最近的句首，避免重叠从半句开始
+        private int overlapStart(int end) {
+            if (overlapUnits == 0) return end;
+            int u = 0;
+            int k = end;
+            int maxLen = maxChars / 4;
+            while (k > 0 && u < overlapUnits && end - k < maxLen) {
+                u += TokenEstimator.units(cur.charAt(k - 1));
+                k--;
+            }
+            if (k == 0) return end;
+            for (int j = k; j < end; j++) {
+                if (SENTENCE_END.indexOf(cur.charAt(j)) >= 0 || cur.charAt(j) == '\n') {
+                    return j + 1 < end ? j + 1 : k;
+                }
+            }
+            if (Character.isLowSurrogate(cur.charAt(k))) k++;
+            return k;
+        }
+
+        // 丢弃 from 之前的内容；[from, emitted) 是已输出片段的重叠尾部，与其后未输出的内容一起留作下一片开头
+        private void keepOverlap(int from, int emitted) {
+            int page = pageAt(Math.min(from, cur.length() - 1));
+            int w = 0;
+            for (int i = 0; i < marks; i++) {
+                if (markOffsets[i] > from) {
+                    markOffsets[w] = markOffsets[i] - from;
+                    markPages[w] = markPages[i];
+                    w++;
+                }
+            }
+            marks = w;
+            cur.delete(0, from);
+            carried = emitted - from;
+            if (cur.length() > 0 && (marks == 0 || markOffsets[0] > 0)) insertMark(0, page);
+            curUnits = TokenEstimator.units(cur, 0, cur.length());
+        }
+
+        private void mark(int offset, int page) {
+            if (marks == markOffsets.length) grow();
+            markOffsets[marks] = offset;
+            markPages[marks] = page;
+            marks++;
+        }
+
+        private void insertMark(int offset, int page) {
+            if (marks == markOffsets.length) grow();
+            System.arraycopy(markOffsets, 0, markOffsets, 1, marks);
+            System.arraycopy(markPages, 0, markPages, 1, marks);
+            markOffsets[0] = offset;
+            markPages[0] = page;
+            marks++;
+        }
+
+        private void grow() {
+            markOffsets = Arrays.copyOf(markOffsets, marks * 2);
+            markPages = Arrays.copyOf(markPages, marks * 2);
+        }
+
+        private int pageAt(int offset) {
+            int page = marks > 0 ? markPages[0] : 1;
+            for (int i = 0; i < marks && markOffsets[i] <= offset; i++) page = markPages[i];
+            return page;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.huixun.lms.service;
+
+// 不依赖分词器的 token 粗估，以 1/4 token 为单位累加：ASCII 约 4 个字符一个 token，
+// 汉字、假名、谚文及全角符号按 1.5 个 token 计，宁可偏大也不要超过模型上限
+public final class TokenEstimator {
+
+    public static final int UNITS_PER_TOKEN = 4;
+
+    private TokenEstimator() {}
+
+    public static int units(char c) {
+        if (c < 0x80) return 1;
+        if ((c >= 0x3000 && c <= 0x9FFF) || (c >= 0xAC00 && c <= 0xD7AF)
+                || (c >= 0xF900 && c <= 0xFAFF) || (c >= 0xFF00 && c <= 0xFFEF)) return 6;
+        // 扩展区汉字以代理对出现，两半合计同样是 6
+        if (Character.isSurrogate(c)) return 3;
+        return 2;
+    }
+
+    public static int units(CharSequence s, int from, int to) {
+        int u = 0;
+        for (int i = from; i < to; i++) u += units(s.charAt(i));
+        return u;
+    }
+
+    public static int estimateTokens(CharSequence s) {
+        if (s == null) return 0;
+        return (units(s, 0, s.length()) + UNITS_PER_TOKEN - 1) / UNITS_PER_TOKEN;
+    }
+}
@@ -0,0 +1,98 @@
+package com.huixun.lms.service;
+
+// 向量与文本形式 "[x1,x2,...]" 的互转，同时用于 embedding_json 列与 pgvector 文本字面量。
+// 固定保留 6 位小数，逐字符读写，不经过 String.format/Double.parseDouble，也不受默认 Locale 影响
+public final class VectorCodec {
+
+    private static final float[] EMPTY = new float[0];
+    private static final long SCALE = 1_000_000L;
+    private static final double[] POW10 = {1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+            1e13, 1e14, 1e15, 1e16, 1e17, 1e18};
+
+    private VectorCodec() {}
+
+    public static String format(float[] v) {
+        StringBuilder b = new StringBuilder(v.length * 10 + 2);
+        formatTo(b, v);
+        return b.toString();
+    }
+
+    public static void formatTo(StringBuilder b, float[] v) {
+        b.append('[');
+        for (int i = 0; i < v.length; i++) {
+            if (i > 0) b.append(',');
+            appendFixed(b, v[i]);
+        }
+        b.append(']');
+    }
+
+    private static void appendFixed(StringBuilder b, float f) {
+        if (!Float.isFinite(f)) throw new IllegalArgumentException("向量包含非有限值：" + f);
+        long scaled = Math.round((double) f * SCALE);
+        if (scaled < 0) {
+            b.append('-');
+            scaled = -scaled;
+        }
+        b.append(scaled / SCALE).append('.');
+        long frac = scaled % SCALE;
+        for (long p = SCALE / 10; p > 0; p /= 10) {
+            b.append((char) ('0' + frac / p));
+            frac %= p;
+        }
+    }
+
+    // 解析 "[...]"；容忍空白与科学计数法，空串、null 或 "[]" 返回空数组
+    public static float[] parse(String s) {
+        if (s == null) return EMPTY;
+        int len = s.length();
+        int i = 0;
+        while (i < len && (s.charAt(i) == '[' || Character.isWhitespace(s.charAt(i)))) i++;
+        int end = len;
+        while (end > i && (s.charAt(end - 1) == ']' || Character.isWhitespace(s.charAt(end - 1)))) end--;
+        if (i >= end) return EMPTY;
+        int n = 1;
+        for (int k = i; k < end; k++) if (s.charAt(k) == ',') n++;
+        float[] out = new float[n];
+        int idx = 0;
+        while (i < end && idx < n) {
+            int start = i;
+            while (i < end && s.charAt(i) != ',') i++;
+            out[idx++] = parseNumber(s, start, i);
+            i++;
+        }
+        return out;
+    }
+
+    private static float parseNumber(String s, int from, int to) {
+        while (from < to && Character.isWhitespace(s.charAt(from))) from++;
+        while (to > from && Character.isWhitespace(s.charAt(to - 1))) to--;
+        int i = from;
+        boolean negative = false;
+        if (i < to && (s.charAt(i) == '-' || s.charAt(i) == '+')) negative = s.charAt(i++) == '-';
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        for (; i < to; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    if (fraction) fractionDigits++;
+                } else if (!fraction) {
+                    // 超出精度的整数位只影响量级
+                    return Float.parseFloat(s.substring(from, to));
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                // 指数或其他少见写法交给 JDK
+                return Float.parseFloat(s.substring(from, to));
+            }
+        }
+        if (digits == 0) throw new NumberFormatException("无效的向量分量：" + s.substring(from, to));
+        double v = mantissa / POW10[fractionDigits];
+        return (float) (negative ? -v : v);
+    }
+}
@@ -0,0 +1,337 @@
+package com.huixun.lms.service;
+
+import com.huixun.lms.model.EmbeddingModel;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// content_fragments 向量列上的 ANN 索引。按配置以 HNSW 或 IVFFlat 建在量化表达式上（halfvec 为全精度的 1/2、bit 为 1/32），
+// 距离统一为余弦；检索先按索引取候选，再由全精度列按余弦距离重排。
+// 索引名带模型 id 而不带列名，切换模型互换列名时索引随列走。定时检查生效模型的索引：缺失、构建中断留下的无效索引、
+// 参数与配置不符时在后台 CONCURRENTLY 重建（先建新索引再替换，不阻塞读写）
+@Component
+public class VectorIndexManager {
+
+    public static final String NONE = "none";
+    public static final String HALFVEC = "halfvec";
+    public static final String BINARY = "binary";
+    public static final String HNSW = "hnsw";
+    public static final String IVFFLAT = "ivfflat";
+    private static final List<String> QUANTIZATIONS = List.of(NONE, HALFVEC, BINARY);
+    private static final String PREFIX = "idx_content_fragments_m";
+    private static final Pattern LISTS = Pattern.compile("lists='?(\\d+)");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EmbeddingModelRegistry models;
+    private final boolean enabled;
+    private final String type;
+    private final String quantization;
+    private final int rescoreFactor;
+    private final int m;
+    private final int efConstruction;
+    private final int lists;
+    private final int efSearch;
+    private final int probes;
+    private final String maintenanceWorkMem;
+    // 当前 IVFFlat 索引的聚类数，默认探测数按它推算
+    private volatile int builtLists;
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "vector-index");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public VectorIndexManager(JdbcTemplate jdbcTemplate,
+                              EmbeddingModelRegistry models,
+                              @Value("${app.vector.enabled:true}") boolean enabled,
+                              @Value("${app.vector.index.type:hnsw}") String type,
+                              @Value("${app.vector.quantization:binary}") String quantization,
+                              @Value("${app.vector.rescore-factor:4}") int rescoreFactor,
+                              @Value("${app.vector.index.m:16}") int m,
+                              @Value("${app.vector.index.ef-construction:64}") int efConstruction,
+                              @Value("${app.vector.index.lists:0}") int lists,
+                              @Value("${app.vector.index.ef-search:40}") int efSearch,
+                              @Value("${app.vector.index.probes:0}") int probes,
+                              @Value("${app.vector.index.maintenance-work-mem:}") String maintenanceWorkMem) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.models = models;
+        this.enabled = enabled;
+        this.type = type.trim().toLowerCase();
+        if (!HNSW.equals(this.type) && !IVFFLAT.equals(this.type)) {
+            throw new IllegalArgumentException("app.vector.index.type 只能是 hnsw 或 ivfflat：" + type);
+        }
+        this.quantization = quantization.trim().toLowerCase();
+        if (!QUANTIZATIONS.contains(this.quantization)) {
+            throw new IllegalArgumentException("app.vector.quantization 只能是 " + QUANTIZATIONS + "：" + quantization);
+        }
+        this.rescoreFactor = Math.max(1, rescoreFactor);
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.lists = lists;
+        this.efSearch = efSearch;
+        this.probes = probes;
+        this.maintenanceWorkMem = maintenanceWorkMem.trim();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String type() {
+        return type;
+    }
+
+    public String quantization() {
+        return quantization;
+    }
+
+    public int rescoreFactor() {
+        return rescoreFactor;
+    }
+
+    // 索引取回的候选数；量化丢失的精度由候选内的全精度重排弥补，倍数越大召回越高、重排越慢
+    public int candidates(int k) {
+        return candidates(k, rescoreFactor);
+    }
+
+    public int candidates(int k, int factor) {
+        return NONE.equals(quantization) ? k : k * Math.max(1, factor);
+    }
+
+    // 候选排序表达式，含一个向量参数。须与 indexSql 的索引表达式逐字一致，规划器才会走索引
+    public String candidateOrder(String column, int dimension) {
+        return candidateOrder(column, dimension, "?");
+    }
+
+    // query 为查询向量的 SQL 表达式，如参数占位符或批量检索中 VALUES 的列
+    public String candidateOrder(String column, int dimension, String query) {
+        switch (quantization) {
+            case BINARY:
+                return "binary_quantize(" + column + ")::bit(" + dimension + ") <~> binary_quantize(" + query + "::vector)";
+            case HALFVEC:
+                return column + "::halfvec(" + dimension + ") <=> " + query + "::vector::halfvec(" + dimension + ")";
+            default:
+                return column + " <=> " + query;
+        }
+    }
+
+    // 在当前事务内设置本次检索的搜索宽度，未指定时用配置值。
+    // HNSW 的 ef_search 不低于候选数，否则索引扫描返回的行数不足；IVFFlat 默认探测 sqrt(lists) 个聚类
+    public void prepare(int candidates, Integer efSearch, Integer probes) {
+        if (HNSW.equals(type)) {
+            int ef = Math.max(candidates, efSearch != null ? efSearch : this.efSearch);
+            jdbcTemplate.execute("SET LOCAL hnsw.ef_search = " + Math.max(1, Math.min(1000, ef)));
+        } else {
+            int p = probes != null ? probes : this.probes > 0 ? this.probes : autoProbes(builtLists);
+            jdbcTemplate.execute("SET LOCAL ivfflat.probes = " + Math.max(1, p));
+        }
+    }
+
+    public static String indexName(EmbeddingModel model, String quantization, String type) {
+        return PREFIX + model.getId() + "_" + quantization + "_" + type;
+    }
+
+    public String indexName(EmbeddingModel model) {
+        return indexName(model, quantization, type);
+    }
+
+    // 建索引的 DDL；维度超出该类型的索引上限时返回 null（HNSW/IVFFlat：vector 2000 维、halfvec 4000 维、bit 64000 维）
+    String indexSql(String name, EmbeddingModel model, long rows) {
+        String column = model.getVectorColumn();
+        int dim = model.getDimension();
+        String expression;
+        switch (quantization) {
+            case BINARY:
+                expression = "(binary_quantize(" + column + ")::bit(" + dim + ")) bit_hamming_ops";
+                break;
+            case HALFVEC:
+                if (dim > 4000) return null;
+                expression = "(" + column + "::halfvec(" + dim + ")) halfvec_cosine_ops";
+                break;
+            default:
+                if (dim > 2000) return null;
+                expression = column + " vector_cosine_ops";
+        }
+        String with = HNSW.equals(type)
+                ? "m = " + m + ", ef_construction = " + efConstruction
+                : "lists = " + listsFor(rows);
+        return "CREATE INDEX CONCURRENTLY IF NOT EXISTS " + name + " ON content_fragments USING " + type
+                + " (" + expression + ") WITH (" + with + ")";
+    }
+
+    int listsFor(long rows) {
+        return lists > 0 ? lists : autoLists(rows);
+    }
+
+    // pgvector 的建议：百万行以内 rows / 1000，以上 sqrt(rows)
+    static int autoLists(long rows) {
+        return rows <= 1_000_000 ? (int) Math.max(1, rows / 1000) : (int) Math.sqrt(rows);
+    }
+
+    static int autoProbes(int lists) {
+        return (int) Math.max(1, Math.round(Math.sqrt(lists)));
+    }
+
+    @Scheduled(initialDelayString = "${app.vector.index.initial-delay-ms:5000}",
+            fixedDelayString = "${app.vector.index.check-interval-ms:600000}")
+    public void check() {
+        submit(false);
+    }
+
+    // 按当前配置重建生效模型的索引；已有构建在进行时返回 false
+    public boolean rebuild() {
+        if (!enabled) return false;
+        return submit(true);
+    }
+
+    private boolean submit(boolean force) {
+        if (!enabled || worker.isShutdown() || !busy.compareAndSet(false, true)) return false;
+        worker.execute(() -> {
+            try {
+                ensure(models.active(), force);
+            } catch (Exception ignored) {
+                // 下次检查时重试；构建中断留下的无效索引届时会被替换
+            } finally {
+                busy.set(false);
+            }
+        });
+        return true;
+    }
+
+    public boolean isBuilding() {
+        return busy.get();
+    }
+
+    // 保证模型的向量列上有按当前配置建好的有效索引，并删除该模型按其他配置建的旧索引。
+    // 在调用线程上同步执行，模型回填完成后、切换之前也由回填任务调用
+    public void ensure(EmbeddingModel model, boolean force) {
+        if (!enabled || models.vectorColumn(model) == null) return;
+        String name = indexName(model);
+        long rows = rows(model.getVectorColumn());
+        Boolean valid = valid(name);
+        boolean replace = valid != null && (force || !valid || drifted(name, rows));
+        // IVFFlat 的聚类中心取自建索引时已有的数据，空表上建出的索引没有意义
+        if (IVFFLAT.equals(type) && rows == 0) return;
+        if (valid == null) {
+            build(indexSql(name, model, rows));
+        } else if (replace) {
+            String fresh = name + "_new";
+            jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + fresh);
+            String sql = indexSql(fresh, model, rows);
+            if (sql != null) {
+                build(sql);
+                jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + name);
+                jdbcTemplate.execute("ALTER INDEX " + fresh + " RENAME TO " + name);
+            }
+        }
+        List<String> existing = jdbcTemplate.queryForList(
+                "SELECT indexname FROM pg_indexes WHERE tablename = 'content_fragments'", String.class);
+        String own = PREFIX + model.getId() + "_";
+        for (String idx : existing) {
+            if (idx.startsWith(own) && !idx.equals(name)) jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + idx);
+        }
+        if (IVFFLAT.equals(type) && models.isActive(model.getName())) builtLists = builtLists(name);
+    }
+
+    // CONCURRENTLY 不能在事务内执行；maintenance_work_mem 只在本连接上临时调大，用完复原，不影响连接池中的其他会话
+    private void build(String sql) {
+        if (sql == null) return;
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (Statement st = con.createStatement()) {
+                if (!maintenanceWorkMem.isEmpty()) st.execute("SET maintenance_work_mem = '" + maintenanceWorkMem.replace("'", "") + "'");
+                try {
+                    st.execute(sql);
+                } finally {
+                    if (!maintenanceWorkMem.isEmpty()) st.execute("RESET maintenance_work_mem");
+                }
+            }
+            return null;
+        });
+    }
+
+    private long rows(String column) {
+        Long n = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM content_fragments WHERE " + column + " IS NOT NULL", Long.class);
+        return n == null ? 0 : n;
+    }
+
+    // 索引不存在时为 null
+    private Boolean valid(String name) {
+        List<Boolean> v = jdbcTemplate.queryForList("SELECT indisvalid FROM pg_index WHERE indexrelid = to_regclass(?)", Boolean.class, name);
+        return v.isEmpty() ? null : v.get(0);
+    }
+
+    private String definition(String name) {
+        List<String> d = jdbcTemplate.queryForList("SELECT indexdef FROM pg_indexes WHERE indexname = ?", String.class, name);
+        return d.isEmpty() ? null : d.get(0);
+    }
+
+    private int builtLists(String name) {
+        String def = definition(name);
+        Matcher mt = def == null ? null : LISTS.matcher(def);
+        return mt != null && mt.find() ? Integer.parseInt(mt.group(1)) : 0;
+    }
+
+    // 索引参数与当前配置不符。自动聚类数时，语料增减到与建索引时相差一倍以上才重建，避免频繁重建
+    private boolean drifted(String name, long rows) {
+        if (HNSW.equals(type)) {
+            String def = definition(name);
+            return def != null && !(def.contains("m='" + m + "'") && def.contains("ef_construction='" + efConstruction + "'"));
+        }
+        int built = builtLists(name);
+        if (lists > 0) return built != lists;
+        int want = autoLists(rows);
+        return built == 0 || want > built * 2 || want * 2 < built;
+    }
+
+    // 生效模型当前索引的大小（检索时需常驻内存的部分），索引不存在时为 0
+    public long indexBytes() {
+        Long bytes = jdbcTemplate.queryForObject("SELECT COALESCE(pg_relation_size(to_regclass(?)), 0)", Long.class,
+                indexName(models.active()));
+        return bytes == null ? 0 : bytes;
+    }
+
+    public Status status() {
+        Status s = new Status();
+        s.enabled = enabled;
+        s.type = type;
+        s.quantization = quantization;
+        s.building = busy.get();
+        EmbeddingModel model = models.active();
+        if (!enabled || models.vectorColumn(model) == null) return s;
+        s.name = indexName(model);
+        s.valid = valid(s.name);
+        s.definition = definition(s.name);
+        s.rows = rows(model.getVectorColumn());
+        s.sizeBytes = s.valid == null ? 0 : indexBytes();
+        return s;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+
+    public static class Status {
+        public boolean enabled;
+        public String type;
+        public String quantization;
+        public boolean building;
+        public String name;
+        public Boolean valid;
+        public String definition;
+        public long rows;
+        public long sizeBytes;
+    }
+}
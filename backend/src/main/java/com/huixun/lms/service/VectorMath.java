@@ -0,0 +1,33 @@
+package com.huixun.lms.service;
+
+public final class VectorMath {
+
+    private VectorMath() {}
+
+    // 维度不一致时按较短的长度计算；任一向量为空或零向量时返回 0
+    public static double cosine(float[] a, float[] b) {
+        if (a == null || b == null) return 0;
+        int n = Math.min(a.length, b.length);
+        double dot = 0, na = 0, nb = 0;
+        for (int i = 0; i < n; i++) {
+            double x = a[i];
+            double y = b[i];
+            dot += x * y;
+            na += x * x;
+            nb += y * y;
+        }
+        if (na == 0 || nb == 0) return 0;
+        return dot / (Math.sqrt(na) * Math.sqrt(nb));
+    }
+
+    // 单位化后的副本；零向量返回 null
+    public static float[] normalize(float[] v) {
+        double norm = 0;
+        for (float x : v) norm += (double) x * x;
+        if (norm == 0) return null;
+        float inv = (float) (1 / Math.sqrt(norm));
+        float[] out = new float[v.length];
+        for (int i = 0; i < v.length; i++) out[i] = v[i] * inv;
+        return out;
+    }
+}
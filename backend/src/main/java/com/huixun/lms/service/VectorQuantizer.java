@@ -0,0 +1,24 @@
+package com.huixun.lms.service;
+
+// 向量的二值量化：每维只保留符号位（> 0 为 1，与 pgvector 的 binary_quantize 一致），1536 维从 6KB 压到 192 字节。
+// 汉明距离只用于粗排候选，最终顺序由全精度向量重新计算
+public final class VectorQuantizer {
+
+    private VectorQuantizer() {
+    }
+
+    public static long[] binary(float[] v) {
+        long[] bits = new long[(v.length + 63) >>> 6];
+        for (int i = 0; i < v.length; i++) {
+            if (v[i] > 0) bits[i >>> 6] |= 1L << (i & 63);
+        }
+        return bits;
+    }
+
+    public static int hamming(long[] a, long[] b) {
+        int n = Math.min(a.length, b.length);
+        int d = 0;
+        for (int i = 0; i < n; i++) d += Long.bitCount(a[i] ^ b[i]);
+        return d;
+    }
+}
@@ -0,0 +1,173 @@
+package com.huixun.lms.service;
+
+import com.huixun.lms.model.ContentFragment;
+import com.huixun.lms.model.EmbeddingModel;
+import com.pgvector.PGvector;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.postgresql.core.BaseConnection;
+import org.postgresql.core.Oid;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+// pgvector 列的写入与参数绑定。向量作为 PGvector 参数传入，SQL 文本固定，驱动可以复用服务端预编译语句；
+// 连接上启用 vector 类型的二进制发送后，参数按 float4 原样传输，不再经过文本格式化与服务端解析。
+// 每个嵌入模型有自己的列（见 EmbeddingModel），生效模型固定为 embedding_json/embedding；列上的索引由 VectorIndexManager 维护
+@Component
+public class VectorStore {
+
+    // 只在写入时该模型仍是生效模型才更新，切换与写入并发时不会把旧模型的向量写进新模型的列
+    private static final String ACTIVE_GUARD = " AND EXISTS (SELECT 1 FROM embedding_models WHERE name = ? AND status = 'ACTIVE')";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EmbeddingModelRegistry models;
+    private final MemoryVectorIndex memoryIndex;
+    private final boolean enabled;
+    private final int batchSize;
+    private final Counter skipped;
+
+    public VectorStore(JdbcTemplate jdbcTemplate,
+                       MeterRegistry registry,
+                       EmbeddingModelRegistry models,
+                       MemoryVectorIndex memoryIndex,
+                       @Value("${app.vector.enabled:true}") boolean enabled,
+                       @Value("${app.vector.batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.models = models;
+        this.memoryIndex = memoryIndex;
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.skipped = Counter.builder("vector.writes.skipped").tag("reason", "dimension").register(registry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int dimension() {
+        return models.active().getDimension();
+    }
+
+    // 查询向量能否走 pgvector 列：维度与列定义不一致时数据库必然报错，调用方应直接走回退路径
+    public boolean accepts(float[] v) {
+        EmbeddingModel active = models.active();
+        return enabled && models.vectorColumn(active) != null && v != null && v.length == active.getDimension();
+    }
+
+    // 写入生效模型的列。fragments 与 vectors 按下标一一对应，同时写入 embedding_json 与向量列。
+    // 维度与列定义不符的向量只写 JSON 并计数；向量列不存在（未安装 pgvector）时只写 JSON；
+    // 模型已被切换时抛出 VectorWriteException，由任务重试按新模型嵌入
+    public void writeEmbeddings(EmbeddingModel model, List<ContentFragment> fragments, List<float[]> vectors) {
+        int[] counts = write(EmbeddingModelRegistry.JSON_COLUMN, models.vectorColumn(model) != null ? EmbeddingModelRegistry.VECTOR_COLUMN : null,
+                model.getDimension(), model.getName(), fragments, vectors, true);
+        for (int c : counts) {
+            // 0 行：片段已被删除，或模型已切换
+            if (c == 0 && !models.isActive(model.getName())) {
+                throw new VectorWriteException("嵌入模型已切换为 " + models.active().getName() + "，需按新模型重新嵌入", null);
+            }
+        }
+        memoryIndex.added(model.getName(), fragments, vectors);
+    }
+
+    // 写入指定模型自己的列（回填未生效的模型），不设置实体上的 embeddingJson
+    public void writeModelColumns(EmbeddingModel model, List<ContentFragment> fragments, List<float[]> vectors) {
+        write(model.getJsonColumn(), models.vectorColumn(model), model.getDimension(), null, fragments, vectors, false);
+    }
+
+    private int[] write(String jsonColumn, String vectorColumn, int dimension, String guardModel,
+                        List<ContentFragment> fragments, List<float[]> vectors, boolean updateEntities) {
+        if (fragments.size() != vectors.size()) {
+            throw new IllegalArgumentException("片段与向量数量不一致：" + fragments.size() + " / " + vectors.size());
+        }
+        String[] json = new String[fragments.size()];
+        for (int i = 0; i < json.length; i++) {
+            json[i] = VectorCodec.format(vectors.get(i));
+            if (updateEntities) fragments.get(i).setEmbeddingJson(json[i]);
+        }
+        int[] counts = new int[fragments.size()];
+        String column = vectorColumn;
+        for (int from = 0; from < fragments.size(); from += batchSize) {
+            int start = from;
+            int end = Math.min(fragments.size(), from + batchSize);
+            boolean withVector = column != null;
+            String sql = "UPDATE content_fragments SET " + jsonColumn + " = ?" + (withVector ? ", " + column + " = ?" : "")
+                    + " WHERE id = ?" + (guardModel != null ? ACTIVE_GUARD : "");
+            try {
+                int[] c = jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        int idx = start + i;
+                        int p = 1;
+                        ps.setString(p++, json[idx]);
+                        if (withVector) {
+                            float[] v = vectors.get(idx);
+                            if (v.length == dimension) {
+                                bind(ps, p++, v);
+                            } else {
+                                ps.setNull(p++, Types.OTHER);
+                                skipped.increment();
+                            }
+                        }
+                        ps.setLong(p++, fragments.get(idx).getId());
+                        if (guardModel != null) ps.setString(p, guardModel);
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return end - start;
+                    }
+                });
+                System.arraycopy(c, 0, counts, start, c.length);
+            } catch (DataAccessException e) {
+                if (withVector && missingColumn(e)) {
+                    // 列或 vector 类型不存在：记下后本批起只写 JSON 列，其他错误仍使任务失败
+                    models.columnMissing(column);
+                    column = null;
+                    from -= batchSize;
+                    continue;
+                }
+                throw new VectorWriteException("向量写入失败（第 " + (start + 1) + "-" + end + " 条，共 " + fragments.size() + " 条）："
+                        + e.getMostSpecificCause().getMessage(), e);
+            }
+        }
+        return counts;
+    }
+
+    // 42703 列不存在、42704 类型不存在（PostgreSQL）；42S22 / 42122 为 H2 等的列不存在
+    private static boolean missingColumn(DataAccessException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException sql) {
+                String state = sql.getSQLState();
+                if ("42703".equals(state) || "42704".equals(state) || "42S22".equals(state) || "42122".equals(state)) return true;
+            }
+        }
+        return false;
+    }
+
+    // 把向量绑定为 pgvector 参数；写入与查询（SearchService 等）共用
+    public static void bind(PreparedStatement ps, int index, float[] v) throws SQLException {
+        enableBinarySend(ps.getConnection());
+        ps.setObject(index, new PGvector(v));
+    }
+
+    // pgjdbc 只对登记过的类型 OID 使用二进制参数；vector 的 OID 随库而定，只能在连接上按需登记
+    private static void enableBinarySend(Connection con) throws SQLException {
+        if (!con.isWrapperFor(BaseConnection.class)) return;
+        BaseConnection pg = con.unwrap(BaseConnection.class);
+        int oid = pg.getTypeInfo().getPGType("vector");
+        if (oid != Oid.UNSPECIFIED && !pg.binaryTransferSend(oid)) pg.getQueryExecutor().addBinarySendOid(oid);
+    }
+
+    public static class VectorWriteException extends RuntimeException {
+        public VectorWriteException(String message, Throwable cause) { super(message, cause); }
+    }
+}
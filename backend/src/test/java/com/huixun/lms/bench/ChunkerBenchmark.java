@@ -0,0 +1,87 @@
+package com.huixun.lms.bench;
+
+import com.huixun.lms.service.ChunkingStrategy;
+import com.huixun.lms.service.TokenAwareChunker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// 运行：mvn -Pbench test-compile exec:exec
+// 对比旧的正则切分与单次扫描切分在大体量中文文本上的吞吐
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkerBenchmark {
+
+    private static final String HANZI = "学习数据结构算法课程教材章节练习题目知识要点分析理解应用系统设计实现方法过程结果";
+
+    @Param({"200", "2000"})
+    public int pageCount;
+
+    private List<String> pages;
+    private ChunkingStrategy chunker;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(7);
+        pages = new ArrayList<>(pageCount);
+        for (int p = 0; p < pageCount; p++) {
+            StringBuilder b = new StringBuilder(2400);
+            for (int para = 0; para < 4; para++) {
+                for (int line = 0; line < 8; line++) {
+                    for (int i = 0; i < 36; i++) b.append(HANZI.charAt(rnd.nextInt(HANZI.length())));
+                    b.append(rnd.nextInt(4) == 0 ? "。" : "，").append('\n');
+                }
+                b.append('\n');
+            }
+            pages.add(b.toString());
+        }
+        chunker = new TokenAwareChunker(800, 80, 4000);
+    }
+
+    @Benchmark
+    public List<ChunkingStrategy.Chunk> tokenAware() {
+        return chunker.chunk(pages);
+    }
+
+    @Benchmark
+    public List<ChunkingStrategy.Chunk> regexBaseline() {
+        List<ChunkingStrategy.Chunk> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        int curStart = 0;
+        int curEnd = 0;
+        for (int i = 0; i < pages.size(); i++) {
+            int page = i + 1;
+            String normalized = pages.get(i).replaceAll("\r", "\n").replaceAll("\n{2,}", "\n\n");
+            for (String p : normalized.split("\n\n")) {
+                if (p.trim().isEmpty()) continue;
+                if (cur.length() > 0 && cur.length() + p.length() + 2 > 1200) {
+                    out.add(new ChunkingStrategy.Chunk(cur.toString(), curStart, curEnd));
+                    cur = new StringBuilder();
+                }
+                if (cur.length() == 0) curStart = page;
+                else cur.append("\n\n");
+                cur.append(p);
+                curEnd = page;
+            }
+        }
+        if (cur.length() > 0) out.add(new ChunkingStrategy.Chunk(cur.toString(), curStart, curEnd));
+        return out;
+    }
+}
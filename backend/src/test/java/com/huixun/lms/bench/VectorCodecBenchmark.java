@@ -0,0 +1,84 @@
+package com.huixun.lms.bench;
+
+import com.huixun.lms.service.VectorCodec;
+import com.huixun.lms.service.VectorMath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// 运行：mvn -Pbench test-compile exec:exec -Dbench.include=VectorCodec（加 -prof gc 可看每次操作的分配量）
+// 对比原先 List<Double> + String.format/split 的写法与 float[] + VectorCodec 的序列化、解析与相似度计算
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VectorCodecBenchmark {
+
+    @Param({"1536"})
+    public int dim;
+
+    private float[] vector;
+    private List<Double> boxed;
+    private String text;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(11);
+        vector = new float[dim];
+        boxed = new ArrayList<>(dim);
+        for (int i = 0; i < dim; i++) {
+            vector[i] = (float) rnd.nextGaussian() * 0.05f;
+            boxed.add((double) vector[i]);
+        }
+        text = VectorCodec.format(vector);
+    }
+
+    @Benchmark
+    public String formatLegacy() {
+        return "[" + boxed.stream().map(d -> String.format("%.6f", d)).collect(Collectors.joining(",")) + "]";
+    }
+
+    @Benchmark
+    public String formatCodec() {
+        return VectorCodec.format(vector);
+    }
+
+    @Benchmark
+    public double parseAndScoreLegacy() {
+        String s = text.replace("[", "").replace("]", "");
+        String[] parts = s.split(",");
+        List<Double> v = new ArrayList<>(parts.length);
+        for (String p : parts) v.add(Double.parseDouble(p.trim()));
+        int n = Math.min(boxed.size(), v.size());
+        double dot = 0, na = 0, nb = 0;
+        for (int i = 0; i < n; i++) {
+            double x = boxed.get(i);
+            double y = v.get(i);
+            dot += x * y;
+            na += x * x;
+            nb += y * y;
+        }
+        return dot / (Math.sqrt(na) * Math.sqrt(nb));
+    }
+
+    @Benchmark
+    public double parseAndScoreCodec() {
+        return VectorMath.cosine(vector, VectorCodec.parse(text));
+    }
+}
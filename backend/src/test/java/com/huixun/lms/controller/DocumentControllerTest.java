@@ -0,0 +1,139 @@
+package com.huixun.lms.controller;
+
+import com.huixun.lms.LmsApplication;
+import com.huixun.lms.model.ContentFragment;
+import com.huixun.lms.model.Document;
+import com.huixun.lms.repository.ContentFragmentRepository;
+import com.huixun.lms.repository.DocumentRepository;
+import com.huixun.lms.service.ProgressPublisher;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(classes = LmsApplication.class)
+@AutoConfigureMockMvc
+class DocumentControllerTest {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    DocumentRepository documentRepository;
+
+    @Autowired
+    ContentFragmentRepository fragmentRepository;
+
+    @Autowired
+    ProgressPublisher progressPublisher;
+
+    @Test
+    void uploadRecordsSizeAndChecksum() throws Exception {
+        byte[] content = ("%PDF-1.4 streaming " + System.nanoTime()).getBytes(StandardCharsets.UTF_8);
+        String sha = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        String body = mockMvc.perform(multipart("/api/documents/upload")
+                        .file(new MockMultipartFile("file", "a.pdf", "application/pdf", content)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String id = body.replaceAll(".*\"documentId\":(\\d+).*", "$1");
+
+        mockMvc.perform(get("/api/documents/" + id))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.sizeBytes").value(content.length))
+                .andExpect(jsonPath("$.contentHash").value(sha));
+    }
+
+    @Test
+    void duplicateUploadReusesBlob() throws Exception {
+        byte[] content = ("%PDF-1.4 dedup " + System.nanoTime()).getBytes(StandardCharsets.UTF_8);
+        String sha = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        Long first = upload(content);
+        Long second = upload(content);
+
+        Document a = documentRepository.findById(first).orElseThrow();
+        Document b = documentRepository.findById(second).orElseThrow();
+        assertEquals(a.getStoragePath(), b.getStoragePath());
+
+        mockMvc.perform(get("/api/documents/lookup").param("sha256", sha))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.exists").value(true));
+    }
+
+    @Test
+    void instantUploadClonesFragmentsOfProcessedDocument() throws Exception {
+        String sha = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(("done" + System.nanoTime()).getBytes(StandardCharsets.UTF_8)));
+        Document src = new Document();
+        src.setFilename("src.pdf");
+        Path blob = Files.createDirectories(Path.of("target/test-storage/docs")).resolve(sha + ".pdf");
+        Files.write(blob, new byte[]{1});
+        src.setStoragePath(blob.toString());
+        src.setContentHash(sha);
+        src.setStatus("DONE");
+        src = documentRepository.save(src);
+        ContentFragment f = new ContentFragment();
+        f.setDocumentId(src.getId());
+        f.setText("片段内容");
+        f.setEmbeddingJson("[0.1,0.2]");
+        fragmentRepository.save(f);
+
+        String body = mockMvc.perform(post("/api/documents/instant").contentType("application/json")
+                        .content("{\"sha256\":\"" + sha + "\",\"filename\":\"copy.pdf\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("DONE"))
+                .andReturn().getResponse().getContentAsString();
+        Long copy = Long.valueOf(body.replaceAll(".*\"documentId\":(\\d+).*", "$1"));
+        var cloned = fragmentRepository.findByDocumentId(copy);
+        assertEquals(1, cloned.size());
+        assertEquals("[0.1,0.2]", cloned.get(0).getEmbeddingJson());
+
+        mockMvc.perform(post("/api/documents/instant").contentType("application/json")
+                        .content("{\"sha256\":\"deadbeef\",\"filename\":\"x.pdf\"}"))
+                .andExpect(status().isNotFound());
+
+        // 存储文件已被删除时不再复用
+        Files.delete(blob);
+        mockMvc.perform(post("/api/documents/instant").contentType("application/json")
+                        .content("{\"sha256\":\"" + sha + "\",\"filename\":\"copy.pdf\"}"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void statusFollowsManualUpdate() throws Exception {
+        Document d = new Document();
+        d.setFilename("s.pdf");
+        d.setStoragePath("missing.pdf");
+        d.setStatus("UPLOADED");
+        d = documentRepository.save(d);
+        progressPublisher.stage(d.getId(), "PARSING", null);
+
+        mockMvc.perform(put("/api/documents/" + d.getId()).contentType("application/json").content("{\"status\":\"FAILED\"}"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/documents/" + d.getId() + "/status"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("FAILED"));
+    }
+
+    private Long upload(byte[] content) throws Exception {
+        String body = mockMvc.perform(multipart("/api/documents/upload")
+                        .file(new MockMultipartFile("file", "a.pdf", "application/pdf", content)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return Long.valueOf(body.replaceAll(".*\"documentId\":(\\d+).*", "$1"));
+    }
+}
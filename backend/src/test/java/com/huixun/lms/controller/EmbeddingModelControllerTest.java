@@ -0,0 +1,98 @@
+package com.huixun.lms.controller;
+
+import com.huixun.lms.LmsApplication;
+import com.huixun.lms.model.ContentFragment;
+import com.huixun.lms.repository.ContentFragmentRepository;
+import com.huixun.lms.service.EmbeddingService;
+import com.huixun.lms.service.VectorCodec;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// 切换生效模型会影响共用数据库的其他测试，使用独立的内存库
+@SpringBootTest(classes = LmsApplication.class, properties = {
+        "spring.datasource.url=jdbc:h2:mem:embedding_models;DB_CLOSE_DELAY=-1",
+        "app.vector.memory-index.snapshot-path=target/embedding-models/hnsw-index.bin",
+        "app.vector.memory-index.matrix-path=target/embedding-models/vectors"
+})
+@AutoConfigureMockMvc
+class EmbeddingModelControllerTest {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    ContentFragmentRepository fragmentRepository;
+
+    @Autowired
+    EmbeddingService embeddingService;
+
+    @Test
+    void backfillsThenSwitchesModelWithoutLosingSearch() throws Exception {
+        String oldModel = embeddingService.modelId();
+        List<ContentFragment> saved = new ArrayList<>();
+        for (String text : List.of("二叉树的前序遍历与中序遍历", "细胞膜由磷脂双分子层构成", "牛顿第二定律描述力与加速度")) {
+            ContentFragment f = new ContentFragment();
+            f.setDocumentId(424242L);
+            f.setText(text);
+            f.setEmbeddingJson(VectorCodec.format(embeddingService.embedText(text)));
+            saved.add(fragmentRepository.save(f));
+        }
+
+        String body = mockMvc.perform(post("/api/embedding-models").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"name\":\"local:ngram-v1:64\"}"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.status").value("BACKFILLING"))
+                .andReturn().getResponse().getContentAsString();
+        String id = body.replaceAll(".*\"id\":(\\d+).*", "$1");
+        mockMvc.perform(post("/api/embedding-models").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"name\":\"local:ngram-v1:64\"}"))
+                .andExpect(status().isConflict());
+
+        // 回填期间检索仍使用旧模型
+        mockMvc.perform(get("/api/search/fragments").param("q", "二叉树遍历").param("topK", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].fragment.text").value("二叉树的前序遍历与中序遍历"));
+
+        long deadline = System.currentTimeMillis() + 30000;
+        String list = "";
+        while (System.currentTimeMillis() < deadline) {
+            list = mockMvc.perform(get("/api/embedding-models")).andReturn().getResponse().getContentAsString();
+            if (list.contains("\"status\":\"READY\"")) break;
+            Thread.sleep(100);
+        }
+        assertTrue(list.contains("\"status\":\"READY\""), list);
+
+        mockMvc.perform(post("/api/embedding-models/" + id + "/activate"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("ACTIVE"));
+        assertEquals("local:ngram-v1:64", embeddingService.modelId());
+        for (ContentFragment f : saved) {
+            assertEquals(64, VectorCodec.parse(fragmentRepository.findById(f.getId()).orElseThrow().getEmbeddingJson()).length);
+        }
+        mockMvc.perform(get("/api/search/fragments").param("q", "二叉树遍历").param("topK", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].fragment.text").value("二叉树的前序遍历与中序遍历"));
+
+        // 旧模型的列保留到显式删除
+        String models = mockMvc.perform(get("/api/embedding-models")).andReturn().getResponse().getContentAsString();
+        assertTrue(models.contains("\"name\":\"" + oldModel + "\"") && models.contains("\"status\":\"RETIRED\""), models);
+        String oldId = models.replaceAll(".*\\{\"id\":(\\d+),\"name\":\"" + oldModel.replace(":", "\\:") + "\".*", "$1");
+        mockMvc.perform(delete("/api/embedding-models/" + id)).andExpect(status().isConflict());
+        mockMvc.perform(delete("/api/embedding-models/" + oldId)).andExpect(status().isNoContent());
+    }
+}
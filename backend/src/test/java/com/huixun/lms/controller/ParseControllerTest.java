@@ -0,0 +1,294 @@
+package com.huixun.lms.controller;
+
+import com.huixun.lms.LmsApplication;
+import com.huixun.lms.model.Document;
+import com.huixun.lms.model.ContentFragment;
+import com.huixun.lms.model.Course;
+import com.huixun.lms.model.IngestionJob;
+import com.huixun.lms.model.Question;
+import com.huixun.lms.model.Quiz;
+import com.huixun.lms.repository.ContentFragmentRepository;
+import com.huixun.lms.repository.CourseRepository;
+import com.huixun.lms.repository.DocumentRepository;
+import com.huixun.lms.repository.IngestionJobRepository;
+import com.huixun.lms.repository.QuestionRepository;
+import com.huixun.lms.repository.QuizRepository;
+import com.huixun.lms.service.ParseAdmission;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(classes = LmsApplication.class)
+@AutoConfigureMockMvc
+class ParseControllerTest {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    DocumentRepository documentRepository;
+
+    @Autowired
+    ContentFragmentRepository fragmentRepository;
+
+    @Autowired
+    IngestionJobRepository jobRepository;
+
+    @Autowired
+    ParseAdmission admission;
+
+    @Autowired
+    CourseRepository courseRepository;
+
+    @Autowired
+    QuizRepository quizRepository;
+
+    @Autowired
+    QuestionRepository questionRepository;
+
+    @Test
+    void startReturnsJobImmediately() throws Exception {
+        Document d = new Document();
+        d.setFilename("missing.pdf");
+        d.setStoragePath("storage/test/missing.pdf");
+        d.setStatus("UPLOADED");
+        d = documentRepository.save(d);
+
+        String body = mockMvc.perform(post("/api/parse/" + d.getId()))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.documentId").value(d.getId()))
+                .andReturn().getResponse().getContentAsString();
+        String jobId = body.replaceAll(".*\"jobId\":(\\d+).*", "$1");
+
+        mockMvc.perform(get("/api/parse/jobs/" + jobId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.documentId").value(d.getId()));
+    }
+
+    @Test
+    void requeuesOnlyJobsWhoseHeartbeatExpired() {
+        Instant now = Instant.now();
+        Instant longAgo = now.minusSeconds(7200);
+        IngestionJob alive = runningJob(424242L, longAgo, now.minusSeconds(10));
+        IngestionJob lost = runningJob(424243L, longAgo, longAgo);
+
+        jobRepository.requeueStale(now.minusSeconds(300), now);
+        // 执行了两小时但仍在刷新心跳的任务不会被重复执行
+        assertEquals("RUNNING", jobRepository.findById(alive.getId()).orElseThrow().getStatus());
+        // 失联的任务重新排队（可能随即被调度器领取）
+        assertNotEquals("RUNNING", jobRepository.findById(lost.getId()).orElseThrow().getStatus());
+    }
+
+    @Test
+    void admissionRejectionRequeuesWithoutUsingAnAttempt() throws Exception {
+        Path file = writePdf(2, p -> "budget " + p);
+        Document d = new Document();
+        d.setFilename("budget.pdf");
+        d.setStoragePath(file.toString());
+        d.setStatus("UPLOADED");
+        Long id = documentRepository.save(d).getId();
+
+        IngestionJob job;
+        // 占满整份预算，任务等待超时后被放回队列
+        try (ParseAdmission.Permit ignored = admission.acquire(Long.MAX_VALUE / 4)) {
+            mockMvc.perform(post("/api/parse/" + id)).andExpect(status().isAccepted());
+            long deadline = System.currentTimeMillis() + 20000;
+            do {
+                Thread.sleep(100);
+                job = jobRepository.findFirstByDocumentIdAndStatusInOrderByIdDesc(id, List.of("QUEUED")).orElse(null);
+            } while ((job == null || job.getErrorMessage() == null) && System.currentTimeMillis() < deadline);
+        }
+        assertTrue(job != null && job.getErrorMessage() != null);
+        assertEquals(0, job.getAttempts());
+        assertEquals("UPLOADED", documentRepository.findById(id).orElseThrow().getStatus());
+        awaitDone(id);
+    }
+
+    private IngestionJob runningJob(Long documentId, Instant startedAt, Instant heartbeatAt) {
+        IngestionJob j = new IngestionJob();
+        j.setDocumentId(documentId);
+        j.setStatus("RUNNING");
+        j.setMaxAttempts(3);
+        j.setStartedAt(startedAt);
+        j.setHeartbeatAt(heartbeatAt);
+        return jobRepository.save(j);
+    }
+
+    @Test
+    void unknownDocumentIsNotFound() throws Exception {
+        mockMvc.perform(post("/api/parse/999999"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void fragmentsCarryTheirSourcePages() throws Exception {
+        int pageCount = 40;
+        Path file = writePdf(pageCount, p -> "page " + p);
+        Document d = new Document();
+        d.setFilename("pages.pdf");
+        d.setStoragePath(file.toString());
+        d.setStatus("UPLOADED");
+        Long id = documentRepository.save(d).getId();
+
+        mockMvc.perform(post("/api/parse/" + id)).andExpect(status().isAccepted());
+        awaitDone(id);
+
+        List<ContentFragment> fragments = fragmentRepository.findByDocumentId(id);
+        assertTrue(fragments.size() > 1);
+        int expectedStart = 1;
+        for (ContentFragment f : fragments.stream().sorted(java.util.Comparator.comparing(ContentFragment::getId)).toList()) {
+            String[] range = f.getPageRange().split("-");
+            int start = Integer.parseInt(range[0]);
+            int end = Integer.parseInt(range[range.length - 1]);
+            assertTrue(start >= expectedStart - 1 && end >= start, f.getPageRange());
+            assertTrue(f.getText().contains("page " + start + " line"), f.getPageRange());
+            assertTrue(f.getText().contains("page " + end + " line"), f.getPageRange());
+            expectedStart = end;
+        }
+        assertEquals(pageCount, expectedStart);
+    }
+
+    @Test
+    void revisionReusesUnchangedFragments() throws Exception {
+        byte[] v1 = Files.readAllBytes(writePdf(30, p -> "page " + p));
+        String body = mockMvc.perform(multipart("/api/documents/upload")
+                        .file(new MockMultipartFile("file", "book.pdf", "application/pdf", v1)))
+                .andReturn().getResponse().getContentAsString();
+        Long id = Long.valueOf(body.replaceAll(".*\"documentId\":(\\d+).*", "$1"));
+        mockMvc.perform(post("/api/parse/" + id)).andExpect(status().isAccepted());
+        awaitDone(id);
+        Map<String, Long> before = new HashMap<>();
+        for (ContentFragment f : fragmentRepository.findByDocumentId(id)) before.put(f.getText(), f.getId());
+        Course course = new Course();
+        course.setName("revision");
+        Quiz quiz = new Quiz();
+        quiz.setCourse(courseRepository.save(course));
+        quiz.setTitle("revision");
+        quiz = quizRepository.save(quiz);
+        List<Long> questions = new ArrayList<>();
+        for (Long fragmentId : before.values()) {
+            Question q = new Question();
+            q.setQuiz(quiz);
+            q.setType("SHORT_ANSWER");
+            q.setStem("题干");
+            q.setDifficulty("EASY");
+            q.setFragmentId(fragmentId);
+            questions.add(questionRepository.save(q).getId());
+        }
+
+        byte[] v2 = Files.readAllBytes(writePdf(30, p -> p == 12 ? "revised " + p : "page " + p));
+        mockMvc.perform(multipart("/api/documents/" + id + "/revisions")
+                        .file(new MockMultipartFile("file", "book-v2.pdf", "application/pdf", v2)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.revision").value(2))
+                .andExpect(jsonPath("$.changed").value(true));
+        awaitDone(id);
+
+        List<ContentFragment> after = fragmentRepository.findByDocumentIdOrderByOrdinalAscIdAsc(id);
+        long kept = after.stream().filter(f -> f.getId().equals(before.get(f.getText()))).count();
+        long changed = after.size() - kept;
+        assertTrue(changed >= 1 && changed <= 2, "changed=" + changed);
+        assertTrue(after.stream().allMatch(f -> f.getEmbeddingJson() != null));
+        for (int i = 0; i < after.size(); i++) assertEquals(i, after.get(i).getOrdinal());
+
+        // 保留片段上的题目关联不变，被删片段上的题目解除关联
+        Set<Long> live = after.stream().map(ContentFragment::getId).collect(Collectors.toSet());
+        long unlinked = 0;
+        for (Question q : questionRepository.findAllById(questions)) {
+            if (q.getFragmentId() == null) unlinked++;
+            else assertTrue(live.contains(q.getFragmentId()));
+        }
+        assertTrue(unlinked >= 1);
+        assertEquals(before.size() - kept, unlinked);
+    }
+
+    @Test
+    void eventsStreamStagesAndProgress() throws Exception {
+        Document d = new Document();
+        d.setFilename("events.pdf");
+        d.setStoragePath(writePdf(20, p -> "page " + p).toString());
+        d.setStatus("UPLOADED");
+        Long id = documentRepository.save(d).getId();
+
+        MvcResult events = mockMvc.perform(get("/api/documents/" + id + "/events"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(post("/api/parse/" + id)).andExpect(status().isAccepted());
+        awaitDone(id);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        String body = events.getResponse().getContentAsString();
+        while (!body.contains("\"status\":\"DONE\"") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            body = events.getResponse().getContentAsString();
+        }
+        assertTrue(body.contains("\"status\":\"UPLOADED\""), body);
+        assertTrue(body.contains("\"status\":\"PARSING\",\"done\":20,\"total\":20"), body);
+        assertTrue(body.contains("\"status\":\"EMBEDDING\""), body);
+        assertTrue(body.contains("\"status\":\"DONE\""), body);
+        assertTrue(body.indexOf("PARSING") < body.indexOf("EMBEDDING") && body.indexOf("EMBEDDING") < body.indexOf("DONE"), body);
+
+        mockMvc.perform(get("/api/documents/" + id + "/status"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("DONE"));
+    }
+
+    private void awaitDone(Long id) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (!"DONE".equals(documentRepository.findById(id).orElseThrow().getStatus()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals("DONE", documentRepository.findById(id).orElseThrow().getStatus());
+    }
+
+    private Path writePdf(int pageCount, IntFunction<String> label) throws Exception {
+        Path file = Files.createDirectories(Path.of("target/test-storage/src")).resolve("pages-" + System.nanoTime() + ".pdf");
+        try (PDDocument pdf = new PDDocument()) {
+            for (int p = 1; p <= pageCount; p++) {
+                PDPage page = new PDPage();
+                pdf.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(pdf, page)) {
+                    cs.beginText();
+                    cs.setFont(PDType1Font.HELVETICA, 10);
+                    cs.newLineAtOffset(40, 700);
+                    for (int line = 0; line < 12; line++) {
+                        cs.showText(label.apply(p) + " line " + line + " lorem ipsum dolor sit amet consectetur");
+                        cs.newLineAtOffset(0, -14);
+                    }
+                    cs.endText();
+                }
+            }
+            pdf.save(file.toFile());
+        }
+        return file;
+    }
+}
@@ -0,0 +1,269 @@
+package com.huixun.lms.controller;
+
+import com.huixun.lms.LmsApplication;
+import com.huixun.lms.model.ContentFragment;
+import com.huixun.lms.model.Course;
+import com.huixun.lms.model.Document;
+import com.huixun.lms.repository.ContentFragmentRepository;
+import com.huixun.lms.repository.CourseRepository;
+import com.huixun.lms.repository.DocumentRepository;
+import com.huixun.lms.service.EmbeddingService;
+import com.huixun.lms.service.LexicalIndex;
+import com.huixun.lms.service.MemoryVectorIndex;
+import com.huixun.lms.service.SearchCache;
+import com.huixun.lms.service.VectorCodec;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(classes = LmsApplication.class)
+@AutoConfigureMockMvc
+class SearchControllerTest {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    ContentFragmentRepository fragmentRepository;
+
+    @Autowired
+    CourseRepository courseRepository;
+
+    @Autowired
+    DocumentRepository documentRepository;
+
+    @Autowired
+    SearchCache searchCache;
+
+    @Autowired
+    EmbeddingService embeddingService;
+
+    @Autowired
+    MemoryVectorIndex memoryIndex;
+
+    @Autowired
+    LexicalIndex lexicalIndex;
+
+    @Test
+    void measuresRecallOfQuantizedSearch() throws Exception {
+        String[] topics = {"二叉树", "哈希表", "细胞膜", "光合作用", "牛顿定律", "电磁感应", "唐诗", "宋词", "微积分", "概率论"};
+        for (String a : topics) {
+            for (String b : new String[]{"的定义与性质", "的典型例题", "的常见误区", "的历史发展"}) {
+                ContentFragment f = new ContentFragment();
+                f.setDocumentId(535353L);
+                f.setText(a + b);
+                f.setEmbeddingJson(VectorCodec.format(embeddingService.embedText(a + b)));
+                fragmentRepository.save(f);
+            }
+        }
+
+        mockMvc.perform(get("/api/search/recall").param("samples", "10").param("topK", "3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.mode").value("memory"))
+                .andExpect(jsonPath("$.quantization").value("binary"))
+                .andExpect(jsonPath("$.candidates").value(12))
+                .andExpect(jsonPath("$.samples").value(greaterThan(0)))
+                .andExpect(jsonPath("$.recall").value(lessThanOrEqualTo(1.0)));
+        // 候选覆盖全部片段时重排结果与精确检索一致
+        mockMvc.perform(get("/api/search/recall").param("samples", "10").param("topK", "3").param("rescoreFactor", "1000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.recall").value(1.0));
+        mockMvc.perform(get("/api/search/recall").param("topK", "0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void acceptsPerQueryIndexKnobs() throws Exception {
+        ContentFragment f = new ContentFragment();
+        f.setDocumentId(535354L);
+        f.setText("二叉树的层序遍历");
+        f.setEmbeddingJson(VectorCodec.format(embeddingService.embedText(f.getText())));
+        fragmentRepository.save(f);
+        // 等进程内索引加载完成，之后的检索走进程内索引，新保存的片段由补读跟上
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!memoryIndex.isReady() && System.currentTimeMillis() < deadline) {
+            mockMvc.perform(get("/api/search/fragments").param("q", "二叉树"));
+            Thread.sleep(50);
+        }
+        assertTrue(memoryIndex.isReady());
+
+        mockMvc.perform(get("/api/search/fragments").param("q", "二叉树").param("topK", "3").param("efSearch", "200"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].fragment.text").value(startsWith("二叉树")));
+        mockMvc.perform(get("/api/search/fragments").param("q", "二叉树").param("efSearch", "0"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/search/fragments").param("q", "二叉树").param("topK", "-1"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/search/fragments").param("q", "二叉树").param("topK", "100000"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/vector-index"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.enabled").value(false));
+        mockMvc.perform(post("/api/vector-index/rebuild"))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void scopesSearchToOneDocument() throws Exception {
+        String[][] docs = {
+                {"栈的入栈与出栈", "栈的应用：括号匹配", "队列的循环实现"},
+                {"栈的定义与性质", "栈与递归的关系", "链表的插入操作"}
+        };
+        long[] ids = {636361L, 636362L};
+        for (int d = 0; d < docs.length; d++) {
+            for (String text : docs[d]) {
+                ContentFragment f = new ContentFragment();
+                f.setDocumentId(ids[d]);
+                f.setText(text);
+                f.setKeywords(text.startsWith("栈的应用") ? "括号,栈" : "数据结构");
+                f.setEmbeddingJson(VectorCodec.format(embeddingService.embedText(text)));
+                fragmentRepository.save(f);
+            }
+        }
+
+        mockMvc.perform(get("/api/search/fragments").param("q", "栈").param("topK", "2").param("documentId", "636361"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[*].fragment.documentId", everyItem(is(636361))))
+                .andExpect(jsonPath("$[0].fragment.text").value(startsWith("栈")));
+
+        Course course = new Course();
+        course.setName("数据结构");
+        courseRepository.save(course);
+        String quiz = mockMvc.perform(post("/api/quizzes").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"栈\",\"course\":{\"id\":" + course.getId() + "}}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String quizId = quiz.replaceAll("\\D", "");
+        // 只从该文档中取关键词含“括号”的片段
+        mockMvc.perform(post("/api/quizzes/" + quizId + "/generate-by-query")
+                        .param("documentId", "636361").param("count", "3").param("query", "栈").param("tags", "括号"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)));
+    }
+
+    @Test
+    void fusesExactTermsWithVectorResults() throws Exception {
+        String[] texts = {
+                "混凝土结构设计规范对受弯构件的要求",
+                "钢筋锚固长度按 GB50010 第8.3.1条计算",
+                "梁的正截面承载力计算方法",
+                "柱的轴心受压承载力与稳定系数"
+        };
+        for (String text : texts) {
+            ContentFragment f = new ContentFragment();
+            f.setDocumentId(737373L);
+            f.setText(text);
+            f.setEmbeddingJson(VectorCodec.format(embeddingService.embedText(text)));
+            fragmentRepository.save(f);
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!lexicalIndex.isReady() && System.currentTimeMillis() < deadline) {
+            mockMvc.perform(get("/api/search/fragments").param("q", "GB50010"));
+            Thread.sleep(50);
+        }
+        assertTrue(lexicalIndex.isReady());
+
+        // 规范编号这类精确词项由 BM25 召回，两路原始分一并返回
+        mockMvc.perform(get("/api/search/fragments").param("q", "GB50010 锚固").param("topK", "2")
+                        .param("documentId", "737373").param("mode", "hybrid"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].fragment.text").value(startsWith("钢筋锚固")))
+                .andExpect(jsonPath("$[0].lexicalScore").value(greaterThan(0.0)))
+                .andExpect(jsonPath("$[0].vectorScore").isNumber());
+        mockMvc.perform(get("/api/search/fragments").param("q", "GB50010 锚固").param("topK", "2")
+                        .param("documentId", "737373").param("mode", "vector"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].lexicalScore").doesNotExist());
+        mockMvc.perform(get("/api/search/fragments").param("q", "GB50010").param("mode", "bm25"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void answersManyQueriesInOneRequest() throws Exception {
+        String[] texts = {"细胞膜的流动镶嵌模型", "光合作用的光反应阶段", "牛顿第二定律的应用"};
+        for (String text : texts) {
+            ContentFragment f = new ContentFragment();
+            f.setDocumentId(838383L);
+            f.setText(text);
+            f.setEmbeddingJson(VectorCodec.format(embeddingService.embedText(text)));
+            fragmentRepository.save(f);
+        }
+
+        mockMvc.perform(post("/api/search/fragments/batch").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"queries\":[\"光合作用\",\"细胞膜\",\"牛顿第二定律\"],\"topK\":1,\"documentId\":838383}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(3)))
+                .andExpect(jsonPath("$[0][0].fragment.text").value(startsWith("光合作用")))
+                .andExpect(jsonPath("$[1][0].fragment.text").value(startsWith("细胞膜")))
+                .andExpect(jsonPath("$[2][0].fragment.text").value(startsWith("牛顿")));
+        mockMvc.perform(post("/api/search/fragments/batch").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"queries\":[\"光合作用\",\"细胞膜\"],\"topK\":2,\"mode\":\"vector\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0]", hasSize(2)))
+                .andExpect(jsonPath("$[0][0].fragment.text").value(startsWith("光合作用")));
+        mockMvc.perform(post("/api/search/fragments/batch").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"queries\":[]}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void cachesResultsUntilDocumentChanges() throws Exception {
+        Document d = new Document();
+        d.setFilename("review.pdf");
+        d.setStoragePath("target/test-storage/docs/review-" + System.nanoTime() + ".pdf");
+        d.setStatus("DONE");
+        d = documentRepository.save(d);
+        for (String text : new String[]{"期中复习：函数的单调性", "期中复习：数列求和"}) {
+            ContentFragment f = new ContentFragment();
+            f.setDocumentId(d.getId());
+            f.setText(text);
+            f.setEmbeddingJson(VectorCodec.format(embeddingService.embedText(text)));
+            fragmentRepository.save(f);
+        }
+
+        // 直接写库的片段由第一次检索补进进程内索引，补读后版本递增，这次的结果不会被读到
+        mockMvc.perform(get("/api/search/fragments").param("q", "数列").param("documentId", d.getId().toString()))
+                .andExpect(status().isOk());
+        // 规范化后相同的查询（首尾与连续空白）命中同一条缓存
+        mockMvc.perform(get("/api/search/fragments").param("q", "函数 单调性").param("documentId", d.getId().toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)));
+        long hits = searchCache.stats().hits;
+        mockMvc.perform(get("/api/search/fragments").param("q", "  函数   单调性 ").param("documentId", d.getId().toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)));
+        assertEquals(hits + 1, searchCache.stats().hits);
+        mockMvc.perform(get("/api/search/cache"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.hits").value(greaterThan(0)))
+                .andExpect(jsonPath("$.hitRate").value(greaterThan(0.0)));
+
+        // 删除文档后旧条目失效
+        long misses = searchCache.stats().misses;
+        mockMvc.perform(delete("/api/documents/" + d.getId())).andExpect(status().isOk());
+        mockMvc.perform(get("/api/search/fragments").param("q", "函数 单调性").param("documentId", d.getId().toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(0)));
+        assertEquals(misses + 1, searchCache.stats().misses);
+    }
+}
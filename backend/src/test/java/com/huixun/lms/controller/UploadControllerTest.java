@@ -0,0 +1,116 @@
+package com.huixun.lms.controller;
+
+import com.huixun.lms.LmsApplication;
+import com.huixun.lms.model.UploadSession;
+import com.huixun.lms.repository.DocumentRepository;
+import com.huixun.lms.repository.UploadSessionRepository;
+import com.huixun.lms.service.ChunkedUploadService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(classes = LmsApplication.class)
+@AutoConfigureMockMvc
+class UploadControllerTest {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    DocumentRepository documentRepository;
+
+    @Autowired
+    UploadSessionRepository sessionRepository;
+
+    @Autowired
+    ChunkedUploadService uploadService;
+
+    @Test
+    void partsCanArriveOutOfOrderAndResume() throws Exception {
+        byte[] content = ("%PDF-1.4 chunked " + System.nanoTime()).getBytes(StandardCharsets.UTF_8);
+        int chunk = 10;
+        String body = mockMvc.perform(post("/api/uploads").contentType("application/json")
+                        .content("{\"filename\":\"big.pdf\",\"size\":" + content.length + ",\"chunkSize\":" + chunk + "}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String id = body.replaceAll(".*\"uploadId\":\"([^\"]+)\".*", "$1");
+        int total = (content.length + chunk - 1) / chunk;
+
+        sendPart(id, content, chunk, total - 1);
+        sendPart(id, content, chunk, 0);
+        mockMvc.perform(get("/api/uploads/" + id))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.receivedParts.length()").value(2));
+        mockMvc.perform(post("/api/uploads/" + id + "/complete"))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.missingParts[0]").value(1));
+
+        for (int i = 1; i < total - 1; i++) sendPart(id, content, chunk, i);
+        String done = mockMvc.perform(post("/api/uploads/" + id + "/complete"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        Long docId = Long.valueOf(done.replaceAll(".*\"documentId\":(\\d+).*", "$1"));
+        String sha = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        assertEquals(sha, documentRepository.findById(docId).orElseThrow().getContentHash());
+    }
+
+    @Test
+    void completeIsClaimedOnceAndCompletedSessionsArePurged() throws Exception {
+        byte[] content = ("%PDF-1.4 claimed " + System.nanoTime()).getBytes(StandardCharsets.UTF_8);
+        String body = mockMvc.perform(post("/api/uploads").contentType("application/json")
+                        .content("{\"filename\":\"c.pdf\",\"size\":" + content.length + ",\"chunkSize\":" + content.length + "}"))
+                .andReturn().getResponse().getContentAsString();
+        String id = body.replaceAll(".*\"uploadId\":\"([^\"]+)\".*", "$1");
+        sendPart(id, content, content.length, 0);
+
+        // 另一个 complete 正在合并
+        assertEquals(1, sessionRepository.transition(id, ChunkedUploadService.OPEN, ChunkedUploadService.COMPLETING, Instant.now()));
+        mockMvc.perform(post("/api/uploads/" + id + "/complete")).andExpect(status().isConflict());
+        sessionRepository.transition(id, ChunkedUploadService.COMPLETING, ChunkedUploadService.OPEN, Instant.now());
+
+        mockMvc.perform(post("/api/uploads/" + id + "/complete")).andExpect(status().isOk());
+        UploadSession s = sessionRepository.findById(id).orElseThrow();
+        assertEquals(ChunkedUploadService.COMPLETED, s.getStatus());
+        assertFalse(Files.exists(Paths.get(s.getStagingPath())));
+
+        s.setUpdatedAt(Instant.now().minus(Duration.ofDays(2)));
+        sessionRepository.save(s);
+        uploadService.purgeExpired();
+        assertFalse(sessionRepository.existsById(id));
+    }
+
+    @Test
+    void wrongPartSizeIsRejected() throws Exception {
+        String body = mockMvc.perform(post("/api/uploads").contentType("application/json")
+                        .content("{\"filename\":\"x.pdf\",\"size\":20,\"chunkSize\":10}"))
+                .andReturn().getResponse().getContentAsString();
+        String id = body.replaceAll(".*\"uploadId\":\"([^\"]+)\".*", "$1");
+        mockMvc.perform(put("/api/uploads/" + id + "/parts/0").contentType("application/octet-stream").content(new byte[4]))
+                .andExpect(status().isBadRequest());
+    }
+
+    private void sendPart(String id, byte[] content, int chunk, int part) throws Exception {
+        byte[] slice = Arrays.copyOfRange(content, part * chunk, Math.min(content.length, (part + 1) * chunk));
+        mockMvc.perform(put("/api/uploads/" + id + "/parts/" + part).contentType("application/octet-stream").content(slice))
+                .andExpect(status().isOk());
+    }
+}
@@ -0,0 +1,96 @@
+package com.huixun.lms.controller;
+
+import com.huixun.lms.LmsApplication;
+import com.huixun.lms.model.ContentFragment;
+import com.huixun.lms.model.Document;
+import com.huixun.lms.repository.ContentFragmentRepository;
+import com.huixun.lms.repository.DocumentRepository;
+import com.huixun.lms.service.EmbeddingModelRegistry;
+import com.huixun.lms.service.EmbeddingService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// 开启向量但库中建不出 vector 列（未安装 pgvector 的 PostgreSQL，这里用 H2 代替），入库与检索只用 JSON 列
+@SpringBootTest(classes = LmsApplication.class, properties = {
+        "app.vector.enabled=true",
+        "spring.datasource.url=jdbc:h2:mem:vectorless;DB_CLOSE_DELAY=-1",
+        "app.vector.memory-index.snapshot-path=target/vectorless/hnsw-index.bin",
+        "app.vector.memory-index.matrix-path=target/vectorless/vectors"
+})
+@AutoConfigureMockMvc
+class VectorlessDatabaseTest {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    DocumentRepository documentRepository;
+
+    @Autowired
+    ContentFragmentRepository fragmentRepository;
+
+    @Autowired
+    EmbeddingService embeddingService;
+
+    @Autowired
+    EmbeddingModelRegistry models;
+
+    @Test
+    void embedsIntoJsonColumnWhenVectorColumnIsMissing() throws Exception {
+        assertFalse(models.hasColumn(EmbeddingModelRegistry.VECTOR_COLUMN));
+        assertNull(models.vectorColumn(models.active()));
+
+        Document d = new Document();
+        d.setFilename("vectorless.pdf");
+        Path blob = Files.createDirectories(Path.of("target/test-storage/docs")).resolve("vectorless-" + System.nanoTime() + ".pdf");
+        Files.write(blob, new byte[]{1});
+        d.setStoragePath(blob.toString());
+        d.setStatus("PARSED");
+        d = documentRepository.save(d);
+        for (String text : new String[]{"酶的催化具有专一性", "光合作用的暗反应阶段"}) {
+            ContentFragment f = new ContentFragment();
+            f.setDocumentId(d.getId());
+            f.setText(text);
+            fragmentRepository.save(f);
+        }
+
+        embeddingService.embedDocument(d.getId());
+        for (ContentFragment f : fragmentRepository.findByDocumentId(d.getId())) assertNotNull(f.getEmbeddingJson());
+        mockMvc.perform(get("/api/search/fragments").param("q", "酶的专一性").param("mode", "vector")
+                        .param("documentId", d.getId().toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].fragment.text").value(startsWith("酶")));
+
+        // 秒传复制已处理文档的片段，同样不涉及向量列
+        String sha = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(("vectorless" + System.nanoTime()).getBytes(StandardCharsets.UTF_8)));
+        d.setContentHash(sha);
+        d.setStatus("DONE");
+        documentRepository.save(d);
+        String body = mockMvc.perform(post("/api/documents/instant").contentType("application/json")
+                        .content("{\"sha256\":\"" + sha + "\",\"filename\":\"copy.pdf\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("DONE"))
+                .andReturn().getResponse().getContentAsString();
+        Long copy = Long.valueOf(body.replaceAll(".*\"documentId\":(\\d+).*", "$1"));
+        assertEquals(2, fragmentRepository.findByDocumentId(copy).size());
+    }
+}
@@ -0,0 +1,30 @@
+package com.huixun.lms.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EmbeddingBatchesTest {
+
+    @Test
+    void packsByItemCount() {
+        List<int[]> batches = EmbeddingBatches.pack(Collections.nCopies(10, "abcd"), 4, 1000);
+        assertEquals(3, batches.size());
+        assertArrayEquals(new int[]{8, 10}, batches.get(2));
+    }
+
+    @Test
+    void packsByTokenBudgetAndIsolatesOversizedInput() {
+        // 每条 100 个汉字约 150 token
+        String text = "字".repeat(100);
+        List<int[]> batches = EmbeddingBatches.pack(List.of(text, text, "字".repeat(1000), text), 100, 320);
+        assertEquals(3, batches.size());
+        assertArrayEquals(new int[]{0, 2}, batches.get(0));
+        assertArrayEquals(new int[]{2, 3}, batches.get(1));
+        assertArrayEquals(new int[]{3, 4}, batches.get(2));
+    }
+}
@@ -0,0 +1,48 @@
+package com.huixun.lms.service;
+
+import com.huixun.lms.LmsApplication;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@SpringBootTest(classes = LmsApplication.class)
+class EmbeddingCacheTest {
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    void sharesVectorsThroughTheTableAndCountsLookups() {
+        float[] v = {0.25f, -1.5f, 3.0f};
+        String hash = ContentHash.of("  重复的  定义\n文本 ");
+        assertEquals(hash, ContentHash.of("重复的 定义 文本"));
+
+        new EmbeddingCache(jdbcTemplate, new SimpleMeterRegistry(), 1 << 20, true).put("test-model", hash, v);
+
+        // 新实例一级缓存为空，从表中读到后回填一级缓存
+        MeterRegistry registry = new SimpleMeterRegistry();
+        EmbeddingCache cache = new EmbeddingCache(jdbcTemplate, registry, 1 << 20, true);
+        Map<String, float[]> found = cache.getAll("test-model", List.of(hash, ContentHash.of("未缓存")));
+        assertArrayEquals(v, found.get(hash));
+        assertEquals(1, found.size());
+        assertArrayEquals(v, cache.get("test-model", hash));
+        assertNull(cache.get("other-model", hash));
+
+        assertEquals(1.0, registry.get("embedding.cache.lookups").tag("result", "l1_hit").counter().count());
+        assertEquals(1.0, registry.get("embedding.cache.lookups").tag("result", "l2_hit").counter().count());
+        assertEquals(2.0, registry.get("embedding.cache.lookups").tag("result", "miss").counter().count());
+
+        // 重复写入同一键不报错
+        cache.put("test-model", hash, v);
+    }
+}
@@ -0,0 +1,60 @@
+package com.huixun.lms.service;
+
+import dev.ai4j.openai4j.OpenAiHttpException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmbeddingExecutorTest {
+
+    private EmbeddingExecutor executor(int retries) {
+        return new EmbeddingExecutor(4, 0, 0, 3, 100000, retries, 10, 50);
+    }
+
+    @Test
+    void retriesRateLimitedBatchesAndKeepsOrder() {
+        AtomicInteger calls = new AtomicInteger();
+        EmbeddingProvider provider = text -> new float[]{text.length()};
+        EmbeddingProvider flaky = new EmbeddingProvider() {
+            @Override
+            public float[] embed(String text) { return provider.embed(text); }
+
+            @Override
+            public List<float[]> embedAll(List<String> texts) {
+                if (calls.incrementAndGet() <= 2) {
+                    throw new OpenAiHttpException(429, "Rate limit reached. Please try again in 20ms.");
+                }
+                return EmbeddingProvider.super.embedAll(texts);
+            }
+        };
+        List<String> texts = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) texts.add("x".repeat(i));
+        float[] out = new float[texts.size()];
+        executor(3).execute(flaky, texts, (from, to, vecs) -> {
+            for (int i = from; i < to; i++) out[i] = vecs.get(i - from)[0];
+        });
+        for (int i = 0; i < out.length; i++) assertEquals(i + 1, (int) out[i]);
+        assertEquals(6, calls.get());
+    }
+
+    @Test
+    void failsClearlyOnNonRetryableError() {
+        EmbeddingProvider broken = text -> { throw new OpenAiHttpException(400, "invalid input"); };
+        EmbeddingExecutor.EmbeddingFailedException e = assertThrows(EmbeddingExecutor.EmbeddingFailedException.class,
+                () -> executor(3).execute(broken, List.of("a", "b"), (from, to, vecs) -> {}));
+        assertTrue(e.getMessage().contains("HTTP 400"), e.getMessage());
+    }
+
+    @Test
+    void parsesRetryHints() {
+        assertEquals(1500, EmbeddingExecutor.retryAfterMs(new RuntimeException("Please try again in 1.5s.")));
+        assertEquals(20, EmbeddingExecutor.retryAfterMs(new RuntimeException(new OpenAiHttpException(429, "try again in 20ms"))));
+        assertEquals(-1, EmbeddingExecutor.retryAfterMs(new RuntimeException("boom")));
+    }
+}
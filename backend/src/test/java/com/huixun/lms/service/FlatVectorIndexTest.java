@@ -0,0 +1,141 @@
+package com.huixun.lms.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class FlatVectorIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static List<float[]> randomVectors(int n, int dim, long seed) {
+        Random r = new Random(seed);
+        List<float[]> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            float[] v = new float[dim];
+            for (int j = 0; j < dim; j++) v[j] = (float) r.nextGaussian();
+            out.add(v);
+        }
+        return out;
+    }
+
+    @Test
+    void parallelScanReturnsExactNeighbours() throws Exception {
+        // 行数足够分成多段并跨越多个映射段
+        List<float[]> data = randomVectors(FlatVectorIndex.MIN_ROWS_PER_TASK * 3, 8, 1);
+        try (FlatVectorIndex x = FlatVectorIndex.create(dir.resolve("vectors"), "m", 8, pool, 4, 8 * 4 * 1000)) {
+            for (int i = 0; i < data.size(); i++) assertTrue(x.add(i, data.get(i)));
+            for (float[] q : randomVectors(20, 8, 2)) {
+                List<Long> expected = new ArrayList<>();
+                List<Integer> idx = new ArrayList<>();
+                for (int i = 0; i < data.size(); i++) idx.add(i);
+                idx.sort(Comparator.comparingDouble((Integer i) -> -VectorMath.cosine(q, data.get(i))));
+                for (int i = 0; i < 10; i++) expected.add((long) idx.get(i));
+                List<LocalVectorIndex.Hit> hits = x.search(q, 10, 0);
+                assertEquals(expected, hits.stream().map(h -> h.id).toList());
+                assertEquals(VectorMath.cosine(q, data.get(idx.get(0))), hits.get(0).score, 1e-5);
+            }
+        }
+    }
+
+    @Test
+    void batchScanMatchesSingleQueries() throws Exception {
+        List<float[]> data = randomVectors(FlatVectorIndex.MIN_ROWS_PER_TASK * 2, 8, 5);
+        try (FlatVectorIndex x = FlatVectorIndex.create(dir.resolve("vectors"), "m", 8, pool, 4, 8 * 4 * 1000)) {
+            for (int i = 0; i < data.size(); i++) x.add(i, data.get(i));
+            x.remove(3);
+            float[][] qs = randomVectors(6, 8, 6).toArray(new float[0][]);
+            // 维度不符的查询得到空结果，不影响同批其他查询
+            qs[2] = new float[5];
+            List<List<LocalVectorIndex.Hit>> batch = x.search(qs, 5, 0);
+            assertEquals(qs.length, batch.size());
+            assertTrue(batch.get(2).isEmpty());
+            for (int i = 0; i < qs.length; i++) {
+                assertEquals(x.search(qs[i], 5, 0).stream().map(h -> h.id).toList(), batch.get(i).stream().map(h -> h.id).toList());
+            }
+        }
+    }
+
+    @Test
+    void persistsCommittedRowsAndTombstones() throws Exception {
+        List<float[]> data = randomVectors(300, 12, 3);
+        Path base = dir.resolve("vectors");
+        try (FlatVectorIndex x = FlatVectorIndex.create(base, "local:ngram-v1:12", 12, pool, 4, 12 * 4 * 100)) {
+            for (int i = 0; i < data.size(); i++) x.add(i + 100, data.get(i));
+            x.remove(105);
+            // 换成另一个片段的向量后按新向量命中
+            x.add(106, data.get(7));
+            x.watermark(399);
+            x.flush();
+            // 提交之后追加的行重启后丢弃
+            float[] late = randomVectors(1, 12, 9).get(0);
+            x.add(1000, late);
+            assertEquals(1000L, x.search(late, 1, 0).get(0).id);
+        }
+
+        try (FlatVectorIndex y = FlatVectorIndex.open(base, "local:ngram-v1:12", 12, pool, 4)) {
+            assertEquals(399, y.watermark());
+            assertEquals(301, y.size());
+            assertEquals(2, y.deletedCount());
+            assertFalse(y.contains(105));
+            assertFalse(y.contains(1000));
+            assertTrue(y.matches(106, data.get(7)));
+            assertTrue(y.matches(399, data.get(299)));
+            assertFalse(y.search(data.get(5), 10, 0).stream().anyMatch(h -> h.id == 105));
+            assertEquals(108L, y.search(data.get(8), 1, 0).get(0).id);
+            // 限定范围时只在给定 id 中计算，已删除与不存在的 id 跳过
+            assertEquals(List.of(107L, 110L), y.search(data.get(7), 2, new long[]{105, 110, 9999, 107}).stream().map(h -> h.id).toList());
+            assertFalse(y.add(1, new float[12]));
+        }
+        assertNull(FlatVectorIndex.open(base, "openai:x", 12, pool, 4));
+
+        // 新 generation 提交后旧矩阵文件被删除
+        try (FlatVectorIndex z = FlatVectorIndex.create(base, "local:ngram-v1:12", 12, pool, 4)) {
+            z.add(1, data.get(0));
+            z.flush();
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.filter(p -> p.toString().endsWith(".f32")).count());
+        }
+        try (FlatVectorIndex z = FlatVectorIndex.open(base, "local:ngram-v1:12", 12, pool, 4)) {
+            assertEquals(1, z.size());
+        }
+    }
+
+    @Test
+    void vectorApiAgreesWithScalarLoop() {
+        assumeTrue(DotProduct.SIMD, "JVM 未加载 jdk.incubator.vector");
+        Random r = new Random(4);
+        for (int n : new int[]{1, 7, 16, 33, 1536}) {
+            float[] a = new float[n];
+            float[] b = new float[n + 5];
+            for (int i = 0; i < n; i++) a[i] = (float) r.nextGaussian();
+            for (int i = 0; i < b.length; i++) b[i] = (float) r.nextGaussian();
+            assertEquals(DotProduct.scalar(a, b, 5, n), DotProduct.simd(a, b, 5, n), 1e-3 * Math.sqrt(n));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.huixun.lms.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HnswGraphTest {
+
+    private static List<float[]> randomVectors(int n, int dim, long seed) {
+        Random r = new Random(seed);
+        List<float[]> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            float[] v = new float[dim];
+            for (int j = 0; j < dim; j++) v[j] = (float) r.nextGaussian();
+            out.add(v);
+        }
+        return out;
+    }
+
+    private static Set<Long> exact(List<float[]> data, float[] q, int k) {
+        List<Integer> idx = new ArrayList<>();
+        for (int i = 0; i < data.size(); i++) idx.add(i);
+        idx.sort(Comparator.comparingDouble((Integer i) -> -VectorMath.cosine(q, data.get(i))));
+        Set<Long> out = new HashSet<>();
+        for (int i = 0; i < k; i++) out.add((long) idx.get(i));
+        return out;
+    }
+
+    @Test
+    void findsNearestNeighboursWithHighRecall() {
+        List<float[]> data = randomVectors(3000, 32, 1);
+        HnswGraph g = new HnswGraph("m", 32, 16, 100);
+        for (int i = 0; i < data.size(); i++) g.add(i, data.get(i));
+        int hit = 0;
+        List<float[]> queries = randomVectors(50, 32, 2);
+        for (float[] q : queries) {
+            Set<Long> truth = exact(data, q, 10);
+            List<LocalVectorIndex.Hit> hits = g.search(q, 10, 64);
+            assertEquals(10, hits.size());
+            for (int i = 1; i < hits.size(); i++) assertTrue(hits.get(i - 1).score >= hits.get(i).score);
+            for (LocalVectorIndex.Hit h : hits) if (truth.contains(h.id)) hit++;
+        }
+        assertTrue(hit / 500.0 >= 0.95, "recall@10 = " + hit / 500.0);
+    }
+
+    @Test
+    void skipsRemovedAndReplacedVectors() {
+        List<float[]> data = randomVectors(500, 16, 3);
+        HnswGraph g = new HnswGraph("m", 16, 8, 64);
+        for (int i = 0; i < data.size(); i++) g.add(i, data.get(i));
+        float[] q = data.get(7);
+        assertEquals(7L, g.search(q, 1, 32).get(0).id);
+        g.remove(7);
+        assertFalse(g.search(q, 10, 64).stream().anyMatch(h -> h.id == 7));
+        // 换成另一个片段的向量后按新向量命中
+        g.add(8, q);
+        assertEquals(8L, g.search(q, 1, 32).get(0).id);
+        assertEquals(List.of(8L, 20L), g.search(q, 5, new long[]{7, 20, 8, 9999}).stream().map(h -> h.id).toList());
+        assertEquals(2, g.deletedCount());
+        assertFalse(g.add(9, new float[3]));
+    }
+
+    @Test
+    void restoresFromSnapshot() throws Exception {
+        List<float[]> data = randomVectors(800, 24, 4);
+        HnswGraph g = new HnswGraph("local:ngram-v1:24", 24, 12, 80);
+        for (int i = 0; i < data.size(); i++) g.add(i + 100, data.get(i));
+        g.remove(105);
+        g.watermark(899);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        g.write(new DataOutputStream(buf));
+
+        HnswGraph restored = HnswGraph.read(new DataInputStream(new ByteArrayInputStream(buf.toByteArray())), "local:ngram-v1:24", 24, 12, 80);
+        assertEquals(899, restored.watermark());
+        assertEquals(g.size(), restored.size());
+        assertEquals(1, restored.deletedCount());
+        assertTrue(restored.matches(899, data.get(799)));
+        for (float[] q : randomVectors(20, 24, 5)) {
+            List<Long> a = g.search(q, 5, 40).stream().map(h -> h.id).toList();
+            List<Long> b = restored.search(q, 5, 40).stream().map(h -> h.id).toList();
+            assertEquals(a, b);
+        }
+        assertNull(HnswGraph.read(new DataInputStream(new ByteArrayInputStream(buf.toByteArray())), "openai:x", 24, 12, 80));
+    }
+}
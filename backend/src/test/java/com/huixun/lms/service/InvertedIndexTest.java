@@ -0,0 +1,47 @@
+package com.huixun.lms.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InvertedIndexTest {
+
+    @Test
+    void splitsHanRunsIntoBigrams() {
+        assertEquals(List.of("栈", "的", "应", "用", "栈的", "的应", "应用", "gb50010", "8", "3"),
+                InvertedIndex.tokens("栈的应用 GB50010-8.3", false));
+        // 查询时多字串只用 bigram，单字保留
+        assertEquals(List.of("栈的", "的应", "应用", "栈"), InvertedIndex.tokens("栈的应用，栈", true));
+    }
+
+    @Test
+    void ranksExactTermsAndFilters() {
+        InvertedIndex x = new InvertedIndex();
+        x.add(1, 10, "二叉树的层序遍历");
+        x.add(2, 10, "二叉树的前序、中序与后序遍历，遍历时使用栈");
+        x.add(3, 20, "哈希表的开放寻址法");
+        x.add(4, 20, "层序遍历借助队列实现");
+
+        List<InvertedIndex.Hit> hits = x.search("层序遍历", 10, null, null);
+        assertEquals(List.of(1L, 4L, 2L), hits.stream().map(h -> h.id).toList());
+        assertTrue(hits.get(0).score > hits.get(2).score);
+        assertEquals(List.of(4L), x.search("层序遍历", 10, List.of(20L), null).stream().map(h -> h.id).toList());
+        assertEquals(List.of(2L), x.search("层序遍历", 10, null, List.of(2L, 3L)).stream().map(h -> h.id).toList());
+
+        assertArrayEquals(new long[]{1, 4}, x.containing("层序", null));
+        assertArrayEquals(new long[]{4}, x.containing("层序", List.of(20L)));
+        assertArrayEquals(new long[0], x.containing("红黑树", null));
+
+        // 替换与删除后旧内容不再命中
+        x.add(1, 10, "红黑树的旋转");
+        x.remove(4);
+        assertArrayEquals(new long[0], x.containing("层序", null));
+        assertArrayEquals(new long[]{1}, x.containing("红黑树", null));
+        assertEquals(2, x.deletedCount());
+        assertEquals(3, x.liveIds().length);
+    }
+}
@@ -0,0 +1,37 @@
+package com.huixun.lms.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalEmbeddingProviderTest {
+
+    private final LocalEmbeddingProvider provider = new LocalEmbeddingProvider(1536);
+
+    @Test
+    void isDeterministicAndNormalized() {
+        float[] a = provider.embed("二叉树的前序遍历与中序遍历");
+        float[] b = new LocalEmbeddingProvider(1536).embed("二叉树的前序遍历与中序遍历");
+        assertEquals(1536, a.length);
+        assertArrayEquals(a, b);
+        assertEquals(1.0, VectorMath.cosine(a, a), 1e-5);
+        double norm = 0;
+        for (float x : a) norm += x * x;
+        assertEquals(1.0, norm, 1e-4);
+        assertEquals(0, provider.embed("  ").length);
+    }
+
+    @Test
+    void ranksRelatedTextAboveUnrelated() {
+        float[] query = provider.embed("二叉树遍历");
+        float[] related = provider.embed("本节介绍二叉树的三种遍历方式：前序、中序和后序。");
+        float[] unrelated = provider.embed("细胞膜由磷脂双分子层构成，具有选择透过性。");
+        assertTrue(VectorMath.cosine(query, related) > VectorMath.cosine(query, unrelated) + 0.2);
+
+        float[] en = provider.embed("binary search trees");
+        assertTrue(VectorMath.cosine(en, provider.embed("Searching a Binary Tree"))
+                > VectorMath.cosine(en, provider.embed("photosynthesis in plants")));
+    }
+}
@@ -0,0 +1,36 @@
+package com.huixun.lms.service;
+
+import com.huixun.lms.model.ContentFragment;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class SearchCacheTest {
+
+    @Test
+    void callersCannotChangeCachedResults() {
+        SearchCache cache = new SearchCache(new SimpleMeterRegistry(), true, 100, 600);
+        SearchService.Result r = new SearchService.Result(new ContentFragment(), 0.9);
+        String key = cache.key("m", "栈", 5, null, false, null, null);
+        cache.put(key, List.of(r));
+
+        // 放入后修改原结果、取出后修改返回的结果，缓存中的分数都不变
+        r.score = 0.1;
+        cache.get(key).get(0).score = 0.2;
+        assertEquals(0.9, cache.get(key).get(0).score);
+    }
+
+    @Test
+    void indexedChangesMoveTheVersion() {
+        SearchCache cache = new SearchCache(new SimpleMeterRegistry(), true, 100, 600);
+        SearchService.Scope scope = SearchService.Scope.document(7L);
+        String before = cache.key("m", "栈", 5, scope, false, null, null);
+        cache.indexed(List.of(7L));
+        assertNotEquals(before, cache.key("m", "栈", 5, scope, false, null, null));
+        assertEquals(1, cache.stats().corpusVersion);
+    }
+}
@@ -0,0 +1,53 @@
+package com.huixun.lms.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenAwareChunkerTest {
+
+    @Test
+    void packsParagraphsAndKeepsPageRanges() {
+        TokenAwareChunker chunker = new TokenAwareChunker(100, 0, 4000);
+        String para = "a".repeat(160);
+        List<ChunkingStrategy.Chunk> chunks = chunker.chunk(List.of(para + "\r\n\r\n" + para, para, para));
+        assertEquals(2, chunks.size());
+        assertEquals(para + "\n\n" + para, chunks.get(0).text());
+        assertEquals(1, chunks.get(0).startPage());
+        assertEquals(1, chunks.get(0).endPage());
+        assertEquals(2, chunks.get(1).startPage());
+        assertEquals(3, chunks.get(1).endPage());
+    }
+
+    @Test
+    void hardSplitsOversizedChineseParagraphAtSentenceEnds() {
+        TokenAwareChunker chunker = new TokenAwareChunker(200, 20, 4000);
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 400; i++) b.append("这是第").append(i).append("句测试文本。");
+        List<ChunkingStrategy.Chunk> chunks = chunker.chunk(List.of(b.toString()));
+        assertTrue(chunks.size() > 1);
+        for (int i = 0; i < chunks.size(); i++) {
+            String text = chunks.get(i).text();
+            assertTrue(TokenEstimator.estimateTokens(text) <= 200, "chunk " + i + " too large");
+            if (i < chunks.size() - 1) assertTrue(text.endsWith("。"), "chunk " + i + " cut mid-sentence");
+            if (i > 0) {
+                // 相邻片段有重叠：上一片的最后一句出现在下一片开头
+                String prev = chunks.get(i - 1).text();
+                String lastSentence = prev.substring(prev.lastIndexOf('。', prev.length() - 2) + 1);
+                assertTrue(text.startsWith(lastSentence), "chunk " + i + " missing overlap");
+            }
+        }
+    }
+
+    @Test
+    void neverExceedsColumnLength() {
+        TokenAwareChunker chunker = new TokenAwareChunker(100000, 0, 4000);
+        List<ChunkingStrategy.Chunk> chunks = chunker.chunk(List.of("x".repeat(10000)));
+        assertEquals(3, chunks.size());
+        assertTrue(chunks.stream().allMatch(c -> c.text().length() <= 4000));
+        assertEquals(10000, chunks.stream().mapToInt(c -> c.text().length()).sum());
+    }
+}
@@ -0,0 +1,33 @@
+package com.huixun.lms.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class VectorCodecTest {
+
+    @Test
+    void formatsFixedSixDecimalsIndependentOfLocale() {
+        Locale previous = Locale.getDefault();
+        try {
+            // 德语等 Locale 下 String.format 会输出逗号小数点，pgvector 无法解析
+            Locale.setDefault(Locale.GERMANY);
+            assertEquals("[0.500000,-1.250000,0.000000,0.000001,12.000000]",
+                    VectorCodec.format(new float[]{0.5f, -1.25f, 0f, 0.0000012f, 12f}));
+        } finally {
+            Locale.setDefault(previous);
+        }
+    }
+
+    @Test
+    void roundTripsAndAcceptsLegacyText() {
+        float[] v = {0.123456f, -0.999999f, 3.5f, -0.000001f};
+        assertArrayEquals(v, VectorCodec.parse(VectorCodec.format(v)), 1e-6f);
+        assertArrayEquals(new float[]{1f, -2.5f, 0.00015f}, VectorCodec.parse("[ 1, -2.5 , 1.5E-4 ]"), 1e-9f);
+        assertEquals(0, VectorCodec.parse("[]").length);
+        assertEquals(0, VectorCodec.parse(null).length);
+    }
+}
@@ -0,0 +1,56 @@
+package com.huixun.lms.service;
+
+import com.huixun.lms.model.EmbeddingModel;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VectorIndexManagerTest {
+
+    private VectorIndexManager manager(String type, String quantization) {
+        return new VectorIndexManager(null, null, true, type, quantization, 4, 16, 64, 0, 40, 0, "");
+    }
+
+    private EmbeddingModel model(int dimension) {
+        EmbeddingModel m = new EmbeddingModel();
+        m.setId(3L);
+        m.setDimension(dimension);
+        m.setVectorColumn("embedding");
+        return m;
+    }
+
+    @Test
+    void buildsCosineIndexOnQuantizedExpressionMatchingTheQuery() {
+        VectorIndexManager hnsw = manager("hnsw", "binary");
+        String ddl = hnsw.indexSql(hnsw.indexName(model(1536)), model(1536), 0);
+        assertEquals("CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_content_fragments_m3_binary_hnsw ON content_fragments USING hnsw "
+                + "((binary_quantize(embedding)::bit(1536)) bit_hamming_ops) WITH (m = 16, ef_construction = 64)", ddl);
+        assertTrue(hnsw.candidateOrder("embedding", 1536).startsWith("binary_quantize(embedding)::bit(1536) <~>"));
+        assertEquals(40, hnsw.candidates(10));
+
+        VectorIndexManager half = manager("hnsw", "halfvec");
+        assertTrue(half.indexSql("i", model(3072), 0).contains("(embedding::halfvec(3072)) halfvec_cosine_ops"));
+        assertTrue(half.candidateOrder("embedding", 3072).startsWith("embedding::halfvec(3072) <=>"));
+        assertEquals("embedding::halfvec(3072) <=> q.v::vector::halfvec(3072)", half.candidateOrder("embedding", 3072, "q.v"));
+        assertNull(half.indexSql("i", model(4096), 0));
+
+        VectorIndexManager exact = manager("hnsw", "none");
+        assertTrue(exact.indexSql("i", model(1536), 0).contains("embedding vector_cosine_ops"));
+        assertNull(exact.indexSql("i", model(3072), 0));
+        assertEquals(10, exact.candidates(10));
+    }
+
+    @Test
+    void sizesIvfflatListsFromRowCount() {
+        VectorIndexManager ivf = manager("ivfflat", "halfvec");
+        assertTrue(ivf.indexSql("i", model(1536), 250_000).endsWith("USING ivfflat ((embedding::halfvec(1536)) halfvec_cosine_ops) WITH (lists = 250)"));
+        assertEquals(1, VectorIndexManager.autoLists(10));
+        assertEquals(1000, VectorIndexManager.autoLists(1_000_000));
+        assertEquals(2000, VectorIndexManager.autoLists(4_000_000));
+        assertEquals(16, VectorIndexManager.autoProbes(250));
+        assertThrows(IllegalArgumentException.class, () -> manager("flat", "none"));
+    }
+}
@@ -0,0 +1,35 @@
+package com.huixun.lms.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class VectorQuantizerTest {
+
+    @Test
+    void packsSignBitsLikeBinaryQuantize() {
+        float[] v = new float[70];
+        v[0] = 0.5f;
+        v[1] = -0.5f;
+        v[63] = 1e-6f;
+        v[64] = 2f;
+        // 0 不是正数，与 pgvector 一致记为 0
+        v[65] = 0f;
+        long[] bits = VectorQuantizer.binary(v);
+        assertEquals(2, bits.length);
+        assertEquals(1L | (1L << 63), bits[0]);
+        assertEquals(1L, bits[1]);
+    }
+
+    @Test
+    void hammingCountsDifferingDimensions() {
+        float[] a = new float[130];
+        float[] b = new float[130];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = 1;
+            b[i] = i % 3 == 0 ? -1 : 1;
+        }
+        assertEquals(0, VectorQuantizer.hamming(VectorQuantizer.binary(a), VectorQuantizer.binary(a)));
+        assertEquals(44, VectorQuantizer.hamming(VectorQuantizer.binary(a), VectorQuantizer.binary(b)));
+    }
+}